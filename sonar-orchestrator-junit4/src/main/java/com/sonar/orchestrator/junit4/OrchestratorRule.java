@@ -27,6 +27,9 @@ import com.sonar.orchestrator.container.Server;
 import com.sonar.orchestrator.container.SonarDistribution;
 import com.sonar.orchestrator.db.Database;
 import com.sonar.orchestrator.locator.FileLocation;
+import com.sonar.orchestrator.server.StartupReport;
+import java.util.concurrent.CompletableFuture;
+import javax.annotation.CheckForNull;
 
 /**
  * To be used as a JUnit 4 {@link org.junit.Rule} or {@link org.junit.ClassRule}. For example:
@@ -115,6 +118,16 @@ public class OrchestratorRule extends SingleStartExternalResource {
     orchestrator.stop();
   }
 
+  /**
+   * Same as {@link #stop()}, but the server is stopped in background.
+   *
+   * @see Orchestrator#stopAsync()
+   * @since 4.7
+   */
+  public CompletableFuture<Void> stopAsync() {
+    return orchestrator.stopAsync();
+  }
+
   /**
    * restart of the sonarQube server
    */
@@ -122,6 +135,36 @@ public class OrchestratorRule extends SingleStartExternalResource {
     orchestrator.restartServer();
   }
 
+  /**
+   * Saves the state of the server, so that it can be restored later by {@link #rollback()}.
+   *
+   * @see Orchestrator#checkpoint()
+   * @since 4.7
+   */
+  public void checkpoint() {
+    orchestrator.checkpoint();
+  }
+
+  /**
+   * Restores the state saved by the last call to {@link #checkpoint()}.
+   *
+   * @see Orchestrator#rollback()
+   * @since 4.7
+   */
+  public void rollback() {
+    orchestrator.rollback();
+  }
+
+  /**
+   * Deletes all the projects, without restarting the server.
+   *
+   * @see Orchestrator#resetData()
+   * @since 4.7
+   */
+  public void resetData() {
+    orchestrator.resetData();
+  }
+
   public Database getDatabase() {
     return orchestrator.getDatabase();
   }
@@ -134,6 +177,15 @@ public class OrchestratorRule extends SingleStartExternalResource {
     return orchestrator.getServer();
   }
 
+  /**
+   * @see Orchestrator#getStartupReport()
+   * @since 4.7
+   */
+  @CheckForNull
+  public StartupReport getStartupReport() {
+    return orchestrator.getStartupReport();
+  }
+
   /**
    * File located in the shared directory defined by the system property orchestrator.it_sources or environment variable SONAR_IT_SOURCES.
    * Example : getFileLocationOfShared("javascript/performancing/pom.xml")
@@ -162,6 +214,18 @@ public class OrchestratorRule extends SingleStartExternalResource {
     return orchestrator.executeBuildQuietly(build, waitForComputeEngine);
   }
 
+  public CompletableFuture<BuildResult> executeBuildAsync(Build<?> build) {
+    return orchestrator.executeBuildAsync(build);
+  }
+
+  public CompletableFuture<BuildResult> executeBuildQuietlyAsync(Build<?> build) {
+    return orchestrator.executeBuildQuietlyAsync(build);
+  }
+
+  public CompletableFuture<Void> waitForComputeEngineAsync() {
+    return orchestrator.waitForComputeEngineAsync();
+  }
+
   public String getDefaultAdminToken() {
     return orchestrator.getDefaultAdminToken();
   }
@@ -170,6 +234,14 @@ public class OrchestratorRule extends SingleStartExternalResource {
     return orchestrator.executeBuilds(builds);
   }
 
+  public BuildResult[] executeBuildsConcurrently(Build<?>... builds) {
+    return orchestrator.executeBuildsConcurrently(builds);
+  }
+
+  public BuildResult[] executeBuildsConcurrently(int parallelism, Build<?>... builds) {
+    return orchestrator.executeBuildsConcurrently(parallelism, builds);
+  }
+
   public static OrchestratorRuleBuilder builderEnv() {
     return builder(Configuration.createEnv());
   }
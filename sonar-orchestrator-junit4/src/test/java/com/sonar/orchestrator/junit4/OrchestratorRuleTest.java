@@ -90,6 +90,21 @@ public class OrchestratorRuleTest {
 
     reset(proxied);
 
+    proxy.executeBuildAsync(null);
+    verify(proxied).executeBuildAsync(null);
+
+    reset(proxied);
+
+    proxy.executeBuildQuietlyAsync(null);
+    verify(proxied).executeBuildQuietlyAsync(null);
+
+    reset(proxied);
+
+    proxy.waitForComputeEngineAsync();
+    verify(proxied).waitForComputeEngineAsync();
+
+    reset(proxied);
+
     proxy.getDefaultAdminToken();
     verify(proxied).getDefaultAdminToken();
 
@@ -100,6 +115,36 @@ public class OrchestratorRuleTest {
 
     reset(proxied);
 
+    proxy.executeBuildsConcurrently(2);
+    verify(proxied).executeBuildsConcurrently(2);
+
+    reset(proxied);
+
+    proxy.stopAsync();
+    verify(proxied).stopAsync();
+
+    reset(proxied);
+
+    proxy.checkpoint();
+    verify(proxied).checkpoint();
+
+    reset(proxied);
+
+    proxy.rollback();
+    verify(proxied).rollback();
+
+    reset(proxied);
+
+    proxy.resetData();
+    verify(proxied).resetData();
+
+    reset(proxied);
+
+    proxy.getStartupReport();
+    verify(proxied).getStartupReport();
+
+    reset(proxied);
+
 
   }
 
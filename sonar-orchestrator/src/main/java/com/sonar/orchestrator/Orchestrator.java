@@ -26,29 +26,58 @@ import com.sonar.orchestrator.build.BuildResult;
 import com.sonar.orchestrator.build.BuildRunner;
 import com.sonar.orchestrator.build.SynchronousAnalyzer;
 import com.sonar.orchestrator.config.Configuration;
-import com.sonar.orchestrator.config.FileSystem;
+import com.sonar.orchestrator.config.DiskGarbageCollector;
 import com.sonar.orchestrator.config.Licenses;
 import com.sonar.orchestrator.container.Server;
 import com.sonar.orchestrator.container.SonarDistribution;
 import com.sonar.orchestrator.db.Database;
 import com.sonar.orchestrator.db.DefaultDatabase;
+import com.sonar.orchestrator.db.H2;
 import com.sonar.orchestrator.http.HttpCall;
 import com.sonar.orchestrator.http.HttpMethod;
 import com.sonar.orchestrator.http.HttpResponse;
 import com.sonar.orchestrator.locator.FileLocation;
 import com.sonar.orchestrator.locator.Location;
+import com.sonar.orchestrator.server.DataCheckpoint;
+import com.sonar.orchestrator.server.InstallPipeline;
 import com.sonar.orchestrator.server.Packaging;
 import com.sonar.orchestrator.server.PackagingResolver;
+import com.sonar.orchestrator.server.PooledServerProcess;
 import com.sonar.orchestrator.server.ServerCommandLineFactory;
 import com.sonar.orchestrator.server.ServerInstaller;
+import com.sonar.orchestrator.server.ServerPool;
 import com.sonar.orchestrator.server.ServerProcess;
 import com.sonar.orchestrator.server.ServerProcessImpl;
 import com.sonar.orchestrator.server.StartupLogWatcher;
+import com.sonar.orchestrator.server.StartupReport;
+import java.net.URI;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import javax.annotation.CheckForNull;
 import javax.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import static com.sonar.orchestrator.util.OrchestratorUtils.checkArgument;
+import static com.sonar.orchestrator.util.OrchestratorUtils.checkState;
+import static com.sonar.orchestrator.util.OrchestratorUtils.isEmpty;
 import static java.util.Objects.requireNonNull;
 import static java.util.Optional.ofNullable;
 
@@ -57,6 +86,22 @@ public class Orchestrator {
   private static final String ORCHESTRATOR_IS_NOT_STARTED = "Orchestrator is not started";
   private static final String SONAR_LOGIN_PROPERTY_NAME = "sonar.login";
   private static final String SONAR_TOKEN_PROPERTY_NAME = "sonar.token";
+  /**
+   * Maximum number of builds executed concurrently by {@link #executeBuildsConcurrently(Build[])}. Default is
+   * the number of processors.
+   */
+  public static final String BUILDS_PARALLELISM_PROPERTY = "orchestrator.builds.parallelism";
+  private static final Logger LOG = LoggerFactory.getLogger(Orchestrator.class);
+  private static final ExecutorService ASYNC_BUILD_EXECUTOR = Executors.newCachedThreadPool(Orchestrator::newBuildThread);
+  private static final ExecutorService STOP_EXECUTOR = Executors.newCachedThreadPool(Orchestrator::newStopThread);
+  /**
+   * Servers being stopped by {@link #stopAsync()}, with the ports, database and server home that they use
+   */
+  private static final Map<CompletableFuture<Void>, Set<String>> PENDING_STOPS = new ConcurrentHashMap<>();
+  private static final AtomicBoolean PENDING_STOPS_HOOK_REGISTERED = new AtomicBoolean(false);
+  private static final String PORT_RESOURCE = "port:";
+  private static final String JDBC_RESOURCE = "jdbc:";
+  private static final String HOME_RESOURCE = "home:";
 
   private final Configuration config;
   private final SonarDistribution distribution;
@@ -69,7 +114,8 @@ public class Orchestrator {
   private ServerProcess process;
   private StartupLogWatcher startupLogWatcher;
   private String adminToken;
-  private Packaging packaging;
+  private DataCheckpoint checkpoint;
+  private CompletableFuture<Void> pendingStop;
 
   /**
    * Constructor, but use rather OrchestratorBuilder
@@ -89,13 +135,21 @@ public class Orchestrator {
    */
   public Server install() {
     if (server == null) {
+      if (DiskGarbageCollector.isEnabled(config)) {
+        new DiskGarbageCollector(config).collect();
+      }
       database = new DefaultDatabase(config);
-      database.start();
-
       PackagingResolver packagingResolver = new PackagingResolver(config.locators());
-      packaging = packagingResolver.resolve(distribution);
       ServerInstaller serverInstaller = new ServerInstaller(packagingResolver, config, config.locators(), database.getClient());
-      server = serverInstaller.install(distribution);
+
+      // the database is prepared while SonarQube is downloaded and installed
+      try (InstallPipeline pipeline = new InstallPipeline()) {
+        CompletableFuture<Void> databaseStarted = pipeline.run("start database", database::start);
+        CompletableFuture<Packaging> resolvedPackaging = serverInstaller.resolvePackaging(distribution, pipeline);
+        Server installedServer = serverInstaller.install(distribution, pipeline, resolvedPackaging);
+        InstallPipeline.join(databaseStarted);
+        server = installedServer;
+      }
     }
     return server;
   }
@@ -114,12 +168,23 @@ public class Orchestrator {
     if (started.getAndSet(true)) {
       throw new IllegalStateException("Orchestrator is already started");
     }
+    if (pendingStop != null) {
+      awaitQuietly(pendingStop);
+      pendingStop = null;
+    }
+    awaitPendingStops(this::conflictsWithPendingStop);
 
-    install();
+    if (ServerPool.isEnabled(config)) {
+      startFromPool();
+    } else {
+      install();
 
-    FileSystem fs = config.fileSystem();
-    process = new ServerProcessImpl(new ServerCommandLineFactory(fs), server, startupLogWatcher);
-    process.start();
+      ServerProcessImpl serverProcess = new ServerProcessImpl(newServerCommandLineFactory(), server, startupLogWatcher);
+      serverProcess.setCheckStatus(Boolean.parseBoolean(config.getString(ServerProcessImpl.CHECK_STATUS_PROPERTY, "false")));
+      serverProcess.setEchoConsole(Boolean.parseBoolean(config.getString(ServerProcessImpl.ECHO_CONSOLE_PROPERTY, "true")));
+      process = serverProcess;
+      process.start();
+    }
 
     for (Location backup : distribution.getProfileBackups()) {
       server.restoreProfile(backup);
@@ -132,6 +197,32 @@ public class Orchestrator {
     buildRunner = new BuildRunner(config);
   }
 
+  /**
+   * Leases a running server from the pool shared by the JVMs of the test suite. If none is available,
+   * the server is installed as usual, then handed over to the pool.
+   */
+  private void startFromPool() {
+    ServerPool.Lease lease = new ServerPool(config).lease(ServerPool.fingerprintOf(distribution));
+    try {
+      if (lease.isStarted()) {
+        server = lease.getServer(config.locators());
+        database = new DefaultDatabase(H2.builder().setUrl(lease.getJdbcUrl()).build());
+        database.start();
+      } else {
+        install();
+      }
+      process = new PooledServerProcess(lease, server, database.getClient().getUrl(), newServerCommandLineFactory());
+      process.start();
+    } catch (RuntimeException e) {
+      lease.close();
+      throw e;
+    }
+  }
+
+  private ServerCommandLineFactory newServerCommandLineFactory() {
+    return new ServerCommandLineFactory(config.fileSystem(), ServerCommandLineFactory.isAppCdsEnabled(config));
+  }
+
   /**
    * Set a test license that work for all commercial products
    *
@@ -172,25 +263,193 @@ public class Orchestrator {
       // ignore double-stop
       return;
     }
+    stop(process, database, checkpoint);
+    checkpoint = null;
+  }
+
+  /**
+   * Same as {@link #stop()}, but the server is stopped in background, so that the caller can for example
+   * install the server of the next test class in the meantime. The JVM does not exit before the pending stops
+   * are done.
+   * <p/>
+   * Servers started in the meantime get other ports, another H2 database and another workspace directory than
+   * the servers being stopped. If ports, database or server home are fixed by configuration, {@link #start()} waits
+   * for the pending stops that use them.
+   *
+   * @since 4.7
+   */
+  public CompletableFuture<Void> stopAsync() {
+    if (!started.getAndSet(false)) {
+      return CompletableFuture.completedFuture(null);
+    }
+    ServerProcess processToStop = process;
+    DefaultDatabase databaseToStop = database;
+    DataCheckpoint checkpointToDelete = checkpoint;
+    checkpoint = null;
+    CompletableFuture<Void> stop = new CompletableFuture<>();
+    registerPendingStop(stop, resourcesInUse());
+    STOP_EXECUTOR.execute(() -> {
+      try {
+        stop(processToStop, databaseToStop, checkpointToDelete);
+        stop.complete(null);
+      } catch (RuntimeException e) {
+        LOG.warn("Fail to stop server", e);
+        stop.completeExceptionally(e);
+      }
+    });
+    pendingStop = stop;
+    return stop;
+  }
 
+  private static void stop(@Nullable ServerProcess process, @Nullable DefaultDatabase database, @Nullable DataCheckpoint checkpoint) {
     if (process != null) {
       process.stop();
     }
     if (database != null) {
       database.stop();
     }
+    if (checkpoint != null) {
+      checkpoint.delete();
+    }
+  }
+
+  static void registerPendingStop(CompletableFuture<Void> stop, Set<String> resources) {
+    PENDING_STOPS.put(stop, resources);
+    stop.whenComplete((result, failure) -> PENDING_STOPS.remove(stop));
+    if (!PENDING_STOPS_HOOK_REGISTERED.getAndSet(true)) {
+      Runtime.getRuntime().addShutdownHook(new Thread(Orchestrator::awaitPendingStops, "orchestrator-pending-stops"));
+    }
+  }
+
+  /**
+   * Executed by the shutdown hook, so that the JVM does not exit while servers are being stopped
+   */
+  static void awaitPendingStops() {
+    awaitPendingStops(resources -> true);
+  }
+
+  private static void awaitPendingStops(Predicate<Set<String>> filter) {
+    for (Map.Entry<CompletableFuture<Void>, Set<String>> stop : new ArrayList<>(PENDING_STOPS.entrySet())) {
+      if (filter.test(stop.getValue())) {
+        awaitQuietly(stop.getKey());
+      }
+    }
+  }
+
+  private static void awaitQuietly(CompletableFuture<Void> stop) {
+    // failures are logged by stopAsync()
+    stop.handle((result, failure) -> null).join();
+  }
+
+  /**
+   * Whether the server may use the ports, the database or the home of a server being stopped
+   */
+  boolean conflictsWithPendingStop(Set<String> resourcesOfStop) {
+    return !Collections.disjoint(sharedResources(), resourcesOfStop);
+  }
+
+  /**
+   * Ports, database and server home that are fixed by configuration. Servers with the same configuration
+   * use them, even if they are started one after the other.
+   */
+  Set<String> sharedResources() {
+    Set<String> resources = new HashSet<>();
+    Stream.of(config.getString("orchestrator.container.port"), distribution.getServerProperty("sonar.web.port"),
+      distribution.getServerProperty("sonar.search.port"), distribution.getServerProperty("sonar.embeddedDatabase.port"))
+      .filter(port -> !isEmpty(port) && !"0".equals(port))
+      .forEach(port -> resources.add(PORT_RESOURCE + port));
+    // a new H2 database with a free port is created for each server, unless the JDBC URL is configured
+    Stream.of(config.getString("sonar.jdbc.url"), distribution.getServerProperty("sonar.jdbc.url"))
+      .filter(url -> !isEmpty(url))
+      .forEach(url -> resources.add(JDBC_RESOURCE + url));
+    // reusable homes of a workspace are shared, other homes are locked by a single server
+    if (Boolean.parseBoolean(config.getString(ServerInstaller.REUSE_SERVER_HOME_PROPERTY, "false"))) {
+      resources.add(HOME_RESOURCE + config.fileSystem().workspace().getAbsolutePath());
+    }
+    return resources;
+  }
+
+  /**
+   * Same as {@link #sharedResources()}, plus the ports and the database that have been allocated to the server
+   */
+  private Set<String> resourcesInUse() {
+    Set<String> resources = sharedResources();
+    if (server != null) {
+      resources.add(PORT_RESOURCE + URI.create(server.getUrl()).getPort());
+      resources.add(PORT_RESOURCE + server.getSearchPort());
+    }
+    if (database != null) {
+      resources.add(JDBC_RESOURCE + database.getClient().getUrl());
+    }
+    return resources;
   }
 
   /**
    * restart of the sonarQube server
    */
   public void restartServer() {
+    checkNotLeasedFromPool("restartServer()");
     if (process != null) {
       process.stop();
       process.start();
     }
   }
 
+  /**
+   * Saves the state of the server (database and Elasticsearch indices), so that it can be restored
+   * later by {@link #rollback()}, for example between test classes. The server is restarted.
+   * Only the embedded H2 database is supported.
+   *
+   * @since 4.7
+   */
+  public void checkpoint() {
+    requireNonNull(process, ORCHESTRATOR_IS_NOT_STARTED);
+    checkNotLeasedFromPool("checkpoint()");
+    checkState(database.isStoredInServerHome(), "Checkpoint is supported only with the embedded H2 database");
+    process.stop();
+    if (checkpoint == null) {
+      checkpoint = DataCheckpoint.create(config.fileSystem().workspace(), server.getHome());
+    }
+    checkpoint.save();
+    process.start();
+  }
+
+  /**
+   * Restores the state saved by the last call to {@link #checkpoint()}. The server is restarted, but
+   * as database and indices are up-to-date, it does not execute migrations nor indexing.
+   *
+   * @since 4.7
+   */
+  public void rollback() {
+    requireNonNull(process, ORCHESTRATOR_IS_NOT_STARTED);
+    checkNotLeasedFromPool("rollback()");
+    checkState(checkpoint != null, "No checkpoint to roll back to");
+    process.stop();
+    checkpoint.restore();
+    process.start();
+  }
+
+  /**
+   * A server leased from the pool is run by the pool, which restarts it only when the lease is released.
+   */
+  private void checkNotLeasedFromPool(String method) {
+    checkState(!(process instanceof PooledServerProcess), "%s is not supported when the server is leased from the pool (property %s)",
+      method, ServerPool.ENABLED_PROPERTY);
+  }
+
+  /**
+   * Deletes all the projects, so that the server is back to the state following its startup, without
+   * the cost of {@link #restartServer()}. Users, tokens, Quality profiles, settings and license are kept.
+   *
+   * @since 4.7
+   */
+  public void resetData() {
+    requireNonNull(process, ORCHESTRATOR_IS_NOT_STARTED);
+    // analyses still in queue would create projects again
+    new SynchronousAnalyzer(server).waitForDone();
+    server.deleteAllProjects();
+  }
+
   public Database getDatabase() {
     return database;
   }
@@ -203,6 +462,17 @@ public class Orchestrator {
     return server;
   }
 
+  /**
+   * Timing of the phases of the last startup of the server (Elasticsearch, web and Compute Engine processes,
+   * DB migration, plugins), or {@code null} if the server has not been started yet.
+   *
+   * @since 4.7
+   */
+  @CheckForNull
+  public StartupReport getStartupReport() {
+    return process == null ? null : process.getStartupReport();
+  }
+
   /**
    * File located in the shared directory defined by the system property orchestrator.it_sources or environment variable SONAR_IT_SOURCES.
    * Example : getFileLocationOfShared("javascript/performancing/pom.xml")
@@ -248,6 +518,74 @@ public class Orchestrator {
     return buildResult;
   }
 
+  /**
+   * Executes the build in background. The Compute Engine is not waited for, see {@link #waitForComputeEngineAsync()}:
+   * <pre>
+   *   orchestrator.executeBuildAsync(build)
+   *     .thenCompose(result -> orchestrator.waitForComputeEngineAsync().thenApply(v -> result))
+   * </pre>
+   * Cancelling the returned future kills the process of the build, including its child processes on Java 9+.
+   * The future is completed exceptionally with {@link com.sonar.orchestrator.build.BuildFailureException} if
+   * the build fails.
+   *
+   * @since 4.7
+   */
+  public CompletableFuture<BuildResult> executeBuildAsync(Build<?> build) {
+    return executeBuildAsync(build, false);
+  }
+
+  /**
+   * Same as {@link #executeBuildAsync(Build)}, but the future is completed normally if the build fails.
+   *
+   * @since 4.7
+   */
+  public CompletableFuture<BuildResult> executeBuildQuietlyAsync(Build<?> build) {
+    return executeBuildAsync(build, true);
+  }
+
+  /**
+   * Waits in background for the Compute Engine to process all the analysis reports. Cancelling the returned
+   * future stops waiting.
+   *
+   * @since 4.7
+   */
+  public CompletableFuture<Void> waitForComputeEngineAsync() {
+    requireNonNull(buildRunner, ORCHESTRATOR_IS_NOT_STARTED);
+    Server startedServer = server;
+    return supplyCancellable(() -> {
+      new SynchronousAnalyzer(startedServer).waitForDone();
+      return null;
+    });
+  }
+
+  private CompletableFuture<BuildResult> executeBuildAsync(Build<?> build, boolean quietly) {
+    requireNonNull(buildRunner, ORCHESTRATOR_IS_NOT_STARTED);
+    setDefaultAdminToken(build);
+    BuildRunner runner = buildRunner;
+    Server startedServer = server;
+    return supplyCancellable(() -> quietly ? runner.runQuietly(startedServer, build) : runner.run(startedServer, build));
+  }
+
+  /**
+   * The task is executed by a thread of its own, which is interrupted when the returned future is cancelled.
+   */
+  private static <T> CompletableFuture<T> supplyCancellable(Supplier<T> task) {
+    CompletableFuture<T> future = new CompletableFuture<>();
+    Future<?> execution = ASYNC_BUILD_EXECUTOR.submit(() -> {
+      try {
+        future.complete(task.get());
+      } catch (RuntimeException | Error e) {
+        future.completeExceptionally(e);
+      }
+    });
+    future.whenComplete((result, failure) -> {
+      if (future.isCancelled()) {
+        execution.cancel(true);
+      }
+    });
+    return future;
+  }
+
   private void setDefaultAdminToken(Build<?> build) {
     if (build.getProperties().containsKey(SONAR_LOGIN_PROPERTY_NAME) || build.getProperties().containsKey(SONAR_TOKEN_PROPERTY_NAME)) {
       return;
@@ -258,7 +596,7 @@ public class Orchestrator {
     }
 
     if (distribution.useDefaultAdminCredentialsForBuilds()) {
-      if (packaging.getVersion().isGreaterThanOrEquals(10, 0)) {
+      if (server.version().isGreaterThanOrEquals(10, 0)) {
         build.setProperty(SONAR_TOKEN_PROPERTY_NAME, getDefaultAdminToken());
       } else {
         // Keep backwards compatibility with SQ < 10.0, where the sonar.token property is not implemented
@@ -303,4 +641,79 @@ public class Orchestrator {
     return results;
   }
 
+  /**
+   * Same as {@link #executeBuilds(Build[])}, but builds are executed concurrently, in separate processes. The
+   * number of concurrent builds is defined by the property {@value #BUILDS_PARALLELISM_PROPERTY}, by default
+   * the number of processors.
+   *
+   * @since 4.7
+   */
+  public BuildResult[] executeBuildsConcurrently(Build<?>... builds) {
+    return executeBuildsConcurrently(config.getInt(BUILDS_PARALLELISM_PROPERTY, Runtime.getRuntime().availableProcessors()), builds);
+  }
+
+  /**
+   * Same as {@link #executeBuilds(Build[])}, but up to {@code parallelism} builds are executed concurrently, in
+   * separate processes. The Compute Engine is waited for once, when all the builds are done.
+   * <p/>
+   * The first failure cancels the builds that are still running or not started yet.
+   *
+   * @since 4.7
+   */
+  public BuildResult[] executeBuildsConcurrently(int parallelism, Build<?>... builds) {
+    requireNonNull(buildRunner, ORCHESTRATOR_IS_NOT_STARTED);
+    checkArgument(parallelism > 0, "Parallelism must be positive. Got %s.", parallelism);
+
+    // the admin token is generated once, before builds are started
+    Arrays.stream(builds).forEach(this::setDefaultAdminToken);
+
+    BuildResult[] results = new BuildResult[builds.length];
+    int threads = Math.max(1, Math.min(parallelism, builds.length));
+    ExecutorService executor = Executors.newFixedThreadPool(threads, Orchestrator::newBuildThread);
+    try {
+      CompletionService<Void> completionService = new ExecutorCompletionService<>(executor);
+      for (int index = 0; index < builds.length; index++) {
+        int buildIndex = index;
+        completionService.submit(() -> {
+          results[buildIndex] = buildRunner.run(server, builds[buildIndex]);
+          return null;
+        });
+      }
+      for (int index = 0; index < builds.length; index++) {
+        waitForBuild(completionService.take());
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while executing builds", e);
+    } finally {
+      // processes of the interrupted builds are destroyed
+      executor.shutdownNow();
+    }
+    new SynchronousAnalyzer(server).waitForDone();
+    return results;
+  }
+
+  private static void waitForBuild(Future<Void> future) throws InterruptedException {
+    try {
+      future.get();
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new IllegalStateException("Fail to execute build", cause);
+    }
+  }
+
+  private static Thread newBuildThread(Runnable runnable) {
+    Thread thread = new Thread(runnable, "orchestrator-build");
+    thread.setDaemon(true);
+    return thread;
+  }
+
+  private static Thread newStopThread(Runnable runnable) {
+    Thread thread = new Thread(runnable, "orchestrator-stop");
+    thread.setDaemon(true);
+    return thread;
+  }
 }
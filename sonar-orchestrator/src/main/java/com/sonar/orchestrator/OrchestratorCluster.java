@@ -0,0 +1,320 @@
+/*
+ * Orchestrator
+ * Copyright (C) 2011-2024 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.sonar.orchestrator;
+
+import com.sonar.orchestrator.config.Configuration;
+import com.sonar.orchestrator.config.Licenses;
+import com.sonar.orchestrator.container.Server;
+import com.sonar.orchestrator.container.SonarDistribution;
+import com.sonar.orchestrator.db.Database;
+import com.sonar.orchestrator.db.DefaultDatabase;
+import com.sonar.orchestrator.http.HttpMethod;
+import com.sonar.orchestrator.server.InstallPipeline;
+import com.sonar.orchestrator.server.Packaging;
+import com.sonar.orchestrator.server.PackagingResolver;
+import com.sonar.orchestrator.server.ServerCommandLineFactory;
+import com.sonar.orchestrator.server.ServerInstaller;
+import com.sonar.orchestrator.server.ServerProcess;
+import com.sonar.orchestrator.server.ServerProcessImpl;
+import com.sonar.orchestrator.server.StartupLogWatcher;
+import com.sonar.orchestrator.util.NetworkUtils;
+import java.net.InetAddress;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.IntSupplier;
+import javax.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static com.sonar.orchestrator.util.OrchestratorUtils.checkState;
+import static java.util.Collections.unmodifiableList;
+import static java.util.Objects.requireNonNull;
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Cluster of SonarQube Data Center Edition, made of search nodes and application nodes running
+ * on the local host. Ports of all the nodes are allocated upfront, the nodes are installed concurrently
+ * from a single extraction of the distribution, then the search nodes are started concurrently,
+ * followed by the application nodes.
+ * <p/>
+ * The nodes share the database defined by the configuration, which must not be H2.
+ *
+ * <pre>
+ *   OrchestratorCluster cluster = OrchestratorCluster.builderEnv()
+ *     .setSonarVersion("DEV")
+ *     .setEdition(Edition.DATACENTER)
+ *     .activateLicense()
+ *     .setSearchNodes(3)
+ *     .setApplicationNodes(2)
+ *     .build();
+ *   cluster.start();
+ * </pre>
+ *
+ * @since 4.7
+ */
+public class OrchestratorCluster {
+
+  static final String SEARCH_NODE_STARTED_LOG = "Process[es] is up";
+  private static final String NODE_NAME_PROPERTY = "sonar.cluster.node.name";
+  private static final Logger LOG = LoggerFactory.getLogger(OrchestratorCluster.class);
+  private static final StartupLogWatcher SEARCH_NODE_WATCHER = logLine -> logLine.contains(SEARCH_NODE_STARTED_LOG);
+
+  private final Configuration config;
+  private final SonarDistribution distribution;
+  private final int searchNodeCount;
+  private final int applicationNodeCount;
+  @Nullable
+  private final StartupLogWatcher startupLogWatcher;
+  private final AtomicBoolean started = new AtomicBoolean(false);
+  private final AtomicInteger nextApplicationNode = new AtomicInteger(0);
+  private final List<Server> searchNodes = new ArrayList<>();
+  private final List<Server> applicationNodes = new ArrayList<>();
+  private final List<ServerProcess> searchProcesses = new ArrayList<>();
+  private final List<ServerProcess> applicationProcesses = new ArrayList<>();
+  private DefaultDatabase database;
+
+  OrchestratorCluster(Configuration config, SonarDistribution distribution, int searchNodeCount, int applicationNodeCount,
+    @Nullable StartupLogWatcher startupLogWatcher) {
+    this.config = requireNonNull(config);
+    this.distribution = requireNonNull(distribution);
+    this.searchNodeCount = searchNodeCount;
+    this.applicationNodeCount = applicationNodeCount;
+    this.startupLogWatcher = startupLogWatcher;
+  }
+
+  public static OrchestratorClusterBuilder builderEnv() {
+    return builder(Configuration.createEnv());
+  }
+
+  public static OrchestratorClusterBuilder builder(Configuration config) {
+    return new OrchestratorClusterBuilder(config);
+  }
+
+  /**
+   * Installs and starts all the nodes. Nodes that are already started are stopped if another node
+   * fails to start.
+   */
+  public void start() {
+    checkState(!started.getAndSet(true), "Cluster is already started");
+    try {
+      database = new DefaultDatabase(config);
+      checkState(!database.isStoredInServerHome(), "Cluster requires a database shared by the nodes. H2 is not supported.");
+      install();
+      ServerCommandLineFactory commandLineFactory = new ServerCommandLineFactory(config.fileSystem(), ServerCommandLineFactory.isAppCdsEnabled(config));
+      startAll(searchNodes, searchProcesses, server -> new ServerProcessImpl(commandLineFactory, server, SEARCH_NODE_WATCHER));
+      startAll(applicationNodes, applicationProcesses, server -> newApplicationProcess(commandLineFactory, server));
+      if (distribution.isActivateLicense()) {
+        activateLicense(applicationNodes.get(0));
+      }
+    } catch (RuntimeException e) {
+      stop();
+      throw e;
+    }
+  }
+
+  private void install() {
+    InetAddress host = InetAddress.getLoopbackAddress();
+    List<SonarDistribution> nodes = configureNodes(host, () -> NetworkUtils.getNextAvailablePort(host));
+    ServerInstaller installer = new ServerInstaller(new PackagingResolver(config.locators()), config, config.locators(), database.getClient());
+    try (InstallPipeline pipeline = new InstallPipeline()) {
+      CompletableFuture<Void> databaseStarted = pipeline.run("start database", database::start);
+      CompletableFuture<Packaging> packaging = installer.resolveSharedPackaging(distribution, pipeline);
+      List<CompletableFuture<Server>> servers = nodes.stream()
+        .map(node -> pipeline.supply("install " + node.getServerProperty(NODE_NAME_PROPERTY), () -> installer.install(node, pipeline, packaging)))
+        .collect(toList());
+      List<CompletableFuture<?>> all = new ArrayList<>(servers);
+      all.add(databaseStarted);
+      InstallPipeline.joinAll(all.toArray(new CompletableFuture<?>[0]));
+      for (int i = 0; i < servers.size(); i++) {
+        (i < searchNodeCount ? searchNodes : applicationNodes).add(InstallPipeline.join(servers.get(i)));
+      }
+    }
+  }
+
+  private ServerProcess newApplicationProcess(ServerCommandLineFactory commandLineFactory, Server server) {
+    ServerProcessImpl process = new ServerProcessImpl(commandLineFactory, server, startupLogWatcher);
+    process.setCheckStatus(Boolean.parseBoolean(config.getString(ServerProcessImpl.CHECK_STATUS_PROPERTY, "false")));
+    process.setEchoConsole(Boolean.parseBoolean(config.getString(ServerProcessImpl.ECHO_CONSOLE_PROPERTY, "true")));
+    return process;
+  }
+
+  private static void startAll(List<Server> servers, List<ServerProcess> processes, Function<Server, ServerProcess> processFactory) {
+    List<CompletableFuture<Void>> startups = new ArrayList<>();
+    for (Server server : servers) {
+      ServerProcess process = processFactory.apply(server);
+      processes.add(process);
+      startups.add(process.startAsync());
+    }
+    InstallPipeline.joinAll(startups.toArray(new CompletableFuture<?>[0]));
+  }
+
+  private void activateLicense(Server server) {
+    String license = new Licenses(config).getLicense(server.getEdition(), server.version());
+    server.newHttpCall("api/editions/set_license")
+      .setMethod(HttpMethod.POST)
+      .setAdminCredentials()
+      .setParam("license", license)
+      .execute();
+  }
+
+  /**
+   * Stops the application nodes, then the search nodes. Nodes of the same type are stopped concurrently.
+   */
+  public void stop() {
+    if (!started.getAndSet(false)) {
+      return;
+    }
+    ExecutorService executor = Executors.newCachedThreadPool(OrchestratorCluster::newStopThread);
+    try {
+      stopAll(applicationProcesses, executor);
+      stopAll(searchProcesses, executor);
+    } finally {
+      executor.shutdown();
+      applicationProcesses.clear();
+      searchProcesses.clear();
+      if (database != null) {
+        database.stop();
+      }
+    }
+  }
+
+  private static void stopAll(List<ServerProcess> processes, ExecutorService executor) {
+    List<CompletableFuture<Void>> stops = processes.stream()
+      .map(process -> CompletableFuture.runAsync(process::stop, executor))
+      .collect(toList());
+    for (CompletableFuture<Void> stop : stops) {
+      try {
+        InstallPipeline.join(stop);
+      } catch (RuntimeException e) {
+        LOG.warn("Fail to stop cluster node", e);
+      }
+    }
+  }
+
+  public List<Server> getSearchNodes() {
+    return unmodifiableList(searchNodes);
+  }
+
+  public List<Server> getApplicationNodes() {
+    return unmodifiableList(applicationNodes);
+  }
+
+  /**
+   * URLs of the application nodes, for example to be configured in a load balancer.
+   */
+  public List<String> getApplicationNodeUrls() {
+    return applicationNodes.stream().map(Server::getUrl).collect(toList());
+  }
+
+  /**
+   * Application nodes in turn, so that the calls are balanced between them.
+   */
+  public Server nextApplicationNode() {
+    checkState(!applicationNodes.isEmpty(), "Cluster is not started");
+    return applicationNodes.get(Math.floorMod(nextApplicationNode.getAndIncrement(), applicationNodes.size()));
+  }
+
+  public Database getDatabase() {
+    return database;
+  }
+
+  public Configuration getConfiguration() {
+    return config;
+  }
+
+  public SonarDistribution getDistribution() {
+    return distribution;
+  }
+
+  /**
+   * Distributions of the search nodes, followed by the distributions of the application nodes. Nodes
+   * must know the addresses of each other, so all the ports are allocated before installation.
+   */
+  List<SonarDistribution> configureNodes(InetAddress host, IntSupplier ports) {
+    String address = host.getHostAddress();
+    List<String> esHosts = new ArrayList<>();
+    List<String> searchHosts = new ArrayList<>();
+    List<Integer> esPorts = new ArrayList<>();
+    List<Integer> searchPorts = new ArrayList<>();
+    for (int i = 0; i < searchNodeCount; i++) {
+      esPorts.add(ports.getAsInt());
+      searchPorts.add(ports.getAsInt());
+      esHosts.add(address + ":" + esPorts.get(i));
+      searchHosts.add(address + ":" + searchPorts.get(i));
+    }
+    List<String> hazelcastHosts = new ArrayList<>();
+    List<Integer> hazelcastPorts = new ArrayList<>();
+    List<Integer> webPorts = new ArrayList<>();
+    for (int i = 0; i < applicationNodeCount; i++) {
+      hazelcastPorts.add(ports.getAsInt());
+      webPorts.add(ports.getAsInt());
+      hazelcastHosts.add(address + ":" + hazelcastPorts.get(i));
+    }
+
+    List<SonarDistribution> nodes = new ArrayList<>();
+    for (int i = 0; i < searchNodeCount; i++) {
+      nodes.add(newNode("search", "search-" + (i + 1), esHosts, searchHosts, hazelcastHosts)
+        .setServerProperty("sonar.cluster.node.search.host", address)
+        .setServerProperty("sonar.cluster.node.search.port", String.valueOf(searchPorts.get(i)))
+        .setServerProperty("sonar.cluster.node.es.host", address)
+        .setServerProperty("sonar.cluster.node.es.port", String.valueOf(esPorts.get(i))));
+    }
+    String jwtSecret = newJwtSecret();
+    for (int i = 0; i < applicationNodeCount; i++) {
+      nodes.add(newNode("application", "app-" + (i + 1), esHosts, searchHosts, hazelcastHosts)
+        .setServerProperty("sonar.cluster.node.host", address)
+        .setServerProperty("sonar.cluster.node.port", String.valueOf(hazelcastPorts.get(i)))
+        .setServerProperty("sonar.web.host", address)
+        .setServerProperty("sonar.web.port", String.valueOf(webPorts.get(i)))
+        .setServerProperty("sonar.auth.jwtBase64Hs256Secret", jwtSecret));
+    }
+    return nodes;
+  }
+
+  private SonarDistribution newNode(String type, String name, List<String> esHosts, List<String> searchHosts, List<String> hazelcastHosts) {
+    return distribution.copy()
+      .setServerProperty("sonar.cluster.enabled", "true")
+      .setServerProperty("sonar.cluster.node.type", type)
+      .setServerProperty(NODE_NAME_PROPERTY, name)
+      .setServerProperty("sonar.cluster.es.hosts", String.join(",", esHosts))
+      .setServerProperty("sonar.cluster.search.hosts", String.join(",", searchHosts))
+      .setServerProperty("sonar.cluster.hosts", String.join(",", hazelcastHosts));
+  }
+
+  private static String newJwtSecret() {
+    byte[] secret = new byte[32];
+    new SecureRandom().nextBytes(secret);
+    return Base64.getEncoder().encodeToString(secret);
+  }
+
+  private static Thread newStopThread(Runnable runnable) {
+    Thread thread = new Thread(runnable, "orchestrator-cluster-stop");
+    thread.setDaemon(true);
+    return thread;
+  }
+}
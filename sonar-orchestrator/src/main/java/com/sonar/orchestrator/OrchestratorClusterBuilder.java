@@ -0,0 +1,78 @@
+/*
+ * Orchestrator
+ * Copyright (C) 2011-2024 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.sonar.orchestrator;
+
+import com.sonar.orchestrator.config.Configuration;
+import com.sonar.orchestrator.container.SonarDistribution;
+import com.sonar.orchestrator.server.ServerInstaller;
+import com.sonar.orchestrator.server.StartupLogWatcher;
+
+import static com.sonar.orchestrator.util.OrchestratorUtils.checkArgument;
+
+/**
+ * Builder of {@link OrchestratorCluster}. The distribution, plugins and server properties are
+ * shared by all the nodes.
+ *
+ * @since 4.7
+ */
+public class OrchestratorClusterBuilder extends OrchestratorBuilder<OrchestratorClusterBuilder, OrchestratorCluster> {
+
+  private int searchNodes = 3;
+  private int applicationNodes = 2;
+
+  OrchestratorClusterBuilder(Configuration initialConfig) {
+    super(initialConfig);
+  }
+
+  /**
+   * Number of search nodes. Default is 3.
+   */
+  public OrchestratorClusterBuilder setSearchNodes(int i) {
+    checkArgument(i > 0, "At least one search node is required. Got %s.", i);
+    this.searchNodes = i;
+    return this;
+  }
+
+  /**
+   * Number of application nodes. Default is 2.
+   */
+  public OrchestratorClusterBuilder setApplicationNodes(int i) {
+    checkArgument(i > 0, "At least one application node is required. Got %s.", i);
+    this.applicationNodes = i;
+    return this;
+  }
+
+  /**
+   * The watcher, if any, is used by the application nodes. Search nodes are considered as started
+   * when Elasticsearch is up.
+   */
+  @Override
+  protected OrchestratorCluster build(Configuration finalConfig, SonarDistribution distribution, StartupLogWatcher startupLogWatcher) {
+    Configuration clusterConfig = finalConfig;
+    if (finalConfig.getString(ServerInstaller.DISTRIBUTION_CACHE_PROPERTY) == null) {
+      // all the nodes are installed from a single extraction of the zip
+      clusterConfig = Configuration.builder()
+        .addConfiguration(finalConfig)
+        .setProperty(ServerInstaller.DISTRIBUTION_CACHE_PROPERTY, "true")
+        .build();
+    }
+    return new OrchestratorCluster(clusterConfig, distribution, searchNodes, applicationNodes, startupLogWatcher);
+  }
+}
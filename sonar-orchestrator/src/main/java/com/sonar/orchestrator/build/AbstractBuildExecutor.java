@@ -21,7 +21,9 @@ package com.sonar.orchestrator.build;
 
 import com.sonar.orchestrator.config.Configuration;
 import com.sonar.orchestrator.coverage.JaCoCoArgumentsBuilder;
+import com.sonar.orchestrator.util.Command;
 import com.sonar.orchestrator.util.CommandExecutor;
+import com.sonar.orchestrator.util.StreamConsumer;
 import java.util.Map;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -29,6 +31,7 @@ import org.slf4j.LoggerFactory;
 abstract class AbstractBuildExecutor<T extends Build<T>> {
 
   private static final Logger LOG = LoggerFactory.getLogger(AbstractBuildExecutor.class);
+  private static final int ECHO_CHUNK_LINES = 1_000;
 
   final BuildResult execute(T build, Configuration config, Map<String, String> adjustedProperties) {
     return execute(build, config, adjustedProperties, CommandExecutor.create());
@@ -55,4 +58,38 @@ abstract class AbstractBuildExecutor<T extends Build<T>> {
     }
   }
 
+  /**
+   * Executes the command and appends its output to the logs of the result. Output is displayed on the console
+   * depending on {@link ConsoleEcho}. When it's not displayed while the command is running, the output is
+   * directly appended to the file of logs by the operating system. The file is kept only if logs do not fit
+   * in memory.
+   * @return the exit code of the command
+   */
+  static int executeCommand(Configuration config, CommandExecutor commandExecutor, Command command, BuildResult result, long timeoutMs) {
+    ConsoleEcho echo = ConsoleEcho.of(config);
+    if (echo == ConsoleEcho.ON) {
+      try (StreamConsumer.Pipe pipe = new StreamConsumer.Pipe(result.getLogsWriter())) {
+        return commandExecutor.execute(command, pipe, timeoutMs);
+      }
+    }
+    int firstLine = result.getLogsLineCount();
+    int status;
+    try {
+      status = commandExecutor.execute(command, result.redirectLogsToFile(), timeoutMs);
+    } finally {
+      result.endLogsRedirect();
+    }
+    if (status != 0 && echo == ConsoleEcho.ON_FAILURE) {
+      echo(result, firstLine);
+    }
+    return status;
+  }
+
+  private static void echo(BuildResult result, int firstLine) {
+    int lineCount = result.getLogsLineCount();
+    for (int from = firstLine; from < lineCount; from += ECHO_CHUNK_LINES) {
+      result.getLogsLines(from, Math.min(from + ECHO_CHUNK_LINES, lineCount)).forEach(System.out::println);
+    }
+  }
+
 }
@@ -22,7 +22,6 @@ package com.sonar.orchestrator.build;
 import com.sonar.orchestrator.config.Configuration;
 import com.sonar.orchestrator.util.Command;
 import com.sonar.orchestrator.util.CommandExecutor;
-import com.sonar.orchestrator.util.StreamConsumer;
 import java.io.File;
 import java.io.IOException;
 import java.util.Map;
@@ -62,8 +61,7 @@ class AntBuildExecutor extends AbstractBuildExecutor<AntBuild> {
         command.addSystemArgument(entry.getKey().toString(), entry.getValue().toString());
       }
       LoggerFactory.getLogger(getClass()).info("Execute: {}", command);
-      StreamConsumer.Pipe writer = new StreamConsumer.Pipe(result.getLogsWriter());
-      int status = commandExecutor.execute(command, writer, build.getTimeoutSeconds() * 1000);
+      int status = executeCommand(config, commandExecutor, command, result, build.getTimeoutSeconds() * 1000);
       result.addStatus(status);
 
     } catch (Exception e) {
@@ -0,0 +1,400 @@
+/*
+ * Orchestrator
+ * Copyright (C) 2011-2024 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.sonar.orchestrator.build;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import javax.annotation.CheckForNull;
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Logs of a build. They are kept in memory up to a limit, then moved to a temporary file so that
+ * large logs, for example of debug-level analyses, do not fill the heap. The offset of one line out of
+ * {@link #LINES_PER_CHECKPOINT} is indexed, so that ranges of lines are read from the nearest preceding
+ * checkpoint without reading the whole logs. The file is deleted once the logs are
+ * garbage collected, or when the JVM exits.
+ * <p/>
+ * Lines are separated by {@code \n}, {@code \r\n} or {@code \r}.
+ * <p/>
+ * Processes can also append their output directly to the file of logs (see {@link #redirectToFile()}).
+ * The lines they append are indexed lazily, when logs are read or written again.
+ */
+class BuildLogs extends Writer {
+
+  static final int DEFAULT_MEMORY_LIMIT = 16 * 1024 * 1024;
+  static final int LINES_PER_CHECKPOINT = 64;
+
+  private final int memoryLimit;
+  private byte[] memory = new byte[1024];
+  @CheckForNull
+  private File file;
+  @CheckForNull
+  private OutputStream fileOutput;
+  private long size = 0L;
+  // offsets of the first byte of lines 0, LINES_PER_CHECKPOINT, 2 * LINES_PER_CHECKPOINT...
+  private long[] checkpoints = new long[16];
+  private int lineStartCount = 1;
+  // offset of the first byte of the last line. It is "size" if logs end with a line separator.
+  private long lastLineStart = 0L;
+  // whether the last indexed byte is \r, which may be followed by \n
+  private boolean lastByteIsCr = false;
+  @CheckForNull
+  private FileCleaner fileCleaner;
+
+  BuildLogs() {
+    this(DEFAULT_MEMORY_LIMIT);
+  }
+
+  BuildLogs(int memoryLimit) {
+    this.memoryLimit = memoryLimit;
+    FileCleaner.cleanReleasedLogs();
+  }
+
+  @Override
+  public void write(char[] chars, int offset, int length) throws IOException {
+    write(new String(chars, offset, length));
+  }
+
+  @Override
+  public void write(String str) throws IOException {
+    byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+    synchronized (lock) {
+      if (file == null && size + bytes.length > memoryLimit) {
+        spill();
+      }
+      if (file == null) {
+        appendToMemory(bytes);
+      } else {
+        if (fileOutput == null) {
+          // closed or redirected, then written again
+          indexAppendedBytes();
+          fileOutput = new BufferedOutputStream(Files.newOutputStream(file.toPath(), StandardOpenOption.APPEND));
+        }
+        fileOutput.write(bytes);
+      }
+      index(bytes, bytes.length);
+    }
+  }
+
+  @Override
+  public void flush() throws IOException {
+    synchronized (lock) {
+      if (fileOutput != null) {
+        fileOutput.flush();
+      }
+    }
+  }
+
+  /**
+   * Releases the file descriptor, if any. Logs can still be read.
+   */
+  @Override
+  public void close() throws IOException {
+    synchronized (lock) {
+      if (fileOutput != null) {
+        fileOutput.close();
+        fileOutput = null;
+      }
+    }
+  }
+
+  /**
+   * Moves logs to a file, so that a process can append its output to the file without going through
+   * this writer.
+   *
+   * @see com.sonar.orchestrator.util.CommandExecutor#execute(com.sonar.orchestrator.util.Command, File, long)
+   */
+  File redirectToFile() throws IOException {
+    synchronized (lock) {
+      if (file == null) {
+        spill();
+      }
+      indexAppendedBytes();
+      close();
+      return file;
+    }
+  }
+
+  /**
+   * To be called once the process does not append to the file returned by {@link #redirectToFile()} anymore.
+   * Logs that fit in memory are moved back from the file to memory, and the file is deleted.
+   */
+  void endRedirect() throws IOException {
+    synchronized (lock) {
+      if (file == null || fileOutput != null) {
+        return;
+      }
+      indexAppendedBytes();
+      if (size <= memoryLimit) {
+        memory = Files.readAllBytes(file.toPath());
+        size = memory.length;
+        file = null;
+        fileCleaner.clean();
+        fileCleaner = null;
+      }
+    }
+  }
+
+  boolean isSpilled() {
+    synchronized (lock) {
+      return file != null;
+    }
+  }
+
+  int getLineCount() {
+    synchronized (lock) {
+      try {
+        indexAppendedBytes();
+      } catch (IOException e) {
+        throw new IllegalStateException("Fail to read build logs from " + file, e);
+      }
+      return lastLineStart == size ? (lineStartCount - 1) : lineStartCount;
+    }
+  }
+
+  String getContent() {
+    synchronized (lock) {
+      if (file == null) {
+        return new String(memory, 0, (int) size, StandardCharsets.UTF_8);
+      }
+      try {
+        flush();
+        indexAppendedBytes();
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+      } catch (IOException e) {
+        throw new IllegalStateException("Fail to read build logs from " + file, e);
+      }
+    }
+  }
+
+  /**
+   * Reads the lines from index {@code from} (inclusive) to index {@code to} (exclusive), without
+   * loading the lines before the checkpoint preceding {@code from}, nor the lines after {@code to}.
+   */
+  void forEachLine(int from, int to, Consumer<String> consumer) {
+    synchronized (lock) {
+      // also indexes the bytes appended to the file by a process
+      int end = Math.min(to, getLineCount());
+      if (from >= end) {
+        return;
+      }
+      int checkpoint = from / LINES_PER_CHECKPOINT;
+      long startOffset = checkpoints[checkpoint];
+      try (InputStream input = openAt(startOffset)) {
+        readLines(input, size - startOffset, from - checkpoint * LINES_PER_CHECKPOINT, end - from, consumer);
+      } catch (IOException e) {
+        throw new IllegalStateException("Fail to read build logs from " + file, e);
+      }
+    }
+  }
+
+  private InputStream openAt(long offset) throws IOException {
+    if (file == null) {
+      return new ByteArrayInputStream(memory, (int) offset, (int) (size - offset));
+    }
+    flush();
+    InputStream input = new FileInputStream(file);
+    long skipped = 0L;
+    while (skipped < offset) {
+      skipped += input.skip(offset - skipped);
+    }
+    return new BufferedInputStream(input);
+  }
+
+  /**
+   * Skips {@code skip} lines, then reads up to {@code limit} lines
+   */
+  private static void readLines(InputStream input, long length, int skip, int limit, Consumer<String> consumer) throws IOException {
+    byte[] buffer = new byte[8192];
+    byte[] line = new byte[256];
+    int lineLength = 0;
+    int lineIndex = 0;
+    boolean previousIsCr = false;
+    long remaining = length;
+    while (remaining > 0 && lineIndex < skip + limit) {
+      int read = input.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+      if (read < 0) {
+        break;
+      }
+      remaining -= read;
+      for (int i = 0; i < read; i++) {
+        byte b = buffer[i];
+        if (b == '\n' && previousIsCr) {
+          // end of \r\n, line has already been consumed
+          previousIsCr = false;
+        } else if (b == '\n' || b == '\r') {
+          if (lineIndex >= skip) {
+            consumer.accept(new String(line, 0, lineLength, StandardCharsets.UTF_8));
+          }
+          lineIndex++;
+          lineLength = 0;
+          previousIsCr = b == '\r';
+          if (lineIndex == skip + limit) {
+            return;
+          }
+        } else if (lineIndex < skip) {
+          // bytes of skipped lines are not copied
+          previousIsCr = false;
+        } else {
+          if (lineLength == line.length) {
+            line = Arrays.copyOf(line, line.length * 2);
+          }
+          line[lineLength] = b;
+          lineLength++;
+          previousIsCr = false;
+        }
+      }
+    }
+    if (lineLength > 0 && lineIndex >= skip && lineIndex < skip + limit) {
+      consumer.accept(new String(line, 0, lineLength, StandardCharsets.UTF_8));
+    }
+  }
+
+  private void appendToMemory(byte[] bytes) {
+    int required = (int) size + bytes.length;
+    if (required > memory.length) {
+      memory = Arrays.copyOf(memory, Math.min(Math.max(memory.length * 2, required), memoryLimit));
+    }
+    System.arraycopy(bytes, 0, memory, (int) size, bytes.length);
+  }
+
+  /**
+   * Indexes the lines of bytes appended to the logs, then increases their size
+   */
+  private void index(byte[] bytes, int length) {
+    for (int i = 0; i < length; i++) {
+      long nextOffset = size + i + 1;
+      if (bytes[i] == '\n' && lastByteIsCr) {
+        // \r\n: the line starts after \n rather than after \r
+        moveLastLineStart(nextOffset);
+      } else if (bytes[i] == '\n' || bytes[i] == '\r') {
+        addLineStart(nextOffset);
+      }
+      lastByteIsCr = bytes[i] == '\r';
+    }
+    size += length;
+  }
+
+  private void addLineStart(long offset) {
+    if (lineStartCount % LINES_PER_CHECKPOINT == 0) {
+      int checkpoint = lineStartCount / LINES_PER_CHECKPOINT;
+      if (checkpoint == checkpoints.length) {
+        checkpoints = Arrays.copyOf(checkpoints, checkpoints.length * 2);
+      }
+      checkpoints[checkpoint] = offset;
+    }
+    lineStartCount++;
+    lastLineStart = offset;
+  }
+
+  private void moveLastLineStart(long offset) {
+    int lastLine = lineStartCount - 1;
+    if (lastLine % LINES_PER_CHECKPOINT == 0) {
+      checkpoints[lastLine / LINES_PER_CHECKPOINT] = offset;
+    }
+    lastLineStart = offset;
+  }
+
+  /**
+   * Indexes the bytes appended to the file by a process since the last write of this writer.
+   */
+  private void indexAppendedBytes() throws IOException {
+    if (file == null || fileOutput != null) {
+      return;
+    }
+    long length = file.length();
+    if (length <= size) {
+      return;
+    }
+    try (InputStream input = openAt(size)) {
+      byte[] buffer = new byte[8192];
+      while (size < length) {
+        int read = input.read(buffer, 0, (int) Math.min(buffer.length, length - size));
+        if (read < 0) {
+          break;
+        }
+        index(buffer, read);
+      }
+    }
+  }
+
+  private void spill() throws IOException {
+    FileCleaner.cleanReleasedLogs();
+    file = File.createTempFile("orchestrator-build", ".log");
+    fileCleaner = new FileCleaner(this, file);
+    fileOutput = new BufferedOutputStream(Files.newOutputStream(file.toPath()));
+    fileOutput.write(memory, 0, (int) size);
+    memory = new byte[0];
+  }
+
+  /**
+   * Deletes the file of logs once the logs are garbage collected. Files of released logs are deleted
+   * when other logs are created or spilled, and the remaining files when the JVM exits.
+   */
+  private static final class FileCleaner extends PhantomReference<BuildLogs> {
+    private static final ReferenceQueue<BuildLogs> RELEASED_LOGS = new ReferenceQueue<>();
+    // references must be reachable until they are enqueued
+    private static final Set<FileCleaner> PENDING = ConcurrentHashMap.newKeySet();
+    private static final AtomicBoolean SHUTDOWN_HOOK_REGISTERED = new AtomicBoolean(false);
+
+    private final File file;
+
+    private FileCleaner(BuildLogs logs, File file) {
+      super(logs, RELEASED_LOGS);
+      this.file = file;
+      PENDING.add(this);
+      if (!SHUTDOWN_HOOK_REGISTERED.getAndSet(true)) {
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> new ArrayList<>(PENDING).forEach(FileCleaner::clean),
+          "orchestrator-build-logs-cleaner"));
+      }
+    }
+
+    private static void cleanReleasedLogs() {
+      Reference<? extends BuildLogs> released;
+      while ((released = RELEASED_LOGS.poll()) != null) {
+        ((FileCleaner) released).clean();
+      }
+    }
+
+    private void clean() {
+      PENDING.remove(this);
+      FileUtils.deleteQuietly(file);
+    }
+  }
+}
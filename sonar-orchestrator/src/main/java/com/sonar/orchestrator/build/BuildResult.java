@@ -19,33 +19,116 @@
  */
 package com.sonar.orchestrator.build;
 
-import java.io.StringWriter;
+import java.io.File;
+import java.io.IOException;
 import java.io.Writer;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.function.Predicate;
-import java.util.stream.Collectors;
 
 public class BuildResult {
 
-  // StringWriter does not need to be closed
-  private StringWriter logs = new StringWriter();
+  // large logs are moved from memory to a temporary file
+  private final BuildLogs logs;
   private List<Integer> statuses = new ArrayList<>();
 
+  public BuildResult() {
+    this(new BuildLogs());
+  }
+
+  BuildResult(BuildLogs logs) {
+    this.logs = logs;
+  }
+
   public Writer getLogsWriter() {
     return logs;
   }
 
+  /**
+   * File that a build process can append its output to, as an alternative to {@link #getLogsWriter()}.
+   */
+  File redirectLogsToFile() {
+    try {
+      return logs.redirectToFile();
+    } catch (IOException e) {
+      throw new IllegalStateException("Fail to create file of build logs", e);
+    }
+  }
+
+  /**
+   * To be called once the build process does not append to the file returned by {@link #redirectLogsToFile()} anymore.
+   * Logs are moved back to memory if they are not too large.
+   */
+  void endLogsRedirect() {
+    try {
+      logs.endRedirect();
+    } catch (IOException e) {
+      throw new IllegalStateException("Fail to read file of build logs", e);
+    }
+  }
+
+  /**
+   * Whole logs. Prefer {@link #getLogsLines(Predicate)} or {@link #getLastLogsLines(int)} for large logs,
+   * which do not load all the logs in memory.
+   */
   public String getLogs() {
-    return logs.toString();
+    return logs.getContent();
   }
 
+  /**
+   * Lines are split like {@code getLogs().split("\r?\n|\r")}: trailing empty lines are ignored, and empty logs
+   * are a single empty line.
+   */
   public List<String> getLogsLines(Predicate<String> linePredicate) {
-    return Arrays.stream(logs.toString().split("\r?\n|\r"))
-      .filter(linePredicate)
-      .collect(Collectors.toList());
+    List<String> lines = new ArrayList<>();
+    int[] pendingEmptyLines = {0};
+    logs.forEachLine(0, Integer.MAX_VALUE, line -> {
+      if (line.isEmpty()) {
+        pendingEmptyLines[0]++;
+        return;
+      }
+      for (; pendingEmptyLines[0] > 0; pendingEmptyLines[0]--) {
+        if (linePredicate.test("")) {
+          lines.add("");
+        }
+      }
+      if (linePredicate.test(line)) {
+        lines.add(line);
+      }
+    });
+    if (logs.getLineCount() == 0 && linePredicate.test("")) {
+      lines.add("");
+    }
+    return lines;
+  }
+
+  /**
+   * @since 4.7
+   */
+  public int getLogsLineCount() {
+    return logs.getLineCount();
+  }
+
+  /**
+   * Lines from index {@code from} (inclusive) to index {@code to} (exclusive). The index of the first line is 0.
+   *
+   * @since 4.7
+   */
+  public List<String> getLogsLines(int from, int to) {
+    List<String> lines = new ArrayList<>();
+    logs.forEachLine(Math.max(0, from), to, lines::add);
+    return lines;
+  }
+
+  /**
+   * The last {@code count} lines, for example to display the cause of a failure.
+   *
+   * @since 4.7
+   */
+  public List<String> getLastLogsLines(int count) {
+    int lineCount = logs.getLineCount();
+    return getLogsLines(lineCount - count, lineCount);
   }
 
   /**
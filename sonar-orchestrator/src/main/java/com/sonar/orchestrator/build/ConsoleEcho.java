@@ -0,0 +1,55 @@
+/*
+ * Orchestrator
+ * Copyright (C) 2011-2024 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.sonar.orchestrator.build;
+
+import com.sonar.orchestrator.config.Configuration;
+import java.util.Locale;
+
+/**
+ * Whether the output of builds is displayed on the console, as configured by {@value #PROPERTY}.
+ */
+enum ConsoleEcho {
+
+  /**
+   * Output is displayed while the build is running. This is the default.
+   */
+  ON,
+
+  /**
+   * Output is never displayed. It's still available in {@link BuildResult}.
+   */
+  OFF,
+
+  /**
+   * Output is displayed when the build fails.
+   */
+  ON_FAILURE;
+
+  static final String PROPERTY = "orchestrator.build.consoleEcho";
+
+  static ConsoleEcho of(Configuration config) {
+    String value = config.getString(PROPERTY, ON.name());
+    try {
+      return valueOf(value.trim().toUpperCase(Locale.ENGLISH));
+    } catch (IllegalArgumentException e) {
+      throw new IllegalArgumentException("Invalid value of property " + PROPERTY + ": " + value + ". Supported values are on, off and on_failure.", e);
+    }
+  }
+}
@@ -22,7 +22,6 @@ package com.sonar.orchestrator.build;
 import com.sonar.orchestrator.config.Configuration;
 import com.sonar.orchestrator.util.Command;
 import com.sonar.orchestrator.util.CommandExecutor;
-import com.sonar.orchestrator.util.StreamConsumer;
 import java.io.File;
 import java.util.Map;
 import org.apache.commons.lang.SystemUtils;
@@ -72,9 +71,8 @@ public class GradleBuildExecutor extends AbstractBuildExecutor<GradleBuild> {
       for (Map.Entry<String, String> entry : adjustedProperties.entrySet()) {
         command.addSystemArgument(entry.getKey(), entry.getValue());
       }
-      StreamConsumer.Pipe writer = new StreamConsumer.Pipe(result.getLogsWriter());
       LoggerFactory.getLogger(getClass()).info("Execute: {}", command);
-      int status = commandExecutor.execute(command, writer, build.getTimeoutSeconds() * 1000);
+      int status = executeCommand(config, commandExecutor, command, result, build.getTimeoutSeconds() * 1000);
       result.addStatus(status);
     } catch (Exception e) {
       throw new IllegalStateException("Fail to execute Gradle", e);
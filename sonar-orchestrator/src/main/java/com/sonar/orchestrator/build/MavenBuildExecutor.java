@@ -22,15 +22,16 @@ package com.sonar.orchestrator.build;
 import com.sonar.orchestrator.config.Configuration;
 import com.sonar.orchestrator.util.Command;
 import com.sonar.orchestrator.util.CommandExecutor;
-import com.sonar.orchestrator.util.StreamConsumer;
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Map;
 import java.util.Optional;
 import org.apache.commons.lang.SystemUtils;
 import org.slf4j.LoggerFactory;
 
 import static com.sonar.orchestrator.util.OrchestratorUtils.checkState;
+import static com.sonar.orchestrator.util.OrchestratorUtils.isEmpty;
 
 class MavenBuildExecutor extends AbstractBuildExecutor<MavenBuild> {
 
@@ -38,6 +39,20 @@ class MavenBuildExecutor extends AbstractBuildExecutor<MavenBuild> {
 
   private static final String MAVEN_OPTS = "MAVEN_OPTS";
 
+  /**
+   * When {@code true}, the goals of a build are executed by a single Maven invocation, for example
+   * {@code mvn clean install sonar:sonar} instead of {@code mvn clean install} then {@code mvn sonar:sonar}.
+   * The {@link BuildResult} still has a status per goal, which is the exit status of the invocation, as Maven does not
+   * tell which goal failed.
+   */
+  static final String SINGLE_INVOCATION_PROPERTY = "orchestrator.maven.singleInvocation";
+
+  /**
+   * When {@code true}, builds are executed by the Maven Daemon (mvnd) instead of mvn. It is not compatible with
+   * the properties maven.binary and orchestrator.computeCoverage.
+   */
+  static final String DAEMON_PROPERTY = "orchestrator.maven.daemon";
+
   // visible for tests
   MavenBuildExecutor(Os os) {
     this.os = os;
@@ -49,7 +64,21 @@ class MavenBuildExecutor extends AbstractBuildExecutor<MavenBuild> {
 
   @Override
   BuildResult execute(MavenBuild build, Configuration config, Map<String, String> adjustedProperties, CommandExecutor commandExecutor) {
+    if (isDaemon(config)) {
+      checkDaemonCompatibility(config);
+    }
     BuildResult result = new BuildResult();
+    if (isSingleInvocation(build, config)) {
+      appendCoverageArgumentToOpts(build.getEnvironmentVariables(), config, MAVEN_OPTS);
+      executeGoal(build, config, adjustedProperties, String.join(" ", build.getGoals()), result, commandExecutor);
+      // one status per goal, as expected by the callers of BuildResult#getStatuses(). Maven does not tell
+      // which goal failed, so all the goals have the status of the invocation.
+      Integer status = result.getLastStatus();
+      for (int i = 1; i < build.getGoals().size(); i++) {
+        result.addStatus(status);
+      }
+      return result;
+    }
     for (String goal : build.getGoals()) {
       appendCoverageArgumentToOpts(build.getEnvironmentVariables(), config, MAVEN_OPTS);
       executeGoal(build, config, adjustedProperties, goal, result, commandExecutor);
@@ -57,6 +86,35 @@ class MavenBuildExecutor extends AbstractBuildExecutor<MavenBuild> {
     return result;
   }
 
+  private static boolean isDaemon(Configuration config) {
+    return Boolean.parseBoolean(config.getString(DAEMON_PROPERTY, "false"));
+  }
+
+  /**
+   * The daemon is a JVM that is started once then reused by the next builds, so the binary of Maven and the
+   * JVM options of MAVEN_OPTS, like the JaCoCo agent, would be silently ignored.
+   */
+  private static void checkDaemonCompatibility(Configuration config) {
+    checkState(isEmpty(config.getStringByKeys(s -> !isEmpty(s), "maven.binary", "MAVEN_BINARY")),
+      "Property maven.binary is not supported by the Maven Daemon (property %s)", DAEMON_PROPERTY);
+    checkState(!"true".equals(config.getString("orchestrator.computeCoverage", "false")),
+      "Coverage is not supported by the Maven Daemon (property %s). The JaCoCo agent of MAVEN_OPTS is not loaded by a running daemon.",
+      DAEMON_PROPERTY);
+  }
+
+  /**
+   * Goals are chained only if they do not have their own arguments (for example {@code "install -DskipTests"}),
+   * which would otherwise apply to all the goals.
+   */
+  private static boolean isSingleInvocation(MavenBuild build, Configuration config) {
+    if (build.getGoals().size() < 2 || !Boolean.parseBoolean(config.getString(SINGLE_INVOCATION_PROPERTY, "false"))) {
+      return false;
+    }
+    return build.getGoals().stream()
+      .flatMap(goal -> Arrays.stream(goal.split(" ")))
+      .noneMatch(token -> token.startsWith("-"));
+  }
+
   private void executeGoal(MavenBuild build, Configuration config, Map<String, String> adjustedProperties, String goal,
     final BuildResult result, CommandExecutor commandExecutor) {
     try {
@@ -89,9 +147,8 @@ class MavenBuildExecutor extends AbstractBuildExecutor<MavenBuild> {
       for (Map.Entry<String, String> entry : adjustedProperties.entrySet()) {
         command.addSystemArgument(entry.getKey(), entry.getValue());
       }
-      StreamConsumer.Pipe writer = new StreamConsumer.Pipe(result.getLogsWriter());
       LoggerFactory.getLogger(getClass()).info("Execute: {}", command);
-      int status = commandExecutor.execute(command, writer, build.getTimeoutSeconds() * 1000);
+      int status = executeCommand(config, commandExecutor, command, result, build.getTimeoutSeconds() * 1000);
       result.addStatus(status);
 
     } catch (Exception e) {
@@ -100,6 +157,9 @@ class MavenBuildExecutor extends AbstractBuildExecutor<MavenBuild> {
   }
 
   String buildMvnPath(Configuration config) throws IOException {
+    if (isDaemon(config)) {
+      return buildMvndPath(config);
+    }
     Optional<String> binary = Optional.ofNullable(config.getStringByKeys("maven.binary", "MAVEN_BINARY"));
     File home = config.fileSystem().mavenHome();
     if (home == null) {
@@ -119,6 +179,23 @@ class MavenBuildExecutor extends AbstractBuildExecutor<MavenBuild> {
     return new File(home, "bin/mvn").getCanonicalPath();
   }
 
+  /**
+   * The Maven Daemon is searched in the directory configured by "mvnd.home" or MVND_HOME, then in the Maven
+   * installation, then in PATH.
+   */
+  private String buildMvndPath(Configuration config) throws IOException {
+    String binary = os.isWindows() ? "mvnd.cmd" : "mvnd";
+    String mvndHome = config.getStringByKeys(s -> !isEmpty(s), "mvnd.home", "MVND_HOME");
+    if (mvndHome != null) {
+      return new File(mvndHome, "bin/" + binary).getCanonicalPath();
+    }
+    File mavenHome = config.fileSystem().mavenHome();
+    if (mavenHome != null && new File(mavenHome, "bin/" + binary).exists()) {
+      return new File(mavenHome, "bin/" + binary).getCanonicalPath();
+    }
+    return binary;
+  }
+
   static class Os {
     boolean isWindows() {
       return SystemUtils.IS_OS_WINDOWS;
@@ -22,7 +22,6 @@ package com.sonar.orchestrator.build;
 import com.sonar.orchestrator.config.Configuration;
 import com.sonar.orchestrator.util.Command;
 import com.sonar.orchestrator.util.CommandExecutor;
-import com.sonar.orchestrator.util.StreamConsumer;
 import java.io.File;
 import java.util.Map;
 import org.slf4j.LoggerFactory;
@@ -47,8 +46,7 @@ class ScannerForMSBuildExecutor extends AbstractBuildExecutor<ScannerForMSBuild>
     try {
       Command command = createCommand(build, adjustedProperties, runnerScript);
       LoggerFactory.getLogger(ScannerForMSBuild.class).info("Execute: {}", command);
-      StreamConsumer.Pipe writer = new StreamConsumer.Pipe(result.getLogsWriter());
-      int status = commandExecutor.execute(command, writer, build.getTimeoutSeconds() * 1000);
+      int status = executeCommand(config, commandExecutor, command, result, build.getTimeoutSeconds() * 1000);
       result.addStatus(status);
       return result;
 
@@ -51,6 +51,7 @@ public class ScannerForMSBuildInstaller {
 
   private static final Logger LOG = LoggerFactory.getLogger(ScannerForMSBuildInstaller.class);
   private static final PackageDetailsFactory packageDetailsFactory = new PackageDetailsFactory();
+  private static final Object LOCK = new Object();
 
   private final Locators locators;
 
@@ -62,12 +63,15 @@ public class ScannerForMSBuildInstaller {
    * Installs an ephemeral Scanner for .NET and returns the path to the exe to execute.
    */
   public File install(@Nullable Version scannerVersion, @Nullable Location location, File toDir, boolean useDotNetCore) {
-    if (location == null) {
-      scannerVersion = scannerVersion == null ? Version.create(DEFAULT_SCANNER_VERSION) : scannerVersion;
-      PackageDetails packageDetails = packageDetailsFactory.create(scannerVersion, useDotNetCore);
-      return install(scannerVersion, toDir, packageDetails);
-    } else {
-      return installFromLocation(location, toDir, useDotNetCore);
+    // builds executed concurrently share the installation directory
+    synchronized (LOCK) {
+      if (location == null) {
+        Version version = scannerVersion == null ? Version.create(DEFAULT_SCANNER_VERSION) : scannerVersion;
+        PackageDetails packageDetails = packageDetailsFactory.create(version, useDotNetCore);
+        return install(version, toDir, packageDetails);
+      } else {
+        return installFromLocation(location, toDir, useDotNetCore);
+      }
     }
   }
 
@@ -20,11 +20,14 @@
 package com.sonar.orchestrator.build;
 
 import com.sonar.orchestrator.config.Configuration;
+import com.sonar.orchestrator.server.AppCds;
 import com.sonar.orchestrator.util.Command;
 import com.sonar.orchestrator.util.CommandExecutor;
-import com.sonar.orchestrator.util.StreamConsumer;
 import java.io.File;
 import java.util.Map;
+import java.util.function.Predicate;
+import javax.annotation.CheckForNull;
+import org.apache.commons.lang.SystemUtils;
 import org.slf4j.LoggerFactory;
 
 import static com.sonar.orchestrator.util.OrchestratorUtils.isEmpty;
@@ -33,6 +36,23 @@ class SonarScannerExecutor extends AbstractBuildExecutor<SonarRunner> {
 
   private static final String SONAR_RUNNER_OPTS = "SONAR_RUNNER_OPTS";
   private static final String SONAR_SCANNER_OPTS = "SONAR_SCANNER_OPTS";
+  private static final String JAVA_HOME = "JAVA_HOME";
+
+  /**
+   * When {@code true}, the class data of the scanner JVM is archived by the first analysis, then shared by the next
+   * analyses executed with the same installation of scanner.
+   */
+  static final String APP_CDS_PROPERTY = "orchestrator.scanner.appCds";
+
+  private final Predicate<String> appCdsSupport;
+
+  SonarScannerExecutor() {
+    this(AppCds::isSupportedBy);
+  }
+
+  SonarScannerExecutor(Predicate<String> appCdsSupport) {
+    this.appCdsSupport = appCdsSupport;
+  }
 
   @Override
   BuildResult execute(SonarRunner build, Configuration config, Map<String, String> adjustedProperties, CommandExecutor create) {
@@ -43,18 +63,69 @@ class SonarScannerExecutor extends AbstractBuildExecutor<SonarRunner> {
     CommandExecutor commandExecutor) {
     BuildResult result = new BuildResult();
     File runnerScript = installer.install(build.runnerVersion(), build.classifier(), config.fileSystem().workspace(), build.isUseOldSonarRunnerScript());
+    AppCds appCds = null;
+    boolean exited = false;
     try {
-      appendCoverageArgumentToOpts(build.getEnvironmentVariables(), config, build.isUseOldSonarRunnerScript() ? SONAR_RUNNER_OPTS : SONAR_SCANNER_OPTS);
+      String optsVariableName = build.isUseOldSonarRunnerScript() ? SONAR_RUNNER_OPTS : SONAR_SCANNER_OPTS;
+      appendCoverageArgumentToOpts(build.getEnvironmentVariables(), config, optsVariableName);
       Command command = createCommand(build, adjustedProperties, runnerScript);
+      if (Boolean.parseBoolean(config.getString(APP_CDS_PROPERTY, "false"))) {
+        appCds = appendAppCdsToOpts(command, config, runnerScript, optsVariableName);
+      }
       LoggerFactory.getLogger(SonarRunner.class).info("Execute: {}", command);
-      StreamConsumer.Pipe writer = new StreamConsumer.Pipe(result.getLogsWriter());
-      int status = commandExecutor.execute(command, writer, build.getTimeoutSeconds() * 1000);
+      int status = executeCommand(config, commandExecutor, command, result, build.getTimeoutSeconds() * 1000);
+      exited = true;
       result.addStatus(status);
       return result;
 
     } catch (Exception e) {
       throw new IllegalStateException("Fail to execute SonarQube Scanner", e);
+    } finally {
+      if (appCds != null) {
+        // the dump of a JVM killed on timeout may be incomplete
+        appCds.publishDumps(exited);
+      }
+    }
+  }
+
+  /**
+   * The scanner script starts a new JVM for each analysis. Sharing the class data between analyses reduces
+   * the bootstrap of the JVM, which is most of the duration of analyses of small projects.
+   *
+   * @return {@code null} if the JVM used by the script does not support the archive of class data
+   */
+  @CheckForNull
+  private AppCds appendAppCdsToOpts(Command command, Configuration config, File runnerScript, String optsVariableName) {
+    // script is <scanner home>/bin/sonar-scanner
+    File scannerHome = runnerScript.getAbsoluteFile().getParentFile().getParentFile();
+    String javaExecutable = javaExecutableOf(scannerHome, command.getEnvironmentVariables());
+    if (!appCdsSupport.test(javaExecutable)) {
+      LoggerFactory.getLogger(SonarScannerExecutor.class).warn("Class data of scanner is not shared, it requires Java 13+: {}", javaExecutable);
+      return null;
+    }
+    AppCds appCds = AppCds.ofScanner(config.fileSystem().getCacheDir(), scannerHome);
+    String cdsOptions = String.join(" ", appCds.jvmOptions(AppCds.SCANNER));
+    String opts = command.getEnvironmentVariables().get(optsVariableName);
+    command.setEnvironmentVariable(optsVariableName, isEmpty(opts) ? cdsOptions : (opts + " " + cdsOptions));
+    return appCds;
+  }
+
+  /**
+   * Same lookup as the scanner script: embedded JRE, then JAVA_HOME, then PATH
+   *
+   * @param env the environment of the script, which includes the variables of the current process
+   */
+  static String javaExecutableOf(File scannerHome, Map<String, String> env) {
+    String executable = SystemUtils.IS_OS_WINDOWS ? "java.exe" : "java";
+    File embeddedJava = new File(scannerHome, "jre/bin/" + executable);
+    if (embeddedJava.isFile()) {
+      return embeddedJava.getAbsolutePath();
+    }
+    String javaHome = env.get(JAVA_HOME);
+    if (!isEmpty(javaHome)) {
+      return new File(javaHome, "bin/" + executable).getAbsolutePath();
     }
+    return executable;
   }
 
   private static Command createCommand(SonarRunner build, Map<String, String> adjustedProperties, File runnerScript) {
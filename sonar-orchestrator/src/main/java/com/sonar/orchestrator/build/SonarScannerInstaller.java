@@ -42,6 +42,7 @@ import org.slf4j.LoggerFactory;
  */
 public class SonarScannerInstaller {
   private static final Logger LOG = LoggerFactory.getLogger(SonarScannerInstaller.class);
+  private static final Object LOCK = new Object();
 
   private final Locators locators;
 
@@ -57,12 +58,15 @@ public class SonarScannerInstaller {
   }
 
   public File install(Version scannerVersion, @Nullable String classifier, File toDir, boolean useOldScript) {
-    clearCachedSnapshot(scannerVersion, classifier, toDir);
-    if (!isInstalled(scannerVersion, classifier, toDir)) {
-      LOG.info("Installing sonar-scanner {}", scannerVersion);
-      doInstall(scannerVersion, classifier, toDir);
+    // builds executed concurrently share the installation directory
+    synchronized (LOCK) {
+      clearCachedSnapshot(scannerVersion, classifier, toDir);
+      if (!isInstalled(scannerVersion, classifier, toDir)) {
+        LOG.info("Installing sonar-scanner {}", scannerVersion);
+        doInstall(scannerVersion, classifier, toDir);
+      }
+      return locateInstalledScript(scannerVersion, classifier, toDir, useOldScript);
     }
-    return locateInstalledScript(scannerVersion, classifier, toDir, useOldScript);
   }
 
   void doInstall(Version scannerVersion, @Nullable String classifier, File toDir) {
@@ -0,0 +1,274 @@
+/*
+ * Orchestrator
+ * Copyright (C) 2011-2024 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.sonar.orchestrator.config;
+
+import com.sonar.orchestrator.util.DirectoryLock;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import javax.annotation.Nullable;
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Deletes the files that Orchestrator leaves in the workspace and in the local cache:
+ * <ul>
+ *   <li>server homes of the workspace that are not locked by a live process. Reusable homes are kept as long as they
+ *   have been used recently</li>
+ *   <li>leftovers of interrupted downloads</li>
+ *   <li>checkpoints of server data that are not locked by a live process</li>
+ *   <li>least recently used entries of the cache (Maven artifacts and extracted distributions) when the cache is
+ *   bigger than the configured budget. Extracted distributions that are locked, because they are being copied to
+ *   a server home, are kept</li>
+ * </ul>
+ * Entries accessed during the last hour are never deleted, as they may be in use by another process.
+ * <p>
+ * Files that are hard-linked elsewhere, for example JAR files of server homes linked to extracted distributions,
+ * are not counted in the reclaimed bytes, as deleting them does not free disk space.
+ * <p>
+ * It is executed when starting Orchestrator if the property {@code orchestrator.gc} is {@code true}, or with
+ * {@link #main(String[])}.
+ */
+public class DiskGarbageCollector {
+
+  private static final Logger LOG = LoggerFactory.getLogger(DiskGarbageCollector.class);
+
+  public static final String ENABLED_PROPERTY = "orchestrator.gc";
+  public static final String CACHE_MAX_SIZE_MB_PROPERTY = "orchestrator.gc.cacheMaxSizeMb";
+  public static final String REUSABLE_HOME_MAX_AGE_DAYS_PROPERTY = "orchestrator.gc.reusableHomeMaxAgeDays";
+  private static final int DEFAULT_CACHE_MAX_SIZE_MB = 10 * 1024;
+  private static final int DEFAULT_REUSABLE_HOME_MAX_AGE_DAYS = 7;
+  private static final long GRACE_PERIOD_MS = TimeUnit.HOURS.toMillis(1);
+
+  private static final Pattern SERVER_HOME = Pattern.compile("\\d+|home-\\p{XDigit}+");
+  private static final Pattern REUSABLE_SERVER_HOME = Pattern.compile("home-\\p{XDigit}+");
+  // extracted distributions are named by the hash of the zip. Temporary directories of extraction are not locked.
+  private static final Pattern EXTRACTED_DISTRIBUTION = Pattern.compile("\\p{XDigit}+");
+  private static final String DISTRIBUTIONS_DIR = "distributions";
+  private static final String TEMP_DOWNLOADS_DIR = "temp-downloads";
+  private static final String CHECKPOINTS_DIR = "checkpoints";
+
+  private final File workspace;
+  private final File cacheDir;
+  private final long cacheMaxSize;
+  private final long reusableHomeMaxAgeMs;
+  private final long now;
+  private long reclaimedBytes = 0L;
+  private int deletedEntries = 0;
+
+  DiskGarbageCollector(File workspace, File cacheDir, long cacheMaxSize, long reusableHomeMaxAgeMs, long now) {
+    this.workspace = workspace;
+    this.cacheDir = cacheDir;
+    this.cacheMaxSize = cacheMaxSize;
+    this.reusableHomeMaxAgeMs = reusableHomeMaxAgeMs;
+    this.now = now;
+  }
+
+  public DiskGarbageCollector(Configuration configuration) {
+    this(configuration.fileSystem().workspace(), configuration.fileSystem().getCacheDir(),
+      configuration.getInt(CACHE_MAX_SIZE_MB_PROPERTY, DEFAULT_CACHE_MAX_SIZE_MB) * FileUtils.ONE_MB,
+      TimeUnit.DAYS.toMillis(configuration.getInt(REUSABLE_HOME_MAX_AGE_DAYS_PROPERTY, DEFAULT_REUSABLE_HOME_MAX_AGE_DAYS)),
+      System.currentTimeMillis());
+  }
+
+  public static boolean isEnabled(Configuration configuration) {
+    return Boolean.parseBoolean(configuration.getString(ENABLED_PROPERTY, "false"));
+  }
+
+  /**
+   * @return the number of bytes reclaimed
+   */
+  public long collect() {
+    // only one garbage collection at a time on the same cache
+    DirectoryLock lock = DirectoryLock.tryLock(new File(cacheDir, ".gc.lock"));
+    if (lock == null) {
+      LOG.info("Garbage collection is already running");
+      return 0L;
+    }
+    long start = System.currentTimeMillis();
+    try {
+      collectServerHomes();
+      collectTempDownloads();
+      collectCheckpoints();
+      collectCache();
+    } finally {
+      lock.close();
+    }
+    LOG.info("Garbage collection reclaimed {} in {} deleted entries ({} ms)", FileUtils.byteCountToDisplaySize(reclaimedBytes),
+      deletedEntries, System.currentTimeMillis() - start);
+    return reclaimedBytes;
+  }
+
+  private void collectServerHomes() {
+    for (File dir : listFiles(workspace, f -> f.isDirectory() && SERVER_HOME.matcher(f.getName()).matches())) {
+      File lockFile = new File(workspace, dir.getName() + ".lock");
+      boolean reusable = REUSABLE_SERVER_HOME.matcher(dir.getName()).matches();
+      if ((reusable && isAccessedSince(dir, now - reusableHomeMaxAgeMs)) || DirectoryLock.isLocked(lockFile)) {
+        continue;
+      }
+      delete(dir);
+      FileUtils.deleteQuietly(lockFile);
+    }
+  }
+
+  private void collectTempDownloads() {
+    for (File file : listFiles(new File(workspace, TEMP_DOWNLOADS_DIR), f -> true)) {
+      if (!isAccessedSince(file, now - GRACE_PERIOD_MS)) {
+        delete(file);
+      }
+    }
+  }
+
+  /**
+   * Checkpoints are deleted when Orchestrator is stopped, but not when the JVM is killed
+   */
+  private void collectCheckpoints() {
+    File checkpointsDir = new File(workspace, CHECKPOINTS_DIR);
+    for (File dir : listFiles(checkpointsDir, File::isDirectory)) {
+      File lockFile = new File(checkpointsDir, dir.getName() + ".lock");
+      if (!DirectoryLock.isLocked(lockFile)) {
+        delete(dir);
+        FileUtils.deleteQuietly(lockFile);
+      }
+    }
+  }
+
+  private void collectCache() {
+    List<CacheEntry> entries = new ArrayList<>();
+    for (File file : listFiles(cacheDir, f -> f.isDirectory() && !f.getName().equals(DISTRIBUTIONS_DIR))) {
+      entries.add(new CacheEntry(file, null));
+    }
+    File distributionsDir = new File(cacheDir, DISTRIBUTIONS_DIR);
+    for (File file : listFiles(distributionsDir, File::isDirectory)) {
+      boolean lockable = EXTRACTED_DISTRIBUTION.matcher(file.getName()).matches();
+      entries.add(new CacheEntry(file, lockable ? new File(distributionsDir, file.getName() + ".lock") : null));
+    }
+    long cacheSize = entries.stream().mapToLong(e -> e.size).sum();
+    LOG.info("Size of cache {} is {}", cacheDir, FileUtils.byteCountToDisplaySize(cacheSize));
+
+    entries.sort(Comparator.comparingLong(e -> e.lastAccess));
+    for (CacheEntry entry : entries) {
+      if (cacheSize <= cacheMaxSize) {
+        break;
+      }
+      if (entry.lastAccess < now - GRACE_PERIOD_MS && deleteIfNotLocked(entry)) {
+        cacheSize -= entry.size;
+      }
+    }
+  }
+
+  /**
+   * The entry is locked during deletion, so that it is not copied in the meantime (see DistributionCache)
+   */
+  private boolean deleteIfNotLocked(CacheEntry entry) {
+    if (entry.lockFile == null) {
+      delete(entry.file);
+      return true;
+    }
+    try (DirectoryLock lock = DirectoryLock.tryLock(entry.lockFile)) {
+      if (lock == null) {
+        LOG.info("Keep {}, it is in use", entry.file);
+        return false;
+      }
+      delete(entry.file);
+      return true;
+    }
+  }
+
+  private static boolean isAccessedSince(File file, long date) {
+    return file.lastModified() >= date;
+  }
+
+  private void delete(File file) {
+    long size = reclaimableSizeOf(file);
+    if (FileUtils.deleteQuietly(file)) {
+      LOG.info("Deleted {}", file);
+      reclaimedBytes += size;
+      deletedEntries++;
+    } else {
+      LOG.warn("Fail to delete {}", file);
+    }
+  }
+
+  /**
+   * Size of the files that are not hard-linked elsewhere
+   */
+  private static long reclaimableSizeOf(File file) {
+    try (Stream<Path> paths = Files.walk(file.toPath())) {
+      return paths
+        .filter(path -> Files.isRegularFile(path, LinkOption.NOFOLLOW_LINKS) && linkCountOf(path) <= 1)
+        .mapToLong(path -> path.toFile().length())
+        .sum();
+    } catch (IOException | UncheckedIOException e) {
+      LOG.debug("Fail to compute size of " + file, e);
+      return 0L;
+    }
+  }
+
+  private static int linkCountOf(Path path) {
+    try {
+      return (Integer) Files.getAttribute(path, "unix:nlink", LinkOption.NOFOLLOW_LINKS);
+    } catch (IOException | UnsupportedOperationException | IllegalArgumentException e) {
+      // hard links are not supported by the file system
+      return 1;
+    }
+  }
+
+  private static List<File> listFiles(File dir, FileFilter filter) {
+    File[] files = dir.listFiles(filter);
+    return files == null ? new ArrayList<>() : Arrays.asList(files);
+  }
+
+  private static class CacheEntry {
+    private final File file;
+    @Nullable
+    private final File lockFile;
+    private final long size;
+    private final long lastAccess;
+
+    CacheEntry(File file, @Nullable File lockFile) {
+      this.file = file;
+      this.lockFile = lockFile;
+      this.size = FileUtils.sizeOfDirectory(file);
+      this.lastAccess = file.lastModified();
+    }
+  }
+
+  /**
+   * Deletes the unused files of the workspace and of the cache, as configured by environment variables,
+   * system properties and the file {@code orchestrator.configUrl}.
+   */
+  public static void main(String[] args) {
+    long reclaimed = new DiskGarbageCollector(Configuration.createEnv()).collect();
+    System.out.println("Reclaimed " + FileUtils.byteCountToDisplaySize(reclaimed) + " (" + reclaimed + " bytes)");
+  }
+}
@@ -19,6 +19,9 @@
  */
 package com.sonar.orchestrator.container;
 
+import com.eclipsesource.json.Json;
+import com.eclipsesource.json.JsonObject;
+import com.eclipsesource.json.JsonValue;
 import com.sonar.orchestrator.http.HttpCall;
 import com.sonar.orchestrator.http.HttpClientFactory;
 import com.sonar.orchestrator.http.HttpMethod;
@@ -28,6 +31,8 @@ import com.sonar.orchestrator.version.Version;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import javax.annotation.CheckForNull;
@@ -42,6 +47,8 @@ import static java.nio.charset.StandardCharsets.UTF_8;
 public class Server {
   public static final String ADMIN_LOGIN = "admin";
   public static final String ADMIN_PASSWORD = "admin";
+  // maximum page size of api/projects/search
+  private static final int DELETE_PROJECTS_BATCH_SIZE = 500;
 
   private final Locators locators;
   private final File home;
@@ -172,6 +179,59 @@ public class Server {
       .execute();
   }
 
+  /**
+   * Delete all the projects, including applications and portfolios of commercial editions. The default
+   * administrator account is used (login "admin", password "admin")
+   * @since 4.7
+   */
+  public void deleteAllProjects() {
+    String qualifiers = edition == Edition.ENTERPRISE || edition == Edition.DATACENTER ? "TRK,VW,APP" : "TRK";
+    ProjectsPage page = searchProjects(qualifiers);
+    while (!page.keys.isEmpty()) {
+      // bulk_delete requires at least one of the parameters "projects", "q" or "analyzedBefore"
+      newHttpCall("/api/projects/bulk_delete")
+        .setMethod(HttpMethod.POST)
+        .setAdminCredentials()
+        .setParam("qualifiers", qualifiers)
+        .setParam("projects", String.join(",", page.keys))
+        .execute();
+      int previousTotal = page.total;
+      page = searchProjects(qualifiers);
+      if (page.total >= previousTotal) {
+        throw new IllegalStateException("Fail to delete projects. " + page.total + " projects remaining.");
+      }
+    }
+  }
+
+  /**
+   * First page of projects. Deleted projects are removed from the search, so the next batch is always the first page.
+   */
+  private ProjectsPage searchProjects(String qualifiers) {
+    String json = newHttpCall("/api/projects/search")
+      .setAdminCredentials()
+      .setParam("qualifiers", qualifiers)
+      .setParam("ps", String.valueOf(DELETE_PROJECTS_BATCH_SIZE))
+      .execute()
+      .getBodyAsString();
+    JsonObject response = Json.parse(json).asObject();
+    List<String> keys = new ArrayList<>();
+    JsonValue components = response.get("components");
+    if (components != null) {
+      components.asArray().forEach(component -> keys.add(component.asObject().getString("key", null)));
+    }
+    return new ProjectsPage(keys, response.get("paging").asObject().getInt("total", 0));
+  }
+
+  private static class ProjectsPage {
+    private final List<String> keys;
+    private final int total;
+
+    private ProjectsPage(List<String> keys, int total) {
+      this.keys = keys;
+      this.total = total;
+    }
+  }
+
   /**
    * @deprecated in 3.15. Replaced by {@link #newHttpCall(String)}.
    */
@@ -54,6 +54,31 @@ public final class SonarDistribution {
     // A distribution without a version yet
   }
 
+  /**
+   * Copy that can be modified without changing this distribution, for example to set the server
+   * properties of the nodes of a cluster.
+   *
+   * @since 4.7
+   */
+  public SonarDistribution copy() {
+    SonarDistribution copy = new SonarDistribution();
+    copy.version = version;
+    copy.edition = edition;
+    copy.pluginLocations.addAll(pluginLocations);
+    copy.bundledPluginLocations.addAll(bundledPluginLocations);
+    copy.profileBackups.addAll(profileBackups);
+    copy.serverProperties.putAll(serverProperties);
+    copy.activateLicense = activateLicense;
+    copy.emptySonarProperties = emptySonarProperties;
+    copy.keepBundledPlugins = keepBundledPlugins;
+    copy.bundledPluginNamePrefixesToKeep = new HashSet<>(bundledPluginNamePrefixesToKeep);
+    copy.defaultForceAuthentication = defaultForceAuthentication;
+    copy.forceDefaultAdminCredentialsRedirect = forceDefaultAdminCredentialsRedirect;
+    copy.useDefaultAdminCredentialsForBuilds = useDefaultAdminCredentialsForBuilds;
+    copy.zip = zip;
+    return copy;
+  }
+
   public Optional<Location> getZipLocation() {
     return Optional.ofNullable(zip);
   }
@@ -71,6 +71,14 @@ public final class DefaultDatabase implements Database {
     }
   }
 
+  /**
+   * Whether the data are stored in the directory data/ of the server, like the embedded H2 database,
+   * so that they can be saved by copying files while the server is stopped.
+   */
+  public boolean isStoredInServerHome() {
+    return databaseClient instanceof H2;
+  }
+
   @Override
   public Map<String, String> getSonarProperties() {
     return databaseClient.getProperties();
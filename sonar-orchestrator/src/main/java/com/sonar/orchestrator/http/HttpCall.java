@@ -21,6 +21,8 @@ package com.sonar.orchestrator.http;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.ProtocolException;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
@@ -28,6 +30,7 @@ import java.util.Arrays;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 import javax.annotation.Nullable;
 import okhttp3.Credentials;
 import okhttp3.FormBody;
@@ -37,6 +40,7 @@ import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.Response;
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.input.TeeInputStream;
 import org.apache.commons.lang.StringUtils;
 
 import static com.sonar.orchestrator.container.Server.ADMIN_LOGIN;
@@ -178,13 +182,25 @@ public class HttpCall {
   }
 
   public File downloadToDirectory(File dir) {
+    return downloadToDirectoryWithRetry(dir, null);
+  }
+
+  /**
+   * Same as {@link #downloadToDirectory(File)} but the downloaded bytes are also written, while they arrive, to a
+   * stream created by {@code teeFactory}. Each attempt writes to a new stream, which is closed at the end of the attempt.
+   */
+  public File downloadToDirectory(File dir, Supplier<OutputStream> teeFactory) {
+    return downloadToDirectoryWithRetry(dir, teeFactory);
+  }
+
+  private File downloadToDirectoryWithRetry(File dir, @Nullable Supplier<OutputStream> teeFactory) {
     Request okRequest = buildOkHttpRequest();
     try {
-      return doDownloadToDirectory(dir, okRequest);
+      return doDownloadToDirectory(dir, okRequest, teeFactory);
     } catch (ProtocolException|SocketException|SocketTimeoutException se) {
       // retry, because of some false-positives when downloading files from GitHub
       try {
-        return doDownloadToDirectory(dir, okRequest);
+        return doDownloadToDirectory(dir, okRequest, teeFactory);
       } catch (IOException e2) {
         throw new IllegalStateException(format("Can not call %s", okRequest.url()), e2);
       }
@@ -193,14 +209,21 @@ public class HttpCall {
     }
   }
 
-  private File doDownloadToDirectory(File dir, Request okRequest) throws IOException {
+  private File doDownloadToDirectory(File dir, Request okRequest, @Nullable Supplier<OutputStream> teeFactory) throws IOException {
     try (Response okResponse = doExecute(okRequest)) {
       if (!okResponse.isSuccessful()) {
         throw new HttpException(okRequest.url(), okResponse.code(), okResponse.body().string());
       }
       String filename = extractFilename(okResponse);
       File toFile = new File(dir, filename);
-      FileUtils.copyInputStreamToFile(okResponse.body().byteStream(), toFile);
+      InputStream body = okResponse.body().byteStream();
+      if (teeFactory == null) {
+        FileUtils.copyInputStreamToFile(body, toFile);
+      } else {
+        try (OutputStream tee = teeFactory.get()) {
+          FileUtils.copyInputStreamToFile(new TeeInputStream(body, tee), toFile);
+        }
+      }
       return toFile;
     }
   }
@@ -25,6 +25,14 @@ import java.util.Optional;
 public interface Artifactory {
   boolean downloadToFile(MavenLocation location, File toFile);
 
+  /**
+   * Same as {@link #downloadToFile(MavenLocation, File)}, but the content is also streamed to
+   * the listener while it is downloaded. The listener is not called if the artifact is not downloaded.
+   */
+  default boolean downloadToFile(MavenLocation location, File toFile, DownloadListener listener) {
+    return downloadToFile(location, toFile);
+  }
+
   Optional<File> downloadToDir(MavenLocation location, File toDir);
 
   Optional<String> resolveVersion(MavenLocation location);
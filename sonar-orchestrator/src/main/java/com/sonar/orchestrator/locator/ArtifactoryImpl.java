@@ -76,7 +76,12 @@ public class ArtifactoryImpl implements Artifactory {
 
   @Override
   public boolean downloadToFile(MavenLocation location, File toFile) {
-    Optional<File> tempFile = downloadToDir(location, tempDir);
+    return downloadToFile(location, toFile, null);
+  }
+
+  @Override
+  public boolean downloadToFile(MavenLocation location, File toFile, @Nullable DownloadListener listener) {
+    Optional<File> tempFile = downloadToDir(location, tempDir, listener);
     if (tempFile.isPresent()) {
       try {
         FileUtils.deleteQuietly(toFile);
@@ -91,6 +96,10 @@ public class ArtifactoryImpl implements Artifactory {
 
   @Override
   public Optional<File> downloadToDir(MavenLocation location, File toDir) {
+    return downloadToDir(location, toDir, null);
+  }
+
+  private Optional<File> downloadToDir(MavenLocation location, File toDir, @Nullable DownloadListener listener) {
     for (String repository : asList("sonarsource", "sonarsource-qa", "sonarsource-dogfood-builds")) {
       HttpUrl url = HttpUrl.parse(baseUrl).newBuilder()
         .addPathSegment(repository)
@@ -103,7 +112,7 @@ public class ArtifactoryImpl implements Artifactory {
       HttpCall call = newArtifactoryCall(url);
       try {
         LOG.info("Downloading {}", url);
-        File toFile = call.downloadToDirectory(toDir);
+        File toFile = listener == null ? call.downloadToDirectory(toDir) : downloadToDirectory(call, toDir, listener);
         LOG.info("Found {} at {}", location, url);
         return Optional.of(toFile);
       } catch (HttpException e) {
@@ -130,6 +139,11 @@ public class ArtifactoryImpl implements Artifactory {
     return Optional.empty();
   }
 
+  private static File downloadToDirectory(HttpCall call, File toDir, DownloadListener listener) {
+    // the listener of a retried download receives the content again from the beginning
+    return call.downloadToDirectory(toDir, () -> new DownloadTee(listener));
+  }
+
   @Override
   public Optional<String> resolveVersion(MavenLocation location) {
     String repositories;
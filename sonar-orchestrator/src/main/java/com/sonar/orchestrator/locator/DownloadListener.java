@@ -0,0 +1,39 @@
+/*
+ * Orchestrator
+ * Copyright (C) 2011-2024 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.sonar.orchestrator.locator;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Receives the content of a file while it is being downloaded, for example to extract it
+ * without waiting for the end of the download.
+ */
+@FunctionalInterface
+public interface DownloadListener {
+
+  /**
+   * Called in a dedicated thread, once per attempt to download the file. When the download is retried, the
+   * method is called again, after the previous call returned, with the content from the beginning of the file.
+   * Content must be read until the end, otherwise the download is slowed down until the stream is closed.
+   * The content is truncated if the attempt fails.
+   */
+  void onDownload(InputStream content) throws IOException;
+}
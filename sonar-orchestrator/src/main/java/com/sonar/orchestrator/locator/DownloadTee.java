@@ -0,0 +1,115 @@
+/*
+ * Orchestrator
+ * Copyright (C) 2011-2024 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.sonar.orchestrator.locator;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.annotation.CheckForNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Forwards the bytes written by the downloader to a {@link DownloadListener} executed in another thread.
+ * The listener is started on the first written byte, so that it is not notified of requests that fail
+ * before the body is received. A failure of the listener never fails the download.
+ */
+final class DownloadTee extends OutputStream {
+
+  private static final Logger LOG = LoggerFactory.getLogger(DownloadTee.class);
+  private static final int PIPE_SIZE = 1024 * 1024;
+
+  private final DownloadListener listener;
+  @CheckForNull
+  private PipedOutputStream pipe;
+  @CheckForNull
+  private ExecutorService executor;
+  @CheckForNull
+  private Future<?> listenerTask;
+  private boolean listenerFailed = false;
+
+  DownloadTee(DownloadListener listener) {
+    this.listener = listener;
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    write(new byte[] {(byte) b}, 0, 1);
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    if (listenerFailed) {
+      return;
+    }
+    try {
+      startListener().write(b, off, len);
+    } catch (IOException e) {
+      // listener stopped reading
+      listenerFailed = true;
+    }
+  }
+
+  private PipedOutputStream startListener() throws IOException {
+    if (pipe == null) {
+      PipedInputStream input = new PipedInputStream(PIPE_SIZE);
+      pipe = new PipedOutputStream(input);
+      executor = Executors.newSingleThreadExecutor(DownloadTee::newThread);
+      listenerTask = executor.submit(() -> {
+        try (PipedInputStream content = input) {
+          listener.onDownload(content);
+          return null;
+        }
+      });
+    }
+    return pipe;
+  }
+
+  /**
+   * Ends the content received by the listener, then waits for the listener to complete.
+   */
+  @Override
+  public void close() {
+    if (pipe == null) {
+      return;
+    }
+    try {
+      pipe.close();
+      listenerTask.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (IOException | ExecutionException e) {
+      LOG.warn("Failure of download listener", e);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private static Thread newThread(Runnable runnable) {
+    Thread thread = new Thread(runnable, "orchestrator-download-listener");
+    thread.setDaemon(true);
+    return thread;
+  }
+}
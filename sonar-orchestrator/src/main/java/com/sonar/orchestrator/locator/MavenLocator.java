@@ -46,13 +46,27 @@ public class MavenLocator implements Locator<MavenLocation> {
 
   @Override
   public File locate(MavenLocation location) {
+    return locate(location, null);
+  }
+
+  /**
+   * Same as {@link #locate(MavenLocation)}, but if the artifact is downloaded then its content is
+   * also streamed to {@code downloadListener} while it is downloaded.
+   */
+  @CheckForNull
+  public File locate(MavenLocation location, @Nullable DownloadListener downloadListener) {
     // resolve the version alias if needed (requires to be online)
     MavenLocation resolvedLocation = resolveLocation(location);
-    return locateResolvedVersion(resolvedLocation);
+    return locateResolvedVersion(resolvedLocation, downloadListener);
   }
 
   @Nullable
   File locateResolvedVersion(MavenLocation resolvedLocation) {
+    return locateResolvedVersion(resolvedLocation, null);
+  }
+
+  @Nullable
+  private File locateResolvedVersion(MavenLocation resolvedLocation, @Nullable DownloadListener downloadListener) {
     // check local cache
     String cacheKey = cacheKeyOf(resolvedLocation);
     File cachedDir = new File(fileSystem.getCacheDir(), cacheKey);
@@ -61,6 +75,8 @@ public class MavenLocator implements Locator<MavenLocation> {
       if (files.size() == 1) {
         File file = files.iterator().next();
         LOG.info("Found {} at {}", resolvedLocation, file);
+        // date of last access, used for garbage collection
+        cachedDir.setLastModified(System.currentTimeMillis());
         return file;
       }
     }
@@ -78,7 +94,8 @@ public class MavenLocator implements Locator<MavenLocation> {
       return null;
     }
     File cachedFile = new File(cachedDir, resolvedLocation.getFilename());
-    boolean found = artifactory.downloadToFile(resolvedLocation, cachedFile);
+    boolean found = downloadListener == null ? artifactory.downloadToFile(resolvedLocation, cachedFile)
+      : artifactory.downloadToFile(resolvedLocation, cachedFile, downloadListener);
     return found ? cachedFile : null;
   }
 
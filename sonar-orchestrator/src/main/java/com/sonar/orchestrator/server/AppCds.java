@@ -0,0 +1,231 @@
+/*
+ * Orchestrator
+ * Copyright (C) 2011-2024 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.sonar.orchestrator.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.annotation.CheckForNull;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Class Data Sharing archives of the JVMs of a server (app, web and Compute Engine processes) or of a scanner. An archive
+ * is generated when the JVM exits (-XX:ArchiveClassesAtExit, Java 13+), then it is loaded by the next starts
+ * (-XX:SharedArchiveFile).
+ * <p/>
+ * Archives are stored in the cache per content of the distribution, so that they are shared by the servers installed
+ * from the same zip. The JVM checks the paths, sizes and modification dates of the jars of the classpath, and ignores
+ * the archive if they differ. That is the case of the hard links of the distribution cache and of reused server homes.
+ * <p/>
+ * A JVM dumps its archive into a file specific to this start. The file is published once the server is stopped, so
+ * that JVMs never load an archive being written, even when the same distribution is started by concurrent builds.
+ * Archives of a scanner are stored per installation of scanner, and published when the analysis is finished.
+ *
+ * @since 4.7
+ */
+public final class AppCds {
+
+  static final String APP = "app";
+  static final String WEB = "web";
+  static final String COMPUTE_ENGINE = "ce";
+  public static final String SCANNER = "scanner";
+
+  /**
+   * File of the server home that contains the key of its archives, written during installation
+   */
+  static final String KEY_FILE = "conf/orchestrator-appcds.properties";
+
+  private static final Logger LOG = LoggerFactory.getLogger(AppCds.class);
+  private static final String KEY_PROPERTY = "key";
+  private static final String SONAR_PROPERTIES_PROPERTY = "sonarProperties";
+  private static final String ARCHIVE_SUFFIX = ".jsa";
+  private static final String DUMP_SUFFIX = ".jsa.tmp";
+  private static final Pattern JAVA_VERSION_PATTERN = Pattern.compile("version \"(\\d+)(?:\\.(\\d+))?");
+  private static final Map<String, Integer> JAVA_VERSIONS = new ConcurrentHashMap<>();
+
+  private final File dir;
+  private final boolean sonarProperties;
+  // dumps of the JVMs started since the last stop, by name of archive
+  private final Map<File, File> pendingDumps = new LinkedHashMap<>();
+
+  private AppCds(File dir, boolean sonarProperties) {
+    this.dir = dir;
+    this.sonarProperties = sonarProperties;
+  }
+
+  /**
+   * Stores the key of archives in the server home.
+   *
+   * @param distributionHash the hash of content of the distribution zip, see {@link DistributionCache#hashOf(File)}
+   * @param sonarProperties whether the JVM options of web and Compute Engine processes can be set in conf/sonar.properties
+   */
+  static void writeKey(File serverHome, String distributionHash, boolean sonarProperties) {
+    Properties props = new Properties();
+    props.setProperty(KEY_PROPERTY, distributionHash);
+    props.setProperty(SONAR_PROPERTIES_PROPERTY, String.valueOf(sonarProperties));
+    try (OutputStream output = FileUtils.openOutputStream(new File(serverHome, KEY_FILE))) {
+      props.store(output, "Generated by Orchestrator");
+    } catch (IOException e) {
+      throw new IllegalStateException("Fail to write " + KEY_FILE + " in " + serverHome, e);
+    }
+  }
+
+  /**
+   * @return {@code null} if the server has been installed without the key of archives
+   */
+  @CheckForNull
+  static AppCds of(File cacheDir, File serverHome) {
+    File keyFile = new File(serverHome, KEY_FILE);
+    if (!keyFile.isFile()) {
+      return null;
+    }
+    Properties props = new Properties();
+    try (InputStream input = FileUtils.openInputStream(keyFile)) {
+      props.load(input);
+    } catch (IOException e) {
+      throw new IllegalStateException("Fail to read " + keyFile, e);
+    }
+    File appCdsDir = new File(cacheDir, "appcds");
+    // last access, used by the garbage collector of cache
+    appCdsDir.setLastModified(System.currentTimeMillis());
+    return new AppCds(new File(appCdsDir, props.getProperty(KEY_PROPERTY)),
+      Boolean.parseBoolean(props.getProperty(SONAR_PROPERTIES_PROPERTY)));
+  }
+
+  /**
+   * Archives of the JVM of the scanner installed in {@code scannerHome}. The key covers the paths, sizes and
+   * modification dates of the jars of scannerHome/lib, which are checked by the JVM when loading the archive.
+   */
+  public static AppCds ofScanner(File cacheDir, File scannerHome) {
+    StringBuilder sb = new StringBuilder(scannerHome.getAbsolutePath());
+    File[] libs = new File(scannerHome, "lib").listFiles(File::isFile);
+    if (libs != null) {
+      Arrays.sort(libs, Comparator.comparing(File::getName));
+      for (File lib : libs) {
+        sb.append('\n').append(lib.getName()).append(':').append(lib.length()).append(':').append(lib.lastModified());
+      }
+    }
+    File appCdsDir = new File(cacheDir, "appcds");
+    // last access, used by the garbage collector of cache
+    appCdsDir.setLastModified(System.currentTimeMillis());
+    return new AppCds(new File(appCdsDir, SCANNER + "-" + DigestUtils.sha256Hex(sb.toString())), false);
+  }
+
+  /**
+   * Whether the JVM options of web and Compute Engine processes can be set in conf/sonar.properties
+   */
+  boolean isSonarProperties() {
+    return sonarProperties;
+  }
+
+  /**
+   * JVM options of the given process for the next start: dump of the archive if it does not exist yet,
+   * else usage of the archive.
+   */
+  public synchronized String[] jvmOptions(String process) {
+    File archive = new File(dir, process + ARCHIVE_SUFFIX);
+    if (archive.isFile()) {
+      return new String[] {"-XX:SharedArchiveFile=" + archive.getAbsolutePath()};
+    }
+    try {
+      FileUtils.forceMkdir(dir);
+    } catch (IOException e) {
+      throw new IllegalStateException("Fail to create directory " + dir, e);
+    }
+    File dump = pendingDumps.computeIfAbsent(archive, a -> new File(dir, process + "." + UUID.randomUUID() + DUMP_SUFFIX));
+    return new String[] {"-XX:ArchiveClassesAtExit=" + dump.getAbsolutePath()};
+  }
+
+  /**
+   * To be called once the JVMs of the server or of the scanner have exited. Dumps are renamed to the archives loaded
+   * by the next starts, unless an archive has already been published by another JVM. Dumps of killed JVMs may be
+   * incomplete, so they are deleted.
+   */
+  public synchronized void publishDumps(boolean complete) {
+    for (Map.Entry<File, File> entry : pendingDumps.entrySet()) {
+      File archive = entry.getKey();
+      File dump = entry.getValue();
+      if (complete && dump.isFile() && !archive.exists()) {
+        try {
+          Files.move(dump.toPath(), archive.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+          LOG.debug("Fail to publish class data archive {}", archive, e);
+        }
+      }
+      FileUtils.deleteQuietly(dump);
+    }
+    pendingDumps.clear();
+  }
+
+  /**
+   * -XX:ArchiveClassesAtExit requires Java 13+
+   */
+  public static boolean isSupportedBy(String javaExecutable) {
+    return JAVA_VERSIONS.computeIfAbsent(javaExecutable, AppCds::javaMajorVersionOf) >= 13;
+  }
+
+  private static int javaMajorVersionOf(String javaExecutable) {
+    try {
+      Process process = new ProcessBuilder(javaExecutable, "-version").redirectErrorStream(true).start();
+      String output = IOUtils.toString(process.getInputStream(), Charset.defaultCharset());
+      process.waitFor(10, TimeUnit.SECONDS);
+      return parseJavaMajorVersion(output);
+    } catch (IOException e) {
+      LOG.warn("Fail to get version of {}", javaExecutable, e);
+      return -1;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return -1;
+    }
+  }
+
+  /**
+   * @param output of "java -version", for example {@code openjdk version "17.0.2" 2022-01-18} or {@code java version "1.8.0_292"}
+   */
+  static int parseJavaMajorVersion(String output) {
+    Matcher matcher = JAVA_VERSION_PATTERN.matcher(output);
+    if (!matcher.find()) {
+      return -1;
+    }
+    int major = Integer.parseInt(matcher.group(1));
+    if (major == 1 && matcher.group(2) != null) {
+      return Integer.parseInt(matcher.group(2));
+    }
+    return major;
+  }
+}
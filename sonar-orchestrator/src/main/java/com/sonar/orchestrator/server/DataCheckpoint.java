@@ -0,0 +1,112 @@
+/*
+ * Orchestrator
+ * Copyright (C) 2011-2024 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.sonar.orchestrator.server;
+
+import com.sonar.orchestrator.util.DirectoryLock;
+import java.io.File;
+import java.io.IOException;
+import java.util.UUID;
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static com.sonar.orchestrator.util.OrchestratorUtils.checkState;
+
+/**
+ * Copy of the directory data/ of a stopped server, which contains the embedded H2 database
+ * and the Elasticsearch indices. Restoring it brings the server back to the state of the checkpoint
+ * without having to migrate the database and to index data again.
+ */
+public class DataCheckpoint {
+
+  private static final Logger LOG = LoggerFactory.getLogger(DataCheckpoint.class);
+
+  /**
+   * Directory of the workspace that contains the checkpoints, see {@link com.sonar.orchestrator.config.DiskGarbageCollector}
+   */
+  static final String WORKSPACE_DIR = "checkpoints";
+
+  private final File dataDir;
+  private final File checkpointDir;
+  @CheckForNull
+  private final DirectoryLock lock;
+
+  public DataCheckpoint(File serverHome, File checkpointDir) {
+    this(serverHome, checkpointDir, null);
+  }
+
+  private DataCheckpoint(File serverHome, File checkpointDir, @Nullable DirectoryLock lock) {
+    this.dataDir = new File(serverHome, "data");
+    this.checkpointDir = checkpointDir;
+    this.lock = lock;
+  }
+
+  /**
+   * Checkpoint stored in the workspace. The parent directory of the server home is not used, as it must contain
+   * only the home (see reuse of server homes). The checkpoint is locked until {@link #delete()}, so that it is not
+   * deleted by the garbage collector of another process.
+   */
+  public static DataCheckpoint create(File workspace, File serverHome) {
+    String name = UUID.randomUUID().toString();
+    File checkpointsDir = new File(workspace, WORKSPACE_DIR);
+    DirectoryLock lock = DirectoryLock.tryLock(new File(checkpointsDir, name + ".lock"));
+    checkState(lock != null, "Fail to lock checkpoint %s", name);
+    return new DataCheckpoint(serverHome, new File(checkpointsDir, name), lock);
+  }
+
+  /**
+   * Server must be stopped
+   */
+  public void save() {
+    long start = System.currentTimeMillis();
+    try {
+      FileUtils.deleteDirectory(checkpointDir);
+      FileUtils.copyDirectory(dataDir, checkpointDir);
+    } catch (IOException e) {
+      throw new IllegalStateException("Fail to copy " + dataDir + " to " + checkpointDir, e);
+    }
+    LOG.info("Checkpoint of {} saved in {} ms", dataDir, System.currentTimeMillis() - start);
+  }
+
+  /**
+   * Server must be stopped
+   */
+  public void restore() {
+    checkState(checkpointDir.isDirectory(), "Checkpoint does not exist: %s", checkpointDir);
+    long start = System.currentTimeMillis();
+    try {
+      FileUtils.deleteDirectory(dataDir);
+      FileUtils.copyDirectory(checkpointDir, dataDir);
+    } catch (IOException e) {
+      throw new IllegalStateException("Fail to copy " + checkpointDir + " to " + dataDir, e);
+    }
+    LOG.info("Checkpoint restored to {} in {} ms", dataDir, System.currentTimeMillis() - start);
+  }
+
+  public void delete() {
+    FileUtils.deleteQuietly(checkpointDir);
+    if (lock != null) {
+      lock.close();
+      FileUtils.deleteQuietly(lock.getLockFile());
+    }
+  }
+}
@@ -0,0 +1,296 @@
+/*
+ * Orchestrator
+ * Copyright (C) 2011-2024 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.sonar.orchestrator.server;
+
+import com.sonar.orchestrator.locator.DownloadListener;
+import com.sonar.orchestrator.util.DirectoryLock;
+import com.sonar.orchestrator.util.ZipUtils;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.CountingInputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Cache of pristine SonarQube homes, extracted once per distinct zip content. Server homes are
+ * materialized from the cache: JAR files are hard-linked when the file system allows it, other
+ * files are copied so that they can be safely modified (for example {@code conf/sonar.properties}).
+ * The extracted copy is never modified. It is locked (shared lock) while it is materialized, so that it is not
+ * deleted by {@link com.sonar.orchestrator.config.DiskGarbageCollector} in the meantime.
+ */
+class DistributionCache {
+
+  private static final Logger LOG = LoggerFactory.getLogger(DistributionCache.class);
+  private static final long LOCK_POLL_INTERVAL_MS = 100L;
+
+  // computing the hash of a zip of hundreds of MB is not free, so it is done once per file and JVM
+  private static final Map<String, String> HASHES = new ConcurrentHashMap<>();
+
+  private final File cacheDir;
+
+  DistributionCache(File cacheDir) {
+    this.cacheDir = cacheDir;
+  }
+
+  /**
+   * Extracts the zip into the cache, if not already done, then materializes its content into {@code toDir}.
+   */
+  void install(File zip, File toDir) {
+    install(zip, toDir, entryName -> true);
+  }
+
+  /**
+   * Same as {@link #install(File, File)} but only the files accepted by {@code entryFilter} are materialized.
+   * The cache always contains the whole zip, so that it can be shared by installations using different filters.
+   */
+  void install(File zip, File toDir, Predicate<String> entryFilter) {
+    // locked before being read, as it may be deleted by garbage collection once extracted
+    try (DirectoryLock lock = lockShared(new File(cacheDir, hashOf(zip) + ".lock"))) {
+      File pristineDir = getOrExtract(zip);
+      LOG.info("Install {} from cache {}", zip.getName(), pristineDir);
+      materialize(pristineDir, toDir, entryFilter);
+    }
+  }
+
+  /**
+   * Waits as long as the entry is exclusively locked, which happens only while it is deleted by garbage collection
+   */
+  private static DirectoryLock lockShared(File lockFile) {
+    while (true) {
+      DirectoryLock lock = DirectoryLock.tryLockShared(lockFile);
+      if (lock != null) {
+        return lock;
+      }
+      LOG.debug("Wait for lock {}", lockFile);
+      try {
+        Thread.sleep(LOCK_POLL_INTERVAL_MS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Interrupted while waiting for lock " + lockFile, e);
+      }
+    }
+  }
+
+  File getOrExtract(File zip) {
+    File pristineDir = new File(cacheDir, hashOf(zip));
+    if (pristineDir.isDirectory()) {
+      // date of last access, used for garbage collection
+      pristineDir.setLastModified(System.currentTimeMillis());
+      return pristineDir;
+    }
+
+    // extract in a temporary directory then atomically rename it, so that a concurrent
+    // process never sees a partial extraction
+    File tempDir = newTempDir(pristineDir.getName());
+    LOG.info("Extract {} to cache {}", zip.getName(), pristineDir);
+    ZipUtils.unzip(zip, tempDir);
+    return publish(tempDir, pristineDir);
+  }
+
+  /**
+   * Listener that extracts the zip into the cache while it is downloaded, so that {@link #install(File, File, Predicate)}
+   * does not have to extract it again.
+   */
+  StreamingExtraction extractWhileDownloading() {
+    return new StreamingExtraction();
+  }
+
+  private File newTempDir(String prefix) {
+    return new File(cacheDir, prefix + ".tmp-" + UUID.randomUUID());
+  }
+
+  private static File publish(File tempDir, File pristineDir) {
+    try {
+      Files.move(tempDir.toPath(), pristineDir.toPath(), StandardCopyOption.ATOMIC_MOVE);
+    } catch (FileAlreadyExistsException e) {
+      // extracted in the meantime by another process
+      FileUtils.deleteQuietly(tempDir);
+    } catch (IOException e) {
+      FileUtils.deleteQuietly(tempDir);
+      if (!pristineDir.isDirectory()) {
+        throw new IllegalStateException("Fail to move " + tempDir + " to " + pristineDir, e);
+      }
+    }
+    return pristineDir;
+  }
+
+  static void materialize(File pristineDir, File toDir, Predicate<String> entryFilter) {
+    Path source = pristineDir.toPath();
+    Path target = toDir.toPath();
+    try {
+      Files.walkFileTree(source, new MaterializingVisitor(source, target, entryFilter));
+    } catch (IOException e) {
+      throw new IllegalStateException("Fail to copy " + pristineDir + " to " + toDir, e);
+    }
+  }
+
+  static String hashOf(File zip) {
+    return HASHES.computeIfAbsent(hashKeyOf(zip), k -> {
+      try (InputStream input = FileUtils.openInputStream(zip)) {
+        return DigestUtils.sha256Hex(input);
+      } catch (IOException e) {
+        throw new IllegalStateException("Fail to compute hash of " + zip, e);
+      }
+    });
+  }
+
+  private static String hashKeyOf(File zip) {
+    return zip.getAbsolutePath() + ":" + zip.length() + ":" + zip.lastModified();
+  }
+
+  class StreamingExtraction implements DownloadListener, AutoCloseable {
+    // set once the whole content of the last attempt to download the zip has been received and extracted
+    private File extractedDir;
+    private String hash;
+    private long size;
+    private volatile boolean closed = false;
+
+    @Override
+    public synchronized void onDownload(InputStream content) {
+      // a retried download starts again from the beginning of the zip
+      deleteExtractedDir();
+      File tempDir = newTempDir("download");
+      MessageDigest digest = DigestUtils.getSha256Digest();
+      try (CountingInputStream input = new CountingInputStream(new DigestInputStream(content, digest))) {
+        LOG.info("Extract to cache while downloading");
+        ZipUtils.unzip(input, tempDir, entryName -> true);
+        // the hash covers the central directory, which follows the entries
+        IOUtils.skip(input, Long.MAX_VALUE);
+        String[] extractedFiles = tempDir.list();
+        if (extractedFiles == null || extractedFiles.length == 0) {
+          throw new IllegalStateException("No entries found in zip");
+        }
+        hash = Hex.encodeHexString(digest.digest());
+        size = input.getByteCount();
+        extractedDir = tempDir;
+      } catch (IOException | RuntimeException e) {
+        // the zip will be extracted once downloaded
+        LOG.warn("Fail to extract zip while downloading it", e);
+        FileUtils.deleteQuietly(tempDir);
+      }
+      if (closed) {
+        // the download has been abandoned while the zip was extracted
+        deleteExtractedDir();
+      }
+    }
+
+    /**
+     * To be called when the download is complete. Does nothing if the zip was not downloaded, for example
+     * if it was already in the local cache, or if it could not be extracted.
+     */
+    synchronized void complete(File zip) {
+      if (extractedDir == null) {
+        return;
+      }
+      if (size != zip.length()) {
+        // the last attempt was cut short, the zip will be extracted once downloaded
+        LOG.warn("Extracted {} bytes of {} while downloading it, instead of {}", size, zip.getName(), zip.length());
+        deleteExtractedDir();
+        return;
+      }
+      // stored in the central directory, at the end of the zip
+      ZipUtils.restoreUnixPermissions(zip, extractedDir);
+      HASHES.put(hashKeyOf(zip), hash);
+      File pristineDir = publish(extractedDir, new File(cacheDir, hash));
+      LOG.info("{} extracted to cache {} while downloading", zip.getName(), pristineDir);
+      extractedDir = null;
+    }
+
+    /**
+     * Deletes the extraction if it has not been published to the cache by {@link #complete(File)}, for example
+     * because the download failed.
+     */
+    @Override
+    public void close() {
+      closed = true;
+      synchronized (this) {
+        deleteExtractedDir();
+      }
+    }
+
+    private void deleteExtractedDir() {
+      if (extractedDir != null) {
+        FileUtils.deleteQuietly(extractedDir);
+        extractedDir = null;
+      }
+    }
+  }
+
+  private static class MaterializingVisitor extends SimpleFileVisitor<Path> {
+    private final Path source;
+    private final Path target;
+    private final Predicate<String> entryFilter;
+    private boolean linkSupported = true;
+
+    MaterializingVisitor(Path source, Path target, Predicate<String> entryFilter) {
+      this.source = source;
+      this.target = target;
+      this.entryFilter = entryFilter;
+    }
+
+    @Override
+    public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+      Files.createDirectories(target.resolve(source.relativize(dir).toString()));
+      return FileVisitResult.CONTINUE;
+    }
+
+    @Override
+    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+      String relativePath = source.relativize(file).toString();
+      // same format as the names of zip entries
+      if (!entryFilter.test(relativePath.replace(File.separatorChar, '/'))) {
+        return FileVisitResult.CONTINUE;
+      }
+      Path to = target.resolve(relativePath);
+      if (linkSupported && file.getFileName().toString().endsWith(".jar")) {
+        try {
+          Files.createLink(to, file);
+          return FileVisitResult.CONTINUE;
+        } catch (IOException | UnsupportedOperationException e) {
+          // for example when cache and workspace are not on the same file system
+          LOG.debug("Hard links are not supported, fallback to copy", e);
+          linkSupported = false;
+        }
+      }
+      // symbolic links restored by the extraction are copied as links
+      Files.copy(file, to, StandardCopyOption.COPY_ATTRIBUTES, LinkOption.NOFOLLOW_LINKS);
+      return FileVisitResult.CONTINUE;
+    }
+  }
+}
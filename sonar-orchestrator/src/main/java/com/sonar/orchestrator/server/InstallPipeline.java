@@ -0,0 +1,137 @@
+/*
+ * Orchestrator
+ * Copyright (C) 2011-2024 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.sonar.orchestrator.server;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs the independent stages of an installation concurrently. Stages are chained
+ * through their dependencies, and the duration of each stage is logged so that the critical
+ * path can be identified.
+ */
+public class InstallPipeline implements AutoCloseable {
+
+  private static final Logger LOG = LoggerFactory.getLogger(InstallPipeline.class);
+
+  private final ExecutorService executor = Executors.newCachedThreadPool(InstallPipeline::newThread);
+  private final Map<String, Long> durations = new LinkedHashMap<>();
+
+  public <T> CompletableFuture<T> supply(String stage, Supplier<T> supplier) {
+    return CompletableFuture.supplyAsync(() -> timed(stage, supplier), executor);
+  }
+
+  public CompletableFuture<Void> run(String stage, Runnable runnable) {
+    return supply(stage, () -> {
+      runnable.run();
+      return null;
+    });
+  }
+
+  /**
+   * Starts the stage once {@code dependency} is done. The stage is not executed if the dependency failed.
+   */
+  public <T, R> CompletableFuture<R> then(String stage, CompletableFuture<T> dependency, Function<T, R> function) {
+    return dependency.thenApplyAsync(t -> timed(stage, () -> function.apply(t)), executor);
+  }
+
+  /**
+   * Waits for the result of a stage. The failure of the stage, if any, is thrown as is.
+   */
+  public static <T> T join(CompletableFuture<T> future) {
+    try {
+      return future.join();
+    } catch (CompletionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new IllegalStateException(cause);
+    }
+  }
+
+  /**
+   * Waits for all the stages, but fails as soon as one of them fails, without waiting for the others.
+   */
+  public static void joinAll(CompletableFuture<?>... futures) {
+    CompletableFuture<Void> firstFailureOrAll = new CompletableFuture<>();
+    for (CompletableFuture<?> future : futures) {
+      future.whenComplete((result, failure) -> {
+        if (failure != null) {
+          firstFailureOrAll.completeExceptionally(failure);
+        }
+      });
+    }
+    CompletableFuture.allOf(futures).whenComplete((result, failure) -> firstFailureOrAll.complete(null));
+    join(firstFailureOrAll);
+  }
+
+  /**
+   * Durations in milliseconds of the completed stages, in order of completion.
+   */
+  public Map<String, Long> getDurations() {
+    synchronized (durations) {
+      return new LinkedHashMap<>(durations);
+    }
+  }
+
+  private <T> T timed(String stage, Supplier<T> supplier) {
+    long start = System.currentTimeMillis();
+    T result = supplier.get();
+    long duration = System.currentTimeMillis() - start;
+    synchronized (durations) {
+      durations.put(stage, duration);
+    }
+    LOG.info("Install stage [{}] done in {} ms", stage, duration);
+    return result;
+  }
+
+  /**
+   * Interrupts the stages still running, for example after the failure of another stage.
+   */
+  @Override
+  public void close() {
+    executor.shutdownNow();
+    Map<String, Long> completed = getDurations();
+    if (!completed.isEmpty()) {
+      LOG.info("Install stages: {}", completed.entrySet().stream()
+        .map(entry -> entry.getKey() + "=" + entry.getValue() + "ms")
+        .collect(Collectors.joining(", ")));
+    }
+  }
+
+  private static Thread newThread(Runnable runnable) {
+    Thread thread = new Thread(runnable, "orchestrator-install");
+    thread.setDaemon(true);
+    return thread;
+  }
+}
@@ -21,6 +21,7 @@ package com.sonar.orchestrator.server;
 
 import com.sonar.orchestrator.container.Edition;
 import com.sonar.orchestrator.container.SonarDistribution;
+import com.sonar.orchestrator.locator.DownloadListener;
 import com.sonar.orchestrator.locator.Location;
 import com.sonar.orchestrator.locator.Locators;
 import com.sonar.orchestrator.locator.MavenLocation;
@@ -29,6 +30,7 @@ import java.io.File;
 import java.util.Optional;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import javax.annotation.Nullable;
 
 public class PackagingResolver {
 
@@ -43,11 +45,20 @@ public class PackagingResolver {
   }
 
   public Packaging resolve(SonarDistribution distribution) {
+    return resolve(distribution, null);
+  }
+
+  /**
+   * Same as {@link #resolve(SonarDistribution)}, but if the zip is downloaded from Artifactory then its content
+   * is also streamed to {@code downloadListener} while it is downloaded.
+   */
+  public Packaging resolve(SonarDistribution distribution, @Nullable DownloadListener downloadListener) {
     File zip;
 
     Optional<Location> location = distribution.getZipLocation();
     if (location.isPresent()) {
-      zip = locators.locate(location.get());
+      zip = downloadListener != null && location.get() instanceof MavenLocation ? locators.maven().locate((MavenLocation) location.get(), downloadListener)
+        : locators.locate(location.get());
       if (zip == null || !zip.exists()) {
         throw new IllegalStateException(String.format("SonarQube not found at %s", location.get()));
       }
@@ -77,7 +88,7 @@ public class PackagingResolver {
         }
       }
       MavenLocation mavenLocation = newMavenLocationOfZip(groupId, artifactId, version.toString());
-      zip = locators.locate(mavenLocation);
+      zip = downloadListener == null ? locators.locate(mavenLocation) : locators.maven().locate(mavenLocation, downloadListener);
       if (zip == null || !zip.exists()) {
         throw new IllegalStateException(String.format("SonarQube %s not found: %s", distribution.getVersion().get(), mavenLocation));
       }
@@ -0,0 +1,68 @@
+/*
+ * Orchestrator
+ * Copyright (C) 2011-2024 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.sonar.orchestrator.server;
+
+import com.sonar.orchestrator.container.Server;
+import java.util.Arrays;
+import javax.annotation.CheckForNull;
+
+import static com.sonar.orchestrator.util.OrchestratorUtils.checkState;
+
+/**
+ * Server run by the {@link ServerPoolDaemon}. Stopping it returns it to the pool.
+ */
+public class PooledServerProcess implements ServerProcess {
+
+  private final ServerPool.Lease lease;
+  private final Server server;
+  private final String jdbcUrl;
+  private final ServerCommandLineFactory serverCommandLineFactory;
+  private boolean released = false;
+
+  public PooledServerProcess(ServerPool.Lease lease, Server server, String jdbcUrl, ServerCommandLineFactory serverCommandLineFactory) {
+    this.lease = lease;
+    this.server = server;
+    this.jdbcUrl = jdbcUrl;
+    this.serverCommandLineFactory = serverCommandLineFactory;
+  }
+
+  @Override
+  public void start() {
+    checkState(!released, "Server leased from the pool can not be restarted");
+    if (!lease.isStarted()) {
+      lease.start(server, jdbcUrl, Arrays.asList(serverCommandLineFactory.create(server).toStrings()));
+    }
+  }
+
+  @Override
+  public void stop() {
+    if (!released) {
+      released = true;
+      lease.close();
+    }
+  }
+
+  @Override
+  @CheckForNull
+  public StartupReport getStartupReport() {
+    // logs are read by the pool
+    return null;
+  }
+}
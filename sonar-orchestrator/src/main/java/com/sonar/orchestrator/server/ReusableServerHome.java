@@ -0,0 +1,213 @@
+/*
+ * Orchestrator
+ * Copyright (C) 2011-2024 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.sonar.orchestrator.server;
+
+import com.sonar.orchestrator.util.DirectoryLock;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Stream;
+import javax.annotation.CheckForNull;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Server home that is kept in the workspace between runs. Its directory is named after the fingerprint of the
+ * distribution, and a manifest records the fingerprint and the plugins installed by the previous run. When the
+ * fingerprint matches, the zip is not extracted again and only the plugins that changed are replaced.
+ * <p>
+ * The directory is locked until the JVM exits, so that two processes never share the same home.
+ */
+class ReusableServerHome {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ReusableServerHome.class);
+  static final String MANIFEST_FILENAME = "orchestrator-manifest.properties";
+  private static final String FINGERPRINT_KEY = "fingerprint";
+  private static final String PLUGIN_KEY_PREFIX = "plugin.";
+  // SonarQube moves the plugins of extensions/downloads to extensions/plugins at startup
+  private static final String DOWNLOADS_DIR = "extensions/downloads";
+  private static final String INSTALLED_DOWNLOADS_DIR = "extensions/plugins";
+
+  private final File dir;
+  private final String fingerprint;
+  private final boolean reusable;
+  private final Properties previousManifest;
+  private final Properties manifest = new Properties();
+
+  private ReusableServerHome(File dir, String fingerprint, Properties previousManifest) {
+    this.dir = dir;
+    this.fingerprint = fingerprint;
+    this.reusable = fingerprint.equals(previousManifest.getProperty(FINGERPRINT_KEY));
+    this.previousManifest = reusable ? previousManifest : new Properties();
+    this.manifest.setProperty(FINGERPRINT_KEY, fingerprint);
+  }
+
+  /**
+   * @return the home dedicated to the fingerprint, or {@code null} if it is already used by this JVM or another process
+   */
+  @CheckForNull
+  static ReusableServerHome lock(File workspace, String fingerprint) {
+    String dirName = "home-" + fingerprint;
+    // the server can be restarted as long as the JVM is alive, so the lock is never released
+    if (!DirectoryLock.tryLockUntilExit(new File(workspace, dirName + ".lock"))) {
+      LOG.info("Server home {} is already used, it can't be reused", dirName);
+      return null;
+    }
+    File dir = new File(workspace, dirName);
+    File manifestFile = new File(dir, MANIFEST_FILENAME);
+    Properties previousManifest = loadManifest(manifestFile);
+    // written again once installation is complete, so that an interrupted installation is never reused
+    FileUtils.deleteQuietly(manifestFile);
+    return new ReusableServerHome(dir, fingerprint, previousManifest);
+  }
+
+  /**
+   * Fingerprint of what is extracted from the zip. Plugins are not part of it as they are updated incrementally.
+   * The zip is identified by its path, size and date, which is much cheaper than hashing hundreds of MB.
+   */
+  static String fingerprintOf(File zip, boolean keepBundledPlugins, Iterable<String> bundledPluginPrefixesToKeep, Properties serverProperties) {
+    StringBuilder sb = new StringBuilder();
+    sb.append("zip=").append(zip.getAbsolutePath()).append(':').append(zip.length()).append(':').append(zip.lastModified()).append('\n');
+    sb.append("keepBundledPlugins=").append(keepBundledPlugins).append('\n');
+    Set<String> sortedPrefixes = new TreeSet<>();
+    bundledPluginPrefixesToKeep.forEach(sortedPrefixes::add);
+    sb.append("bundledPluginsToKeep=").append(String.join(",", sortedPrefixes)).append('\n');
+    new TreeSet<>(serverProperties.stringPropertyNames())
+      .forEach(key -> sb.append("property.").append(key).append('=').append(serverProperties.getProperty(key)).append('\n'));
+    return DigestUtils.sha256Hex(sb.toString()).substring(0, 16);
+  }
+
+  File getDir() {
+    return dir;
+  }
+
+  /**
+   * Whether the directory contains a complete installation of the same distribution
+   */
+  boolean isReusable() {
+    return reusable;
+  }
+
+  /**
+   * Deletes the data, temporary files and logs of the previous run.
+   */
+  static void cleanRuntimeDirs(File homeDir) {
+    for (String dirName : new String[] {"data", "temp", "logs"}) {
+      File runtimeDir = new File(homeDir, dirName);
+      try {
+        if (runtimeDir.isDirectory()) {
+          FileUtils.cleanDirectory(runtimeDir);
+        }
+      } catch (IOException e) {
+        throw new IllegalStateException("Fail to clean directory: " + runtimeDir, e);
+      }
+    }
+  }
+
+  /**
+   * Moves the plugins of {@code fromDir} to {@code relativeDir} in the home, except those already installed
+   * by the previous run with the same content. Plugins installed by the previous run but not requested
+   * anymore are deleted.
+   */
+  void installPlugins(File fromDir, File homeDir, String relativeDir) {
+    Set<String> previousPlugins = previousPluginNames(relativeDir);
+    File toDir = new File(homeDir, relativeDir);
+    try (Stream<Path> files = Files.list(fromDir.toPath())) {
+      FileUtils.forceMkdir(toDir);
+      for (Path file : (Iterable<Path>) files::iterator) {
+        String name = file.getFileName().toString();
+        String key = PLUGIN_KEY_PREFIX + relativeDir + "/" + name;
+        String hash = hashOf(file);
+        manifest.setProperty(key, hash);
+        previousPlugins.remove(name);
+        if (hash.equals(previousManifest.getProperty(key)) && isInstalled(homeDir, relativeDir, name)) {
+          LOG.info("Plugin is unchanged: {}", name);
+          continue;
+        }
+        deleteInstalled(homeDir, relativeDir, name);
+        Files.move(file, toDir.toPath().resolve(name), StandardCopyOption.REPLACE_EXISTING);
+      }
+    } catch (IOException e) {
+      throw new IllegalStateException("Fail to move plugins to " + toDir, e);
+    }
+    for (String name : previousPlugins) {
+      LOG.info("Remove plugin installed by previous run: {}", name);
+      deleteInstalled(homeDir, relativeDir, name);
+    }
+  }
+
+  void storeManifest() {
+    File manifestFile = new File(dir, MANIFEST_FILENAME);
+    try (OutputStream output = FileUtils.openOutputStream(manifestFile)) {
+      manifest.store(output, "Generated by Orchestrator");
+    } catch (IOException e) {
+      throw new IllegalStateException("Fail to write " + manifestFile, e);
+    }
+  }
+
+  private Set<String> previousPluginNames(String relativeDir) {
+    String prefix = PLUGIN_KEY_PREFIX + relativeDir + "/";
+    Set<String> names = new TreeSet<>();
+    previousManifest.stringPropertyNames().stream()
+      .filter(key -> key.startsWith(prefix))
+      .forEach(key -> names.add(key.substring(prefix.length())));
+    return names;
+  }
+
+  private static boolean isInstalled(File homeDir, String relativeDir, String name) {
+    return new File(homeDir, relativeDir + "/" + name).isFile()
+      || (DOWNLOADS_DIR.equals(relativeDir) && new File(homeDir, INSTALLED_DOWNLOADS_DIR + "/" + name).isFile());
+  }
+
+  private static void deleteInstalled(File homeDir, String relativeDir, String name) {
+    FileUtils.deleteQuietly(new File(homeDir, relativeDir + "/" + name));
+    if (DOWNLOADS_DIR.equals(relativeDir)) {
+      FileUtils.deleteQuietly(new File(homeDir, INSTALLED_DOWNLOADS_DIR + "/" + name));
+    }
+  }
+
+  private static Properties loadManifest(File manifestFile) {
+    Properties properties = new Properties();
+    if (manifestFile.isFile()) {
+      try (InputStream input = FileUtils.openInputStream(manifestFile)) {
+        properties.load(input);
+      } catch (IOException e) {
+        LOG.warn("Fail to read " + manifestFile + ", server home will be installed again", e);
+        return new Properties();
+      }
+    }
+    return properties;
+  }
+
+  private static String hashOf(Path file) throws IOException {
+    try (InputStream input = Files.newInputStream(file)) {
+      return DigestUtils.sha256Hex(input);
+    }
+  }
+}
@@ -19,21 +19,62 @@
  */
 package com.sonar.orchestrator.server;
 
+import com.sonar.orchestrator.config.Configuration;
 import com.sonar.orchestrator.config.FileSystem;
 import com.sonar.orchestrator.container.Server;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import org.apache.commons.exec.CommandLine;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.filefilter.FileFilterUtils;
 import org.apache.commons.io.filefilter.IOFileFilter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public class ServerCommandLineFactory {
 
+  /**
+   * When {@code true}, the class data of the app, web and Compute Engine JVMs are archived at the first stop
+   * of a server, then shared by the next starts.
+   */
+  public static final String APP_CDS_PROPERTY = "orchestrator.appCds";
+
+  private static final Logger LOG = LoggerFactory.getLogger(ServerCommandLineFactory.class);
+  private static final String WEB_JAVA_OPTS_PROPERTY = "sonar.web.javaAdditionalOpts";
+  private static final String CE_JAVA_OPTS_PROPERTY = "sonar.ce.javaAdditionalOpts";
+
   private final FileSystem fs;
+  private final boolean appCds;
+  private final Predicate<String> appCdsSupport;
+  // archives of the servers started by this factory, by home
+  private final Map<File, AppCds> appCdsByHome = new ConcurrentHashMap<>();
 
   public ServerCommandLineFactory(FileSystem fs) {
+    this(fs, false);
+  }
+
+  public ServerCommandLineFactory(FileSystem fs, boolean appCds) {
+    this(fs, appCds, AppCds::isSupportedBy);
+  }
+
+  ServerCommandLineFactory(FileSystem fs, boolean appCds, Predicate<String> appCdsSupport) {
     this.fs = fs;
+    this.appCds = appCds;
+    this.appCdsSupport = appCdsSupport;
+  }
+
+  public static boolean isAppCdsEnabled(Configuration configuration) {
+    return Boolean.parseBoolean(configuration.getString(APP_CDS_PROPERTY, "false"));
   }
 
   public CommandLine create(Server server) {
@@ -43,6 +84,9 @@ public class ServerCommandLineFactory {
     command.addArgument("-Djava.awt.headless=true");
     command.addArgument("-Dsonar.enableStopCommand=true");
     command.addArgument("-Djava.net.preferIPv4Stack=true");
+    if (appCds) {
+      configureAppCds(server, command);
+    }
     IOFileFilter appJarFilter = FileFilterUtils.and(FileFilterUtils.prefixFileFilter("sonar-application-"), FileFilterUtils.suffixFileFilter("jar"));
     File libDir = new File(server.getHome(), "lib");
     Collection<File> files = FileUtils.listFiles(libDir, appJarFilter, FileFilterUtils.trueFileFilter());
@@ -55,6 +99,58 @@ public class ServerCommandLineFactory {
     return command;
   }
 
+  /**
+   * To be called once the processes of the server have exited, so that the class data archived by the JVMs
+   * are shared by the next starts.
+   *
+   * @param killed whether the processes have been killed, in which case the archives may be incomplete and are dropped
+   */
+  public void onStopped(Server server, boolean killed) {
+    AppCds serverAppCds = appCdsByHome.get(server.getHome());
+    if (serverAppCds != null) {
+      serverAppCds.publishDumps(!killed);
+    }
+  }
+
+  /**
+   * The choice between dump and usage of archives is made at each start, so the JVM options of web
+   * and Compute Engine processes are replaced in conf/sonar.properties.
+   */
+  private void configureAppCds(Server server, CommandLine command) {
+    if (!appCdsSupport.test(command.getExecutable())) {
+      LOG.warn("Class Data Sharing is disabled. It requires Java 13+ to run the server ({}).", command.getExecutable());
+      return;
+    }
+    AppCds serverAppCds = appCdsByHome.computeIfAbsent(server.getHome(), home -> AppCds.of(fs.getCacheDir(), home));
+    if (serverAppCds == null) {
+      return;
+    }
+    command.addArguments(serverAppCds.jvmOptions(AppCds.APP));
+    if (serverAppCds.isSonarProperties()) {
+      File propertiesFile = new File(server.getHome(), "conf/sonar.properties");
+      Properties properties = new Properties();
+      try (InputStream input = FileUtils.openInputStream(propertiesFile)) {
+        properties.load(input);
+      } catch (IOException e) {
+        throw new IllegalStateException("Fail to read " + propertiesFile, e);
+      }
+      replaceAppCdsOptions(properties, WEB_JAVA_OPTS_PROPERTY, serverAppCds.jvmOptions(AppCds.WEB));
+      replaceAppCdsOptions(properties, CE_JAVA_OPTS_PROPERTY, serverAppCds.jvmOptions(AppCds.COMPUTE_ENGINE));
+      try (OutputStream output = FileUtils.openOutputStream(propertiesFile)) {
+        properties.store(output, "Generated by Orchestrator");
+      } catch (IOException e) {
+        throw new IllegalStateException("Fail to write " + propertiesFile, e);
+      }
+    }
+  }
+
+  private static void replaceAppCdsOptions(Properties properties, String propertyKey, String... options) {
+    String javaOpts = properties.getProperty(propertyKey, "");
+    Stream<String> otherOptions = Arrays.stream(javaOpts.trim().split("\\s+"))
+      .filter(opt -> !opt.isEmpty() && !opt.startsWith("-XX:SharedArchiveFile=") && !opt.startsWith("-XX:ArchiveClassesAtExit="));
+    properties.setProperty(propertyKey, Stream.concat(otherOptions, Arrays.stream(options)).collect(Collectors.joining(" ")));
+  }
+
   private CommandLine createJavaCommandLine() {
     CommandLine command;
     File javaHome = fs.javaHome();
@@ -25,6 +25,7 @@ import com.sonar.orchestrator.container.SonarDistribution;
 import com.sonar.orchestrator.db.DatabaseClient;
 import com.sonar.orchestrator.locator.Location;
 import com.sonar.orchestrator.locator.Locators;
+import com.sonar.orchestrator.util.DirectoryLock;
 import com.sonar.orchestrator.util.NetworkUtils;
 import com.sonar.orchestrator.util.OrchestratorUtils;
 import com.sonar.orchestrator.util.ZipUtils;
@@ -35,11 +36,27 @@ import java.io.OutputStream;
 import java.net.InetAddress;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import java.util.stream.Stream;
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
 import okhttp3.HttpUrl;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.filefilter.FileFilterUtils;
@@ -74,6 +91,15 @@ public class ServerInstaller {
   private static final String SONAR_CLUSTER_NODE_NAME = "sonar.cluster.node.name";
   private static final String ALL_IPS_HOST = "0.0.0.0";
 
+  public static final String DISTRIBUTION_CACHE_PROPERTY = "orchestrator.distributionCache";
+  static final String STREAMING_EXTRACTION_PROPERTY = "orchestrator.streamingExtraction";
+  public static final String REUSE_SERVER_HOME_PROPERTY = "orchestrator.reuseServerHome";
+  static final String PLUGIN_DOWNLOAD_THREADS_PROPERTY = "orchestrator.plugins.downloadThreads";
+  private static final int DEFAULT_PLUGIN_DOWNLOAD_THREADS = 8;
+
+  // files directly in the plugin directories of the root directory of the zip, for example "sonarqube-10.0/lib/extensions/foo.jar"
+  private static final Pattern BUNDLED_PLUGIN_ENTRY = Pattern.compile("[^/]+/(?:lib/bundled-plugins|extensions/plugins|lib/extensions)/([^/]+)");
+
   private final PackagingResolver packagingResolver;
   private final Configuration configuration;
   private final Locators locators;
@@ -88,13 +114,88 @@ public class ServerInstaller {
   }
 
   public Server install(SonarDistribution distrib) {
-    Packaging packaging = packagingResolver.resolve(distrib);
+    try (InstallPipeline pipeline = new InstallPipeline()) {
+      return install(distrib, pipeline, resolvePackaging(distrib, pipeline));
+    }
+  }
+
+  /**
+   * Resolves the packaging of the distribution in a stage of the pipeline. When streaming extraction is enabled,
+   * a zip downloaded from Artifactory is extracted into the distribution cache while it is downloaded.
+   */
+  public CompletableFuture<Packaging> resolvePackaging(SonarDistribution distrib, InstallPipeline pipeline) {
+    if (!isStreamingExtractionEnabled()) {
+      return pipeline.supply("resolve packaging", () -> packagingResolver.resolve(distrib));
+    }
+    return pipeline.supply("resolve packaging", () -> {
+      try (DistributionCache.StreamingExtraction extraction = newDistributionCache().extractWhileDownloading()) {
+        Packaging packaging = packagingResolver.resolve(distrib, extraction);
+        extraction.complete(packaging.getZip());
+        return packaging;
+      }
+    });
+  }
+
+  /**
+   * Same as {@link #resolvePackaging(SonarDistribution, InstallPipeline)}, but the zip is also extracted into
+   * the distribution cache, if enabled, so that the servers installed concurrently from this packaging, for example
+   * the nodes of a cluster, share a single extraction.
+   */
+  public CompletableFuture<Packaging> resolveSharedPackaging(SonarDistribution distrib, InstallPipeline pipeline) {
+    CompletableFuture<Packaging> packaging = resolvePackaging(distrib, pipeline);
+    if (!isDistributionCacheEnabled()) {
+      return packaging;
+    }
+    return pipeline.then("extract to cache", packaging, p -> {
+      newDistributionCache().getOrExtract(p.getZip());
+      return p;
+    });
+  }
+
+  /**
+   * Installs the distribution using the stages of the given pipeline. Plugins are downloaded
+   * while the packaging is resolved and extracted.
+   *
+   * @param packaging the packaging of {@code distrib}, possibly still being resolved
+   */
+  public Server install(SonarDistribution distrib, InstallPipeline pipeline, CompletableFuture<Packaging> packaging) {
+    File bundledPluginsDir = createStagingDir();
+    File pluginsDir = createStagingDir();
+    try {
+      CompletableFuture<ReusableServerHome> reusableHome = pipeline.then("lock server home", packaging, p -> lockReusableHome(distrib, p));
+      CompletableFuture<File> homeDir = pipeline.then("unzip", reusableHome, r -> unzip(distrib, InstallPipeline.join(packaging), r));
+      CompletableFuture<Void> bundledPlugins = pipeline.run("download bundled plugins",
+        () -> installPluginsIntoDir(distrib.getBundledPluginLocations(), bundledPluginsDir));
+      CompletableFuture<Void> plugins = pipeline.run("download plugins", () -> installPluginsIntoDir(distrib.getPluginLocations(), pluginsDir));
+      Properties properties = configureProperties(distrib);
+      InstallPipeline.joinAll(homeDir, bundledPlugins, plugins);
+
+      File home = InstallPipeline.join(homeDir);
+      ReusableServerHome reusable = InstallPipeline.join(reusableHome);
+      if (reusable == null) {
+        movePluginsToDir(bundledPluginsDir, new File(home, "lib/extensions"));
+        movePluginsToDir(pluginsDir, new File(home, "extensions/downloads"));
+      } else {
+        reusable.installPlugins(bundledPluginsDir, home, "lib/extensions");
+        reusable.installPlugins(pluginsDir, home, "extensions/downloads");
+      }
+      copyJdbcDriver(home);
+      if (ServerCommandLineFactory.isAppCdsEnabled(configuration)) {
+        // JVM options are set at each start by ServerCommandLineFactory
+        AppCds.writeKey(home, DistributionCache.hashOf(InstallPipeline.join(packaging).getZip()), !distrib.isEmptySonarProperties());
+      }
+      writePropertiesFile(properties, home);
+      if (reusable != null) {
+        reusable.storeManifest();
+      }
+      return newServer(home, InstallPipeline.join(packaging), properties);
+    } finally {
+      FileUtils.deleteQuietly(bundledPluginsDir);
+      FileUtils.deleteQuietly(pluginsDir);
+    }
+  }
 
-    File homeDir = unzip(packaging);
-    preparePlugins(distrib, homeDir);
-    copyJdbcDriver(homeDir);
-    Properties properties = configureProperties(distrib);
-    writePropertiesFile(properties, homeDir);
+  private Server newServer(File homeDir, Packaging packaging, Properties properties) {
     String host = properties.getProperty(WEB_HOST_PROPERTY, "localhost");
     // ORCH-422 Like SQ, if host is 0.0.0.0, simply return localhost as URL
     String resolvedHost = ALL_IPS_HOST.equals(host) ? "localhost" : host;
@@ -105,22 +206,62 @@ public class ServerInstaller {
       (String) properties.get(SONAR_CLUSTER_NODE_NAME));
   }
 
-  private void preparePlugins(SonarDistribution distrib, File homeDir) {
-    if (!distrib.isKeepBundledPlugins()) {
-      removeBundledPlugins(homeDir, distrib.getBundledPluginNamePrefixesToKeep());
+  @CheckForNull
+  private ReusableServerHome lockReusableHome(SonarDistribution distrib, Packaging packaging) {
+    if (!Boolean.parseBoolean(configuration.getString(REUSE_SERVER_HOME_PROPERTY, "false"))) {
+      return null;
     }
-    copyBundledPlugins(distrib.getBundledPluginLocations(), homeDir);
-    copyExternalPlugins(distrib.getPluginLocations(), homeDir);
+    Properties serverProperties = new Properties();
+    serverProperties.putAll(distrib.getServerProperties());
+    String fingerprint = ReusableServerHome.fingerprintOf(packaging.getZip(), distrib.isKeepBundledPlugins(),
+      distrib.getBundledPluginNamePrefixesToKeep(), serverProperties);
+    return ReusableServerHome.lock(configuration.fileSystem().workspace(), fingerprint);
   }
 
-  private File unzip(Packaging packaging) {
-    File toDir = new File(configuration.fileSystem().workspace(), valueOf(sharedDirId.addAndGet(1)));
+  private File unzip(SonarDistribution distrib, Packaging packaging, @Nullable ReusableServerHome reusableHome) {
+    File toDir;
+    if (reusableHome == null) {
+      toDir = lockNewWorkspaceDir();
+    } else if (reusableHome.isReusable()) {
+      File homeDir = findRootDir(reusableHome.getDir());
+      LOG.info("Reuse server home {}", homeDir);
+      ReusableServerHome.cleanRuntimeDirs(homeDir);
+      return homeDir;
+    } else {
+      toDir = reusableHome.getDir();
+    }
     try {
       FileUtils.deleteDirectory(toDir);
     } catch (IOException e) {
       throw new IllegalStateException("Fail to delete directory " + toDir, e);
     }
-    ZipUtils.unzip(packaging.getZip(), toDir);
+    // bundled plugins that are not kept are excluded from extraction rather than deleted afterwards
+    Predicate<String> entryFilter = distrib.isKeepBundledPlugins() ? (entryName -> true)
+      : bundledPluginsFilter(distrib.getBundledPluginNamePrefixesToKeep());
+    if (isDistributionCacheEnabled()) {
+      newDistributionCache().install(packaging.getZip(), toDir, entryFilter);
+    } else {
+      ZipUtils.unzip(packaging.getZip(), toDir, entryFilter);
+    }
+    return findRootDir(toDir);
+  }
+
+  /**
+   * Directories of the workspace are locked until the JVM exits, so that they are not deleted by another
+   * process, for example by {@link com.sonar.orchestrator.config.DiskGarbageCollector}.
+   */
+  private File lockNewWorkspaceDir() {
+    File workspace = configuration.fileSystem().workspace();
+    while (true) {
+      String dirName = valueOf(sharedDirId.addAndGet(1));
+      if (DirectoryLock.tryLockUntilExit(new File(workspace, dirName + ".lock"))) {
+        return new File(workspace, dirName);
+      }
+      LOG.info("Directory {} of workspace is used by another process", dirName);
+    }
+  }
+
+  private static File findRootDir(File toDir) {
     File[] roots = toDir.listFiles((FileFilter) FileFilterUtils.directoryFileFilter());
     if (roots == null || roots.length != 1) {
       throw new IllegalStateException("ZIP is badly structured. Missing root directory in " + toDir);
@@ -128,6 +269,19 @@ public class ServerInstaller {
     return roots[0];
   }
 
+  private DistributionCache newDistributionCache() {
+    return new DistributionCache(new File(configuration.fileSystem().getCacheDir(), "distributions"));
+  }
+
+  private boolean isDistributionCacheEnabled() {
+    // zips are extracted into the distribution cache while they are downloaded
+    return Boolean.parseBoolean(configuration.getString(DISTRIBUTION_CACHE_PROPERTY, "false")) || isStreamingExtractionEnabled();
+  }
+
+  private boolean isStreamingExtractionEnabled() {
+    return Boolean.parseBoolean(configuration.getString(STREAMING_EXTRACTION_PROPERTY, "false"));
+  }
+
   private void copyJdbcDriver(File sonarHome) {
     if (databaseClient.getDriverFile() != null) {
       try {
@@ -140,77 +294,131 @@ public class ServerInstaller {
     }
   }
 
-  private static void removeBundledPlugins(File homeDir, Collection<String> bundledPluginNamePrefixesToKeep) {
+  /**
+   * Rejects the plugins bundled in the distribution, except those whose file name starts with one of the
+   * given prefixes. Plugins are bundled in lib/bundled-plugins, in extensions/plugins since version 7.2 and
+   * SonarSource plugins in lib/extensions since version 8.5.
+   */
+  static Predicate<String> bundledPluginsFilter(Collection<String> bundledPluginNamePrefixesToKeep) {
     if (bundledPluginNamePrefixesToKeep.isEmpty()) {
       LOG.info("Remove bundled plugins");
     } else {
       LOG.info("Remove bundled plugins except: " + String.join(", ", bundledPluginNamePrefixesToKeep));
-
     }
-    cleanDirectory(new File(homeDir, "lib/bundled-plugins"), bundledPluginNamePrefixesToKeep);
-    // plugins are bundled in extensions/plugins since version 7.2
-    cleanDirectory(new File(homeDir, "extensions/plugins"), bundledPluginNamePrefixesToKeep);
-    // SonarSource plugins are bundled in lib/extension since version 8.5
-    cleanDirectory(new File(homeDir, "lib/extensions"), bundledPluginNamePrefixesToKeep);
-  }
-
-  private static void cleanDirectory(File dir, Collection<String> bundledPluginNamePrefixesToKeep) {
-    try {
-      if (!dir.exists()) {
-        return;
+    return entryName -> {
+      Matcher matcher = BUNDLED_PLUGIN_ENTRY.matcher(entryName);
+      if (!matcher.matches()) {
+        return true;
       }
-      try (Stream<Path> files = Files.list(dir.toPath())) {
-        files.forEach(file -> {
-          if (shouldDeletePlugin(file, bundledPluginNamePrefixesToKeep)) {
-            try {
-              Files.delete(file);
-            } catch (IOException e) {
-              throw new IllegalStateException("Fail to delete file: " + file, e);
-            }
-          } else {
-            LOG.info("  Keeping: " + file.getFileName().toString());
-          }
-        });
+      String fileName = matcher.group(1);
+      if (shouldDeletePlugin(fileName, bundledPluginNamePrefixesToKeep)) {
+        return false;
       }
-    } catch (IOException e) {
-      throw new IllegalStateException("Fail to clean directory: " + dir, e);
-    }
+      LOG.info("  Keeping: " + fileName);
+      return true;
+    };
   }
 
-  private static boolean shouldDeletePlugin(Path pluginFile, Collection<String> bundledPluginNamePrefixesToKeep) {
+  private static boolean shouldDeletePlugin(String pluginFileName, Collection<String> bundledPluginNamePrefixesToKeep) {
     return bundledPluginNamePrefixesToKeep
       .stream()
-      .noneMatch(prefix -> pluginFile.getFileName().toString().startsWith(prefix));
-  }
-
-  private void copyExternalPlugins(List<Location> plugins, File homeDir) {
-    File toDir = new File(homeDir, "extensions/downloads");
-    copyPlugins(plugins, toDir);
+      .noneMatch(pluginFileName::startsWith);
   }
 
-  private void copyBundledPlugins(List<Location> plugins, File homeDir) {
-    File toDir = new File(homeDir, "lib/extensions");
-    copyPlugins(plugins, toDir);
+  /**
+   * Plugins are downloaded to a staging directory then moved to the target directory. Moving
+   * replaces the existing files instead of overwriting their content, which could be
+   * shared with the distribution cache through hard links.
+   */
+  private File createStagingDir() {
+    File workspace = configuration.fileSystem().workspace();
+    try {
+      FileUtils.forceMkdir(workspace);
+      return Files.createTempDirectory(workspace.toPath(), ".plugins").toFile();
+    } catch (IOException e) {
+      throw new IllegalStateException("Fail to create staging directory in " + workspace, e);
+    }
   }
 
-  private void copyPlugins(List<Location> plugins, File toDir) {
+  private static void movePluginsToDir(File fromDir, File toDir) {
     try {
       FileUtils.forceMkdir(toDir);
     } catch (IOException e) {
       throw new IllegalStateException("Fail to create directory: " + toDir, e);
     }
+    try (Stream<Path> files = Files.list(fromDir.toPath())) {
+      for (Path file : (Iterable<Path>) files::iterator) {
+        Files.move(file, toDir.toPath().resolve(file.getFileName()), StandardCopyOption.REPLACE_EXISTING);
+      }
+    } catch (IOException e) {
+      throw new IllegalStateException("Fail to move plugins to " + toDir, e);
+    }
+  }
+
+  /**
+   * Plugins are resolved and downloaded concurrently, as installation is mostly made of network round trips.
+   * The first failure cancels the remaining downloads.
+   */
+  private void installPluginsIntoDir(List<Location> plugins, File downloadDir) {
+    if (plugins.isEmpty()) {
+      return;
+    }
+    // the same artifact must not be downloaded twice to the same file. MavenLocation#equals() ignores the classifier.
+    Map<String, Location> pluginsByKey = new LinkedHashMap<>();
+    plugins.forEach(plugin -> pluginsByKey.putIfAbsent(plugin.toString(), plugin));
+    List<Location> distinctPlugins = new ArrayList<>(pluginsByKey.values());
+    int maxThreads = configuration.getInt(PLUGIN_DOWNLOAD_THREADS_PROPERTY, DEFAULT_PLUGIN_DOWNLOAD_THREADS);
+    int threads = Math.max(1, Math.min(maxThreads, distinctPlugins.size()));
+    if (threads == 1) {
+      distinctPlugins.forEach(plugin -> installPluginIntoDir(plugin, downloadDir));
+      return;
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(threads, ServerInstaller::newPluginDownloadThread);
+    try {
+      CompletionService<Void> completionService = new ExecutorCompletionService<>(executor);
+      for (Location plugin : distinctPlugins) {
+        completionService.submit(() -> {
+          installPluginIntoDir(plugin, downloadDir);
+          return null;
+        });
+      }
+      for (int i = 0; i < distinctPlugins.size(); i++) {
+        waitForPluginInstallation(completionService.take());
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while installing plugins into " + downloadDir, e);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
 
-    for (Location plugin : plugins) {
-      installPluginIntoDir(plugin, toDir);
+  private static void waitForPluginInstallation(Future<Void> future) throws InterruptedException {
+    try {
+      future.get();
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new IllegalStateException("Fail to install plugin", cause);
     }
   }
 
+  private static Thread newPluginDownloadThread(Runnable runnable) {
+    Thread thread = new Thread(runnable, "orchestrator-plugin-download");
+    thread.setDaemon(true);
+    return thread;
+  }
+
   private void installPluginIntoDir(Location plugin, File downloadDir) {
+    long start = System.currentTimeMillis();
     File pluginFile = locators.copyToDirectory(plugin, downloadDir);
     if (pluginFile == null || !pluginFile.exists()) {
       throw new IllegalStateException("Can not find the plugin " + plugin);
     }
-    LOG.info("Installed plugin: {}", pluginFile.getName());
+    LOG.info("Installed plugin: {} ({} ms)", pluginFile.getName(), System.currentTimeMillis() - start);
   }
 
   private Properties configureProperties(SonarDistribution distribution) {
@@ -0,0 +1,307 @@
+/*
+ * Orchestrator
+ * Copyright (C) 2011-2024 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.sonar.orchestrator.server;
+
+import com.sonar.orchestrator.config.Configuration;
+import com.sonar.orchestrator.container.Edition;
+import com.sonar.orchestrator.container.Server;
+import com.sonar.orchestrator.container.SonarDistribution;
+import com.sonar.orchestrator.locator.Locators;
+import com.sonar.orchestrator.util.DirectoryLock;
+import com.sonar.orchestrator.version.Version;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Properties;
+import java.util.TreeSet;
+import javax.annotation.CheckForNull;
+import okhttp3.HttpUrl;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static com.sonar.orchestrator.util.OrchestratorUtils.checkState;
+import static com.sonar.orchestrator.util.OrchestratorUtils.isEmpty;
+
+/**
+ * Client of the {@link ServerPoolDaemon}, which is started on demand. Servers are identified by the fingerprint of
+ * their distribution: a server is leased only by the JVMs that would have installed the same distribution.
+ */
+public class ServerPool {
+
+  public static final String ENABLED_PROPERTY = "orchestrator.serverPool";
+  public static final String MAX_IDLE_SERVERS_PROPERTY = "orchestrator.serverPool.maxIdleServers";
+  public static final String IDLE_TIMEOUT_MINUTES_PROPERTY = "orchestrator.serverPool.idleTimeoutMinutes";
+
+  private static final Logger LOG = LoggerFactory.getLogger(ServerPool.class);
+  private static final long DAEMON_STARTUP_TIMEOUT_MS = 30_000L;
+  private static final long CONNECT_RETRY_MS = 200L;
+  private static final long DAEMON_RESTART_INTERVAL_MS = 5_000L;
+
+  private final File poolDir;
+  private final int maxIdleServers;
+  private final int idleTimeoutMinutes;
+
+  public ServerPool(Configuration configuration) {
+    this(new File(configuration.fileSystem().getOrchestratorHome(), "pool"),
+      configuration.getInt(MAX_IDLE_SERVERS_PROPERTY, 1),
+      configuration.getInt(IDLE_TIMEOUT_MINUTES_PROPERTY, 30));
+  }
+
+  ServerPool(File poolDir, int maxIdleServers, int idleTimeoutMinutes) {
+    this.poolDir = poolDir;
+    this.maxIdleServers = maxIdleServers;
+    this.idleTimeoutMinutes = idleTimeoutMinutes;
+  }
+
+  /**
+   * Servers are reset by deleting their directory data/, so the pool is used only with the embedded H2 database.
+   */
+  public static boolean isEnabled(Configuration configuration) {
+    String jdbcUrl = configuration.getString("sonar.jdbc.url");
+    return Boolean.parseBoolean(configuration.getString(ENABLED_PROPERTY, "false"))
+      && (isEmpty(jdbcUrl) || jdbcUrl.startsWith("jdbc:h2:"));
+  }
+
+  public static String fingerprintOf(SonarDistribution distribution) {
+    StringBuilder sb = new StringBuilder();
+    sb.append("zip=").append(distribution.getZipLocation().map(Object::toString).orElse("")).append('\n');
+    sb.append("version=").append(distribution.getVersion().orElse("")).append('\n');
+    sb.append("edition=").append(distribution.getEdition()).append('\n');
+    distribution.getPluginLocations().forEach(plugin -> sb.append("plugin=").append(plugin).append('\n'));
+    distribution.getBundledPluginLocations().forEach(plugin -> sb.append("bundledPlugin=").append(plugin).append('\n'));
+    sb.append("keepBundledPlugins=").append(distribution.isKeepBundledPlugins()).append('\n');
+    sb.append("bundledPluginsToKeep=").append(String.join(",", new TreeSet<>(distribution.getBundledPluginNamePrefixesToKeep()))).append('\n');
+    sb.append("emptySonarProperties=").append(distribution.isEmptySonarProperties()).append('\n');
+    sb.append("defaultForceAuthentication=").append(distribution.isDefaultForceAuthentication()).append('\n');
+    sb.append("forceDefaultAdminCredentialsRedirect=").append(distribution.isForceDefaultAdminCredentialsRedirect()).append('\n');
+    Properties serverProperties = distribution.getServerProperties();
+    new TreeSet<>(serverProperties.stringPropertyNames())
+      .forEach(key -> sb.append("property.").append(key).append('=').append(serverProperties.getProperty(key)).append('\n'));
+    return DigestUtils.sha256Hex(sb.toString()).substring(0, 16);
+  }
+
+  /**
+   * Leases an idle server of the given distribution. If none is available, the caller is expected to install
+   * a server then to start it through {@link Lease#start(Server, String, List)}.
+   */
+  public Lease lease(String fingerprint) {
+    Lease lease = new Lease(connect(), fingerprint);
+    try {
+      String[] response = lease.request(ServerPoolDaemon.LEASE, fingerprint);
+      if (ServerPoolDaemon.LEASED.equals(response[0])) {
+        lease.descriptor = decode(response[2]);
+        LOG.info("Leased server {} from the pool", response[1]);
+      }
+      return lease;
+    } catch (RuntimeException e) {
+      lease.close();
+      throw e;
+    }
+  }
+
+  /**
+   * The port file is written and deleted only by the daemon, which holds the lock. A daemon is started when
+   * none holds the lock. If several JVMs start a daemon at the same time, only the first one to take the lock
+   * keeps running, the others exit immediately.
+   */
+  private Socket connect() {
+    File lockFile = new File(poolDir, ServerPoolDaemon.LOCK_FILE);
+    File portFile = new File(poolDir, ServerPoolDaemon.PORT_FILE);
+    long deadline = System.currentTimeMillis() + DAEMON_STARTUP_TIMEOUT_MS;
+    long nextDaemonStart = 0L;
+    while (true) {
+      Socket socket = tryConnect(portFile);
+      if (socket != null) {
+        return socket;
+      }
+      // the port file may be obsolete if the previous daemon was killed. It's then replaced by the new daemon.
+      if (System.currentTimeMillis() >= nextDaemonStart && !DirectoryLock.isLocked(lockFile)) {
+        startDaemon();
+        nextDaemonStart = System.currentTimeMillis() + DAEMON_RESTART_INTERVAL_MS;
+      }
+      if (System.currentTimeMillis() > deadline) {
+        throw new IllegalStateException("Fail to connect to the server pool. See logs in " + new File(poolDir, "daemon.log"));
+      }
+      try {
+        Thread.sleep(CONNECT_RETRY_MS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Interrupted while connecting to the server pool", e);
+      }
+    }
+  }
+
+  @CheckForNull
+  private static Socket tryConnect(File portFile) {
+    if (!portFile.isFile()) {
+      return null;
+    }
+    try {
+      int port = Integer.parseInt(FileUtils.readFileToString(portFile, StandardCharsets.UTF_8).trim());
+      return new Socket(InetAddress.getLoopbackAddress(), port);
+    } catch (IOException | NumberFormatException e) {
+      return null;
+    }
+  }
+
+  private void startDaemon() {
+    List<String> command = new ArrayList<>();
+    command.add(new File(System.getProperty("java.home"), "bin/java").getAbsolutePath());
+    command.add("-cp");
+    command.add(System.getProperty("java.class.path"));
+    command.add(ServerPoolDaemon.class.getName());
+    command.add(poolDir.getAbsolutePath());
+    command.add(String.valueOf(maxIdleServers));
+    command.add(String.valueOf(idleTimeoutMinutes));
+    LOG.info("Start server pool in {}", poolDir);
+    try {
+      FileUtils.forceMkdir(poolDir);
+      new ProcessBuilder(command)
+        .redirectErrorStream(true)
+        .redirectOutput(ProcessBuilder.Redirect.appendTo(new File(poolDir, "daemon.log")))
+        .start();
+    } catch (IOException e) {
+      throw new IllegalStateException("Fail to start server pool", e);
+    }
+  }
+
+  static String encode(Properties properties) {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    try {
+      properties.store(output, null);
+    } catch (IOException e) {
+      throw new IllegalStateException("Fail to encode " + properties, e);
+    }
+    return Base64.getEncoder().encodeToString(output.toByteArray());
+  }
+
+  static Properties decode(String s) {
+    Properties properties = new Properties();
+    try {
+      properties.load(new StringReader(new String(Base64.getDecoder().decode(s), StandardCharsets.ISO_8859_1)));
+    } catch (IOException e) {
+      throw new IllegalStateException("Fail to decode " + s, e);
+    }
+    return properties;
+  }
+
+  /**
+   * A server leased from the pool. The server is returned to the pool when the lease is closed, or when the
+   * JVM exits.
+   */
+  public static class Lease implements Closeable {
+    private final Socket socket;
+    private final String fingerprint;
+    @CheckForNull
+    private Properties descriptor;
+
+    private Lease(Socket socket, String fingerprint) {
+      this.socket = socket;
+      this.fingerprint = fingerprint;
+    }
+
+    /**
+     * Whether a running server has been leased
+     */
+    public boolean isStarted() {
+      return descriptor != null;
+    }
+
+    /**
+     * Hands over to the pool the server installed by the caller and starts it. Blocks until the server is up.
+     */
+    public void start(Server server, String jdbcUrl, List<String> command) {
+      checkState(descriptor == null, "Server is already started");
+      Properties properties = new Properties();
+      properties.setProperty("home", server.getHome().getAbsolutePath());
+      properties.setProperty("edition", server.getEdition().name());
+      properties.setProperty("version", server.version().toString());
+      properties.setProperty("url", server.getUrl());
+      properties.setProperty("searchPort", String.valueOf(server.getSearchPort()));
+      properties.setProperty("jdbcUrl", jdbcUrl);
+
+      List<String> fields = new ArrayList<>();
+      fields.add(ServerPoolDaemon.START);
+      fields.add(fingerprint);
+      fields.add(server.getHome().getAbsolutePath());
+      fields.add(server.getUrl());
+      fields.add(encode(properties));
+      fields.addAll(command);
+      String[] response = request(fields.toArray(new String[0]));
+      checkState(ServerPoolDaemon.STARTED.equals(response[0]), "Server startup failure");
+      LOG.info("Server {} started by the pool", response[1]);
+      descriptor = properties;
+    }
+
+    public Server getServer(Locators locators) {
+      Properties properties = getDescriptor();
+      return new Server(locators, new File(properties.getProperty("home")), Edition.valueOf(properties.getProperty("edition")),
+        Version.create(properties.getProperty("version")), HttpUrl.parse(properties.getProperty("url")),
+        Integer.parseInt(properties.getProperty("searchPort")), null);
+    }
+
+    public String getJdbcUrl() {
+      return getDescriptor().getProperty("jdbcUrl");
+    }
+
+    private Properties getDescriptor() {
+      checkState(descriptor != null, "Server is not started");
+      return descriptor;
+    }
+
+    private String[] request(String... fields) {
+      try {
+        PrintWriter writer = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), true);
+        writer.println(String.join("\t", fields));
+        String response = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8)).readLine();
+        checkState(response != null, "Server pool closed the connection");
+        return response.split("\t", -1);
+      } catch (IOException e) {
+        throw new IllegalStateException("Fail to request the server pool", e);
+      }
+    }
+
+    /**
+     * Returns the server to the pool
+     */
+    @Override
+    public void close() {
+      try {
+        socket.close();
+      } catch (IOException e) {
+        LOG.warn("Fail to close connection to the server pool", e);
+      }
+    }
+  }
+}
@@ -0,0 +1,422 @@
+/*
+ * Orchestrator
+ * Copyright (C) 2011-2024 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.sonar.orchestrator.server;
+
+import com.eclipsesource.json.Json;
+import com.sonar.orchestrator.util.DirectoryLock;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.annotation.CheckForNull;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Local process that keeps SonarQube servers running for the JVMs of a test suite, for example the forks of
+ * Surefire, so that the servers are started once and then leased. It is started by the first {@link ServerPool}
+ * and stops by itself when it has not been used for a while.
+ * <p/>
+ * Protocol is line-based, fields are separated by tabs. A lease lasts as long as the connection is opened:
+ * <ul>
+ *   <li>{@code LEASE <fingerprint>} answers {@code LEASED <id> <descriptor>} if an idle server is available,
+ *   else {@code NONE}</li>
+ *   <li>{@code START <fingerprint> <home> <url> <descriptor> <command>...} starts a server installed by the client and
+ *   answers {@code STARTED <id>} once the server is up, or {@code FAILED <message>}</li>
+ * </ul>
+ * When the connection is closed, the server is reset (stopped, data deleted, started again) and becomes available for
+ * the next lease, unless the maximum number of idle servers is reached. In this case it is stopped.
+ * <p/>
+ * The port file is written and deleted only by the daemon holding the lock of the pool directory.
+ */
+public class ServerPoolDaemon {
+
+  static final String PORT_FILE = "daemon.port";
+  static final String LOCK_FILE = "daemon.lock";
+  static final String LEASE = "LEASE";
+  static final String LEASED = "LEASED";
+  static final String NONE = "NONE";
+  static final String START = "START";
+  static final String STARTED = "STARTED";
+  static final String FAILED = "FAILED";
+
+  private static final Logger LOG = LoggerFactory.getLogger(ServerPoolDaemon.class);
+  private static final int ACCEPT_TIMEOUT_MS = 10_000;
+  private static final long STATUS_RETRY_MS = 500L;
+  private static final long START_TIMEOUT_MS = 600_000L;
+  private static final long STOP_TIMEOUT_MS = 300_000L;
+  private static final Pattern H2_TCP_PORT = Pattern.compile("^jdbc:h2:tcp://[^:/]+:(\\d+)/");
+
+  private final File poolDir;
+  private final int maxIdleServers;
+  private final long idleTimeoutMs;
+  private final AtomicInteger ids = new AtomicInteger();
+  private final ExecutorService executor = Executors.newCachedThreadPool(ServerPoolDaemon::newThread);
+  // guarded by this
+  private final List<PooledServer> servers = new ArrayList<>();
+  private int connections = 0;
+  private long lastActivity = System.currentTimeMillis();
+
+  ServerPoolDaemon(File poolDir, int maxIdleServers, long idleTimeoutMs) {
+    this.poolDir = poolDir;
+    this.maxIdleServers = maxIdleServers;
+    this.idleTimeoutMs = idleTimeoutMs;
+  }
+
+  /**
+   * Arguments are the pool directory, the maximum number of idle servers per fingerprint and
+   * the idle timeout in minutes.
+   */
+  public static void main(String[] args) throws IOException {
+    File poolDir = new File(args[0]);
+    if (!DirectoryLock.tryLockUntilExit(new File(poolDir, LOCK_FILE))) {
+      LOG.info("Server pool is already running in {}", poolDir);
+      return;
+    }
+    new ServerPoolDaemon(poolDir, Integer.parseInt(args[1]), TimeUnit.MINUTES.toMillis(Long.parseLong(args[2]))).run();
+  }
+
+  void run() throws IOException {
+    File portFile = new File(poolDir, PORT_FILE);
+    Thread shutdownHook = new Thread(this::stopAll);
+    Runtime.getRuntime().addShutdownHook(shutdownHook);
+    try (ServerSocket serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+      serverSocket.setSoTimeout(ACCEPT_TIMEOUT_MS);
+      writePortFile(portFile, serverSocket.getLocalPort());
+      LOG.info("Server pool listening on port {}", serverSocket.getLocalPort());
+      while (true) {
+        try {
+          Socket socket = serverSocket.accept();
+          onConnectionOpened();
+          executor.execute(() -> handle(socket));
+        } catch (SocketTimeoutException e) {
+          lockHomes();
+          if (isIdle()) {
+            LOG.info("Server pool is not used since {} ms. Stopping.", idleTimeoutMs);
+            break;
+          }
+        }
+      }
+    } finally {
+      FileUtils.deleteQuietly(portFile);
+      stopAll();
+      Runtime.getRuntime().removeShutdownHook(shutdownHook);
+      executor.shutdownNow();
+    }
+  }
+
+  private void handle(Socket socket) {
+    PooledServer leased = null;
+    try (Socket s = socket;
+      BufferedReader reader = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+      PrintWriter writer = new PrintWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8), true)) {
+      String[] request = readRequest(reader);
+      if (request.length == 2 && LEASE.equals(request[0])) {
+        leased = leaseIdle(request[1]);
+        if (leased != null) {
+          writer.println(LEASED + "\t" + leased.id + "\t" + leased.descriptor);
+        } else {
+          writer.println(NONE);
+          request = readRequest(reader);
+        }
+      }
+      if (leased == null && request.length >= 6 && START.equals(request[0])) {
+        leased = startNew(request);
+        writer.println(leased != null ? (STARTED + "\t" + leased.id) : FAILED);
+      }
+      // the lease is released when the connection is closed by the client
+      IOUtils.skip(s.getInputStream(), Long.MAX_VALUE);
+    } catch (IOException e) {
+      LOG.debug("Connection closed", e);
+    } finally {
+      if (leased != null) {
+        release(leased);
+      }
+      onConnectionClosed();
+    }
+  }
+
+  private static String[] readRequest(BufferedReader reader) throws IOException {
+    String line = reader.readLine();
+    return line == null ? new String[0] : line.split("\t", -1);
+  }
+
+  @CheckForNull
+  private synchronized PooledServer leaseIdle(String fingerprint) {
+    for (PooledServer server : servers) {
+      if (server.state == State.IDLE && server.fingerprint.equals(fingerprint) && server.process.isAlive()) {
+        server.state = State.LEASED;
+        LOG.info("Server {} leased", server.id);
+        return server;
+      }
+    }
+    return null;
+  }
+
+  @CheckForNull
+  private PooledServer startNew(String[] request) {
+    PooledServer server = new PooledServer(ids.incrementAndGet(), request[1], new File(request[2]), request[3], request[4],
+      Arrays.asList(request).subList(5, request.length));
+    server.state = State.LEASED;
+    synchronized (this) {
+      servers.add(server);
+    }
+    try {
+      LOG.info("Start server {} from {}", server.id, server.home);
+      startProcess(server);
+      return server;
+    } catch (Exception e) {
+      LOG.error("Fail to start server " + server.id, e);
+      remove(server);
+      return null;
+    }
+  }
+
+  private void release(PooledServer server) {
+    synchronized (this) {
+      long available = servers.stream()
+        .filter(s -> s != server && s.fingerprint.equals(server.fingerprint) && s.state != State.LEASED)
+        .count();
+      if (available >= maxIdleServers) {
+        LOG.info("Server {} released. Stopping it as {} servers are already available.", server.id, available);
+        servers.remove(server);
+        executor.execute(() -> stopProcess(server));
+        return;
+      }
+      server.state = State.RESETTING;
+    }
+    LOG.info("Server {} released. Resetting it.", server.id);
+    executor.execute(() -> {
+      try {
+        stopProcess(server);
+        // ports are allocated by the JVM that installed the server. Other JVMs must not take them while the server is down.
+        List<ServerSocket> reservedPorts = reservePorts(server);
+        try {
+          ReusableServerHome.cleanRuntimeDirs(server.home);
+        } finally {
+          reservedPorts.forEach(IOUtils::closeQuietly);
+        }
+        startProcess(server);
+        synchronized (this) {
+          server.state = State.IDLE;
+        }
+        LOG.info("Server {} is available", server.id);
+      } catch (Exception e) {
+        LOG.error("Fail to reset server " + server.id, e);
+        remove(server);
+      }
+    });
+  }
+
+  private void remove(PooledServer server) {
+    synchronized (this) {
+      servers.remove(server);
+    }
+    stopProcess(server);
+  }
+
+  private void startProcess(PooledServer server) throws IOException, InterruptedException {
+    ProcessBuilder processBuilder = new ProcessBuilder(server.command)
+      .directory(server.home)
+      .redirectErrorStream(true)
+      .redirectOutput(ProcessBuilder.Redirect.appendTo(new File(poolDir, "server-" + server.id + ".log")));
+    processBuilder.environment().clear();
+    processBuilder.environment().putAll(ServerProcessImpl.freshEnv());
+    server.process = processBuilder.start();
+
+    long deadline = System.currentTimeMillis() + START_TIMEOUT_MS;
+    while (!isStatusUp(server.url)) {
+      if (!server.process.isAlive()) {
+        throw new IllegalStateException("Server startup failure");
+      }
+      if (System.currentTimeMillis() > deadline) {
+        throw new IllegalStateException("Server did not start in timely fashion");
+      }
+      Thread.sleep(STATUS_RETRY_MS);
+    }
+  }
+
+  private static void stopProcess(PooledServer server) {
+    Process process = server.process;
+    if (process == null || !process.isAlive()) {
+      return;
+    }
+    try {
+      ServerProcessImpl.askForStop(server.home);
+      if (!process.waitFor(STOP_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+        LOG.warn("Server {} is still up. Killing it.", server.id);
+        process.destroyForcibly().waitFor();
+      }
+    } catch (IOException e) {
+      LOG.warn("Fail to stop server " + server.id + ". Killing it.", e);
+      process.destroyForcibly();
+    } catch (InterruptedException e) {
+      process.destroyForcibly();
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Binds the ports of the server (web, Elasticsearch and H2), so that they can't be allocated by other processes.
+   */
+  private static List<ServerSocket> reservePorts(PooledServer server) {
+    Properties descriptor = ServerPool.decode(server.descriptor);
+    List<Integer> ports = new ArrayList<>();
+    try {
+      ports.add(new URL(server.url).getPort());
+    } catch (IOException e) {
+      LOG.debug("Invalid URL " + server.url, e);
+    }
+    ports.add(Integer.parseInt(descriptor.getProperty("searchPort", "-1")));
+    Matcher h2Port = H2_TCP_PORT.matcher(descriptor.getProperty("jdbcUrl", ""));
+    if (h2Port.find()) {
+      ports.add(Integer.parseInt(h2Port.group(1)));
+    }
+    List<ServerSocket> sockets = new ArrayList<>();
+    for (int port : ports) {
+      if (port > 0) {
+        try {
+          sockets.add(new ServerSocket(port));
+        } catch (IOException e) {
+          LOG.warn("Port {} of server {} is used by another process", port, server.id);
+        }
+      }
+    }
+    return sockets;
+  }
+
+  private static boolean isStatusUp(String url) {
+    try {
+      HttpURLConnection connection = (HttpURLConnection) new URL(url + "/api/system/status").openConnection();
+      connection.setConnectTimeout(5_000);
+      connection.setReadTimeout(5_000);
+      try (InputStream input = connection.getInputStream()) {
+        String body = IOUtils.toString(input, StandardCharsets.UTF_8);
+        return "UP".equals(Json.parse(body).asObject().getString("status", null));
+      } finally {
+        connection.disconnect();
+      }
+    } catch (IOException | RuntimeException e) {
+      return false;
+    }
+  }
+
+  /**
+   * The workspace directories of the servers are locked by the JVMs that installed them, so that they are not
+   * deleted by the garbage collector. The locks are taken over once these JVMs exit.
+   */
+  private synchronized void lockHomes() {
+    for (PooledServer server : servers) {
+      if (server.homeLock == null) {
+        server.homeLock = DirectoryLock.tryLock(new File(server.home.getParentFile().getPath() + ".lock"));
+      }
+    }
+  }
+
+  private synchronized void onConnectionOpened() {
+    connections++;
+    lastActivity = System.currentTimeMillis();
+  }
+
+  private synchronized void onConnectionClosed() {
+    connections--;
+    lastActivity = System.currentTimeMillis();
+  }
+
+  private synchronized boolean isIdle() {
+    return connections == 0 && System.currentTimeMillis() - lastActivity > idleTimeoutMs;
+  }
+
+  private void stopAll() {
+    List<PooledServer> toStop;
+    synchronized (this) {
+      toStop = new ArrayList<>(servers);
+      servers.clear();
+    }
+    for (PooledServer server : toStop) {
+      stopProcess(server);
+      if (server.homeLock != null) {
+        server.homeLock.close();
+      }
+    }
+  }
+
+  private static void writePortFile(File portFile, int port) throws IOException {
+    File tempFile = new File(portFile.getPath() + ".tmp");
+    FileUtils.write(tempFile, String.valueOf(port), StandardCharsets.UTF_8);
+    Files.move(tempFile.toPath(), portFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  private static Thread newThread(Runnable runnable) {
+    Thread thread = new Thread(runnable, "orchestrator-server-pool");
+    thread.setDaemon(true);
+    return thread;
+  }
+
+  private enum State {
+    LEASED, RESETTING, IDLE
+  }
+
+  private static class PooledServer {
+    private final int id;
+    private final String fingerprint;
+    private final File home;
+    private final String url;
+    private final String descriptor;
+    private final List<String> command;
+    private volatile Process process;
+    private State state;
+    @CheckForNull
+    private DirectoryLock homeLock;
+
+    private PooledServer(int id, String fingerprint, File home, String url, String descriptor, List<String> command) {
+      this.id = id;
+      this.fingerprint = fingerprint;
+      this.home = home;
+      this.url = url;
+      this.descriptor = descriptor;
+      this.command = command;
+    }
+  }
+}
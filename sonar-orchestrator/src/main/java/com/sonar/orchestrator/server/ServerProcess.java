@@ -19,7 +19,24 @@
  */
 package com.sonar.orchestrator.server;
 
+import java.util.concurrent.CompletableFuture;
+import javax.annotation.CheckForNull;
+
 public interface ServerProcess {
   void start();
+
+  /**
+   * Same as {@link #start()}, but does not block the caller until the server is started.
+   */
+  default CompletableFuture<Void> startAsync() {
+    return CompletableFuture.runAsync(this::start);
+  }
+
   void stop();
+
+  /**
+   * Timing of the phases of the last startup, or {@code null} if the server has never been started.
+   */
+  @CheckForNull
+  StartupReport getStartupReport();
 }
@@ -19,7 +19,10 @@
  */
 package com.sonar.orchestrator.server;
 
+import com.eclipsesource.json.Json;
 import com.sonar.orchestrator.container.Server;
+import com.sonar.orchestrator.http.HttpResponse;
+import com.sonar.orchestrator.util.AsyncConsole;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
@@ -27,10 +30,19 @@ import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import javax.annotation.CheckForNull;
 import javax.annotation.Nullable;
 import org.apache.commons.exec.CommandLine;
 import org.apache.commons.exec.DefaultExecuteResultHandler;
 import org.apache.commons.exec.DefaultExecutor;
+import org.apache.commons.exec.ExecuteException;
 import org.apache.commons.exec.ExecuteWatchdog;
 import org.apache.commons.exec.PumpStreamHandler;
 import org.apache.commons.io.FileUtils;
@@ -42,8 +54,26 @@ import static java.util.Objects.requireNonNull;
 
 public class ServerProcessImpl implements ServerProcess {
 
+  /**
+   * When {@code true}, the server is considered as started only when the web service api/system/status
+   * returns the status UP, in addition to the startup log.
+   */
+  public static final String CHECK_STATUS_PROPERTY = "orchestrator.server.checkStatus";
+  /**
+   * When {@code false}, the output of the server is not displayed on stdout. It is still
+   * written to logs/console.log of the server home. Default is {@code true}.
+   */
+  public static final String ECHO_CONSOLE_PROPERTY = "orchestrator.server.echoConsole";
+  static final String CONSOLE_LOG_PATH = "logs/console.log";
+  // number of last lines of output displayed when startup fails
+  private static final int CONSOLE_TAIL_SIZE = 100;
+
   private static final Logger LOGGER = LoggerFactory.getLogger(ServerProcessImpl.class);
-  private static final long START_RETRY_TIMEOUT_MS = 100L;
+  private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(r -> newThread(r, "orchestrator-server-startup"));
+  // Handles the end of startups. A server that fails to start is stopped, which can take up to STOP_TIMEOUT_MS,
+  // so it must not block the polls and timeouts of other servers executed by SCHEDULER.
+  private static final ExecutorService STARTUP_HANDLER = Executors.newCachedThreadPool(r -> newThread(r, "orchestrator-server-startup-handler"));
+  private static final long STATUS_RETRY_MS = 100L;
   private static final long START_TIMEOUT_MS = 600_000L;
   private static final long STOP_TIMEOUT_MS = 300_000L;
 
@@ -52,10 +82,15 @@ public class ServerProcessImpl implements ServerProcess {
   private final StartupLogWatcher startupLogWatcher;
   private long startTimeoutMs;
   private long stopTimeoutMs;
+  private boolean checkStatus = false;
+  private boolean echoConsole = true;
 
   private DefaultExecuteResultHandler processResultHandler;
   private DefaultExecutor executor;
   private Thread shutdownHook;
+  private AsyncConsole console;
+  @CheckForNull
+  private StartupReport startupReport;
 
   public ServerProcessImpl(ServerCommandLineFactory serverCommandLineFactory, Server server,
     @Nullable StartupLogWatcher startupLogWatcher) {
@@ -78,8 +113,32 @@ public class ServerProcessImpl implements ServerProcess {
     this.stopTimeoutMs = l;
   }
 
+  /**
+   * @see #CHECK_STATUS_PROPERTY
+   */
+  public void setCheckStatus(boolean b) {
+    this.checkStatus = b;
+  }
+
+  /**
+   * @see #ECHO_CONSOLE_PROPERTY
+   */
+  public void setEchoConsole(boolean b) {
+    this.echoConsole = b;
+  }
+
   @Override
   public void start() {
+    InstallPipeline.join(startAsync());
+  }
+
+  /**
+   * Launches the server process without waiting for it to be started. The returned future is completed
+   * as soon as the startup log is displayed, or exceptionally as soon as the process exits or the startup
+   * times out.
+   */
+  @Override
+  public CompletableFuture<Void> startAsync() {
     checkState(processResultHandler == null, "Server is already started");
     checkState(server.version().isGreaterThanOrEquals(6, 2),
       "Minimum supported version of SonarQube is 6.2. Got %s.", server.version());
@@ -90,59 +149,102 @@ public class ServerProcessImpl implements ServerProcess {
     executor.setWatchdog(new ExecuteWatchdog(-1L));
     executor.setWorkingDirectory(server.getHome());
 
-    StartupLogListener listener = new StartupLogListener(startupLogWatcher, server.getClusterNodeName().orElse(null));
+    CompletableFuture<Void> startup = new CompletableFuture<>();
+    console = new AsyncConsole(new File(server.getHome(), CONSOLE_LOG_PATH), echoConsole, AsyncConsole.DEFAULT_CAPACITY, CONSOLE_TAIL_SIZE);
+    StartupLogListener listener = new StartupLogListener(startupLogWatcher, server.getClusterNodeName().orElse(null), console::print);
+    startupReport = listener.getReport();
     executor.setStreamHandler(new PumpStreamHandler(listener));
-    processResultHandler = new DefaultExecuteResultHandler();
+    processResultHandler = new ProcessExitHandler(startup);
     try {
       executor.execute(command, freshEnv(), processResultHandler);
     } catch (IOException e) {
       throw fail("Can not execute command: " + command, e);
     }
 
-    for (int i = 0; i < startTimeoutMs / START_RETRY_TIMEOUT_MS; i++) {
-      if (listener.isStarted()) {
+    listener.whenStarted().thenRun(() -> {
+      if (checkStatus) {
+        SCHEDULER.execute(() -> pollStatus(startup));
+      } else {
+        startup.complete(null);
+      }
+    });
+    ScheduledFuture<?> timeout = SCHEDULER.schedule(() -> startup.completeExceptionally(new TimeoutException()), startTimeoutMs, TimeUnit.MILLISECONDS);
+
+    return startup.handleAsync((result, failure) -> {
+      timeout.cancel(false);
+      if (failure == null) {
+        LOGGER.info("Server started: {}", listener.getReport());
         shutdownHook = new Thread(new StopShutdownHook());
         Runtime.getRuntime().addShutdownHook(shutdownHook);
-        return;
+        return null;
       }
-      if (processResultHandler.hasResult()) {
-        // process is down
-        throw fail("Server startup failure", processResultHandler.getException());
-      }
-      try {
-        Thread.sleep(START_RETRY_TIMEOUT_MS);
-      } catch (InterruptedException ignored) {
-        Thread.currentThread().interrupt();
+      AsyncConsole failedConsole = console;
+      if (failure instanceof TimeoutException) {
+        stop();
+        logConsoleTail(failedConsole);
+        throw fail("Server did not start in timely fashion", null);
       }
+      cleanState();
+      logConsoleTail(failedConsole);
+      throw (IllegalStateException) failure;
+    }, STARTUP_HANDLER);
+  }
+
+  @Override
+  @CheckForNull
+  public StartupReport getStartupReport() {
+    return startupReport;
+  }
+
+  private void pollStatus(CompletableFuture<Void> startup) {
+    if (startup.isDone()) {
+      // process is down or startup timed out
+      return;
+    }
+    if (isStatusUp()) {
+      startup.complete(null);
+    } else {
+      SCHEDULER.schedule(() -> pollStatus(startup), STATUS_RETRY_MS, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  private boolean isStatusUp() {
+    try {
+      HttpResponse response = server.newHttpCall("api/system/status").executeUnsafely();
+      return response.isSuccessful()
+        && "UP".equals(Json.parse(response.getBodyAsString()).asObject().getString("status", null));
+    } catch (RuntimeException e) {
+      LOGGER.debug("Fail to get server status", e);
+      return false;
     }
-    stop();
-    throw fail("Server did not start in timely fashion", null);
   }
 
   @Override
-  public void stop() {
+  public synchronized void stop() {
     if (!isProcessAlive()) {
       return;
     }
     try {
       LOGGER.info("Stop server");
-      askForStop();
+      askForStop(server.getHome());
       waitForExit();
-      if (isProcessAlive()) {
+      boolean killed = isProcessAlive();
+      if (killed) {
         LOGGER.warn("Server is still up. Killing it.");
         forceKillProcess();
       }
       cleanState();
+      serverCommandLineFactory.onStopped(server, killed);
     } catch (Exception e) {
       throw fail("Can not stop server", e);
     }
   }
 
-  private void askForStop() throws IOException {
+  static void askForStop(File serverHome) throws IOException {
     // file-based inter-process protocol : no RMI, no socket but good old files !
-    FileUtils.touch(new File(server.getHome(), "temp/app.stop"));
+    FileUtils.touch(new File(serverHome, "temp/app.stop"));
     // Use Shared Memory for SQ 5.1+
-    try (RandomAccessFile sharedMemory = new RandomAccessFile(new File(server.getHome(), "temp/sharedmemory"), "rw")) {
+    try (RandomAccessFile sharedMemory = new RandomAccessFile(new File(serverHome, "temp/sharedmemory"), "rw")) {
       // Using values from org.sonar.process.ProcessCommands
       MappedByteBuffer mappedByteBuffer = sharedMemory.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, 50L * 10);
 
@@ -180,13 +282,23 @@ public class ServerProcessImpl implements ServerProcess {
     throw new IllegalStateException(message, cause);
   }
 
+  private static void logConsoleTail(@Nullable AsyncConsole failedConsole) {
+    if (failedConsole != null) {
+      LOGGER.error("Last lines of server output:{}{}", System.lineSeparator(), String.join(System.lineSeparator(), failedConsole.tail()));
+    }
+  }
+
   private void cleanState() {
+    if (console != null) {
+      console.close();
+      console = null;
+    }
     processResultHandler = null;
     executor = null;
     shutdownHook = null;
   }
 
-  private static Map<String, String> freshEnv() {
+  static Map<String, String> freshEnv() {
     Map<String, String> env = new HashMap<>(System.getenv());
     env.remove("GEM_PATH");
     env.remove("GEM_HOME");
@@ -194,6 +306,35 @@ public class ServerProcessImpl implements ServerProcess {
     return env;
   }
 
+  private static Thread newThread(Runnable runnable, String name) {
+    Thread thread = new Thread(runnable, name);
+    thread.setDaemon(true);
+    return thread;
+  }
+
+  /**
+   * Fails the startup as soon as the process exits
+   */
+  private static class ProcessExitHandler extends DefaultExecuteResultHandler {
+    private final CompletableFuture<Void> startup;
+
+    private ProcessExitHandler(CompletableFuture<Void> startup) {
+      this.startup = startup;
+    }
+
+    @Override
+    public void onProcessComplete(int exitValue) {
+      super.onProcessComplete(exitValue);
+      startup.completeExceptionally(new IllegalStateException("Server startup failure"));
+    }
+
+    @Override
+    public void onProcessFailed(ExecuteException e) {
+      super.onProcessFailed(e);
+      startup.completeExceptionally(new IllegalStateException("Server startup failure", e));
+    }
+  }
+
   private class StopShutdownHook implements Runnable {
     @Override
     public void run() {
@@ -19,7 +19,8 @@
  */
 package com.sonar.orchestrator.server;
 
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 import javax.annotation.Nullable;
 import org.apache.commons.exec.LogOutputStream;
 
@@ -27,24 +28,52 @@ import static java.util.Objects.requireNonNull;
 
 class StartupLogListener extends LogOutputStream {
 
-  private final AtomicBoolean started = new AtomicBoolean(false);
+  private final CompletableFuture<Void> started = new CompletableFuture<>();
   private final String logPrefix;
   private final StartupLogWatcher watcher;
+  private final StartupReport report;
+  private final Consumer<String> output;
 
   StartupLogListener(StartupLogWatcher watcher, @Nullable String logPrefix) {
+    this(watcher, logPrefix, System.out::println);
+  }
+
+  /**
+   * @param output receives the lines to be displayed. It is called by the thread that reads the
+   *               output of the process, so it must not block.
+   */
+  StartupLogListener(StartupLogWatcher watcher, @Nullable String logPrefix, Consumer<String> output) {
     this.watcher = requireNonNull(watcher);
     this.logPrefix = (logPrefix == null ? "> " : logPrefix + "> ");
+    this.output = requireNonNull(output);
+    this.report = new StartupReport(System.currentTimeMillis());
   }
 
   @Override
   protected void processLine(String line, @SuppressWarnings("unused") int logLevel) {
-    if (watcher.isStarted(line)) {
-      started.set(true);
+    long now = System.currentTimeMillis();
+    if (!started.isDone()) {
+      report.onLogLine(line, now);
     }
-    System.out.println(logPrefix + line);
+    if (watcher.isStarted(line) && !started.isDone()) {
+      report.onPhaseEnd(StartupReport.SERVER, now);
+      started.complete(null);
+    }
+    output.accept(logPrefix + line);
   }
 
   boolean isStarted() {
-    return started.get();
+    return started.isDone();
+  }
+
+  /**
+   * Completed as soon as the startup log is displayed
+   */
+  CompletableFuture<Void> whenStarted() {
+    return started;
+  }
+
+  StartupReport getReport() {
+    return report;
   }
 }
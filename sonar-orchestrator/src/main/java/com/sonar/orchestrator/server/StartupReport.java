@@ -0,0 +1,177 @@
+/*
+ * Orchestrator
+ * Copyright (C) 2011-2024 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.sonar.orchestrator.server;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import javax.annotation.CheckForNull;
+
+/**
+ * Timing of the phases of a server startup, as detected from the logs of the server.
+ * Timestamps are the times when the log lines are received, in milliseconds since epoch.
+ */
+public class StartupReport {
+
+  public static final String SERVER = "server";
+  public static final String ELASTICSEARCH = "es";
+  public static final String WEB = "web";
+  public static final String COMPUTE_ENGINE = "ce";
+  public static final String DB_MIGRATION = "db migration";
+  public static final String PLUGINS = "plugins";
+
+  private static final List<Milestone> MILESTONES = new ArrayList<>();
+
+  static {
+    // launch is logged with the process id (ELASTICSEARCH, WEB_SERVER, COMPUTE_ENGINE), or with its
+    // description on old versions ([key='web', ipcIndex=2, ...]), startup with the process key (es, web, ce)
+    addProcessMilestones(ELASTICSEARCH, "elasticsearch|es");
+    addProcessMilestones(WEB, "web_server|web");
+    addProcessMilestones(COMPUTE_ENGINE, "compute_engine|ce");
+    MILESTONES.add(new Milestone(DB_MIGRATION, MilestoneType.START, "Starting DB Migration|Executing DB migrations"));
+    MILESTONES.add(new Milestone(DB_MIGRATION, MilestoneType.END, "DB Migration and data initialization ended|DB Migration ended|Executed DB migrations"));
+    // one line per plugin, the phase lasts from the first to the last one
+    MILESTONES.add(new Milestone(PLUGINS, MilestoneType.START, "Deploy plugin|Load plugins"));
+    MILESTONES.add(new Milestone(PLUGINS, MilestoneType.END, "Deploy plugin|Load plugins"));
+  }
+
+  private final Map<String, Phase> phases = new LinkedHashMap<>();
+
+  private static void addProcessMilestones(String phase, String processKeys) {
+    MILESTONES.add(new Milestone(phase, MilestoneType.START, "(?i)Launch process\\[(?:\\[key='?)?(?:" + processKeys + ")\\b"));
+    MILESTONES.add(new Milestone(phase, MilestoneType.END, "(?i)Process\\[(?:" + processKeys + ")\\] is up"));
+  }
+
+  StartupReport(long launchedAt) {
+    phases.put(SERVER, new Phase(SERVER, launchedAt));
+  }
+
+  /**
+   * Records the milestones matched by the log line, if any.
+   */
+  void onLogLine(String line, long at) {
+    for (Milestone milestone : MILESTONES) {
+      if (milestone.pattern.matcher(line).find()) {
+        if (milestone.type == MilestoneType.START) {
+          onPhaseStart(milestone.phase, at);
+        } else {
+          onPhaseEnd(milestone.phase, at);
+        }
+      }
+    }
+  }
+
+  synchronized void onPhaseStart(String phase, long at) {
+    phases.putIfAbsent(phase, new Phase(phase, at));
+  }
+
+  synchronized void onPhaseEnd(String phase, long at) {
+    // phases ended without having been started, for example if the
+    // launch of a process is not logged, start with the server
+    Phase p = phases.computeIfAbsent(phase, k -> new Phase(k, phases.get(SERVER).startedAt));
+    p.endedAt = at;
+  }
+
+  /**
+   * The phases detected in logs, in order of start. The phase {@link #SERVER} covers
+   * the whole startup.
+   */
+  public synchronized List<Phase> getPhases() {
+    return phases.values().stream().map(Phase::copy).collect(Collectors.toList());
+  }
+
+  public synchronized Optional<Phase> getPhase(String name) {
+    return Optional.ofNullable(phases.get(name)).map(Phase::copy);
+  }
+
+  @Override
+  public String toString() {
+    return getPhases().stream()
+      .map(phase -> phase.getName() + "=" + (phase.isEnded() ? (phase.getDurationMs() + "ms") : "?"))
+      .collect(Collectors.joining(", "));
+  }
+
+  public static class Phase {
+    private final String name;
+    private final long startedAt;
+    @CheckForNull
+    private Long endedAt;
+
+    private Phase(String name, long startedAt) {
+      this.name = name;
+      this.startedAt = startedAt;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public long getStartedAt() {
+      return startedAt;
+    }
+
+    public boolean isEnded() {
+      return endedAt != null;
+    }
+
+    /**
+     * @throws IllegalStateException if the end of phase has not been detected
+     */
+    public long getEndedAt() {
+      if (endedAt == null) {
+        throw new IllegalStateException("Phase " + name + " is not ended");
+      }
+      return endedAt;
+    }
+
+    /**
+     * @throws IllegalStateException if the end of phase has not been detected
+     */
+    public long getDurationMs() {
+      return getEndedAt() - startedAt;
+    }
+
+    private Phase copy() {
+      Phase copy = new Phase(name, startedAt);
+      copy.endedAt = endedAt;
+      return copy;
+    }
+  }
+
+  private enum MilestoneType {
+    START, END
+  }
+
+  private static class Milestone {
+    private final String phase;
+    private final MilestoneType type;
+    private final Pattern pattern;
+
+    private Milestone(String phase, MilestoneType type, String regexp) {
+      this.phase = phase;
+      this.type = type;
+      this.pattern = Pattern.compile(regexp);
+    }
+  }
+}
@@ -0,0 +1,335 @@
+/*
+ * Orchestrator
+ * Copyright (C) 2011-2024 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.sonar.orchestrator.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Console output of a process. Lines are queued by the thread that reads the output of the process, then
+ * written in batches to a log file by a background thread, so that a slow console never slows down the process.
+ * The last lines can be kept in memory, for example to be displayed when a server fails to start.
+ * <p/>
+ * Queuing never blocks nor locks: the queue is a non-blocking linked queue, and the background thread is parked only
+ * when the queue is empty. All the lines are written to the log file and to the tail. Lines are displayed on stdout
+ * by another thread, so that a slow stdout does not delay the log file. When {@code capacity} lines are already
+ * waiting to be displayed, the next lines are not displayed and their number is displayed instead.
+ *
+ * @since 4.7
+ */
+public final class AsyncConsole implements AutoCloseable {
+
+  public static final int DEFAULT_CAPACITY = 10_000;
+
+  /**
+   * Console echo of the builds, shared by all the processes
+   */
+  static final AsyncConsole STDOUT = new AsyncConsole(null, text -> System.out.print(text), DEFAULT_CAPACITY, 0);
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(AsyncConsole.class);
+  private static final long CLOSE_TIMEOUT_MS = 10_000L;
+  private static final int MAX_BATCH_SIZE = 1_000;
+  // compared by identity
+  @SuppressWarnings("StringOperationCanBeSimplified")
+  private static final String END_OF_STREAM = new String("<end>");
+
+  private final Queue<Object> queue = new ConcurrentLinkedQueue<>();
+  private final Deque<String> tail = new ArrayDeque<>();
+  private final int tailSize;
+  private final Thread thread;
+  @CheckForNull
+  private final Echo echo;
+  private volatile boolean parked = false;
+  @CheckForNull
+  private Writer writer;
+
+  /**
+   * @param logFile optional file the lines are appended to
+   * @param echo whether lines are displayed on stdout
+   * @param capacity maximum number of lines waiting to be displayed on stdout. Next lines are not displayed.
+   * @param tailSize number of last lines kept in memory, see {@link #tail()}
+   */
+  public AsyncConsole(@Nullable File logFile, boolean echo, int capacity, int tailSize) {
+    this(logFile, echo ? (text -> {
+      System.out.print(text);
+      System.out.flush();
+    }) : null, capacity, tailSize);
+  }
+
+  AsyncConsole(@Nullable File logFile, @Nullable Consumer<String> echo, int capacity, int tailSize) {
+    this.tailSize = tailSize;
+    this.writer = logFile == null ? null : openWriter(logFile);
+    this.echo = echo == null ? null : new Echo(echo, capacity);
+    this.thread = new Thread(this::pump, "orchestrator-console");
+    this.thread.setDaemon(true);
+    this.thread.start();
+  }
+
+  /**
+   * Queues a line. Never blocks.
+   */
+  public void print(String line) {
+    enqueue(line);
+  }
+
+  /**
+   * The last lines that were written
+   */
+  public List<String> tail() {
+    synchronized (tail) {
+      return new ArrayList<>(tail);
+    }
+  }
+
+  /**
+   * Waits for the lines queued so far to be written and displayed.
+   */
+  public void flush(long timeoutMs) {
+    if (!thread.isAlive()) {
+      return;
+    }
+    CountDownLatch flushed = new CountDownLatch(1);
+    enqueue(flushed);
+    try {
+      flushed.await(timeoutMs, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Writes and displays the queued lines, then stops the background threads and closes the log file.
+   */
+  @Override
+  public void close() {
+    if (!thread.isAlive()) {
+      return;
+    }
+    enqueue(END_OF_STREAM);
+    try {
+      long deadline = System.currentTimeMillis() + CLOSE_TIMEOUT_MS;
+      thread.join(CLOSE_TIMEOUT_MS);
+      if (echo != null) {
+        echo.thread.join(Math.max(1L, deadline - System.currentTimeMillis()));
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void enqueue(Object item) {
+    queue.offer(item);
+    if (parked) {
+      LockSupport.unpark(thread);
+    }
+  }
+
+  private void pump() {
+    List<String> lines = new ArrayList<>();
+    List<CountDownLatch> flushes = new ArrayList<>();
+    try {
+      boolean ended = false;
+      while (!ended) {
+        Object item = queue.poll();
+        if (item == null || item == END_OF_STREAM || lines.size() >= MAX_BATCH_SIZE) {
+          write(lines, flushes);
+          lines.clear();
+          flushes.clear();
+        }
+        if (item == null) {
+          ended = waitForItems();
+        } else if (item == END_OF_STREAM) {
+          ended = true;
+        } else if (item instanceof CountDownLatch) {
+          flushes.add((CountDownLatch) item);
+        } else {
+          lines.add((String) item);
+        }
+      }
+    } finally {
+      closeWriter();
+      if (echo != null) {
+        echo.offer(END_OF_STREAM);
+      }
+    }
+  }
+
+  /**
+   * @return true if the thread has been interrupted
+   */
+  private boolean waitForItems() {
+    parked = true;
+    // re-check after publishing the flag, so that an item queued meanwhile is not missed
+    if (queue.isEmpty()) {
+      LockSupport.park(this);
+    }
+    parked = false;
+    return Thread.interrupted();
+  }
+
+  private void write(List<String> lines, List<CountDownLatch> flushes) {
+    if (echo != null) {
+      // never blocks, lines are displayed by another thread
+      lines.forEach(echo::display);
+    }
+    if (!lines.isEmpty() && writer != null) {
+      StringBuilder text = new StringBuilder();
+      for (String line : lines) {
+        text.append(line).append(System.lineSeparator());
+      }
+      try {
+        writer.write(text.toString());
+        writer.flush();
+      } catch (IOException e) {
+        LOGGER.warn("Fail to write console to log file", e);
+        closeWriter();
+      }
+    }
+    if (tailSize > 0) {
+      synchronized (tail) {
+        for (String line : lines) {
+          if (tail.size() == tailSize) {
+            tail.removeFirst();
+          }
+          tail.addLast(line);
+        }
+      }
+    }
+    if (echo == null) {
+      flushes.forEach(CountDownLatch::countDown);
+    } else {
+      // released once the lines are displayed
+      flushes.forEach(echo::offer);
+    }
+  }
+
+  @CheckForNull
+  private static Writer openWriter(File logFile) {
+    try {
+      Files.createDirectories(logFile.getParentFile().toPath());
+      // the server home may be restarted, console of the previous runs is kept
+      return Files.newBufferedWriter(logFile.toPath(), StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    } catch (IOException e) {
+      LOGGER.warn("Fail to create log file " + logFile, e);
+      return null;
+    }
+  }
+
+  private void closeWriter() {
+    if (writer != null) {
+      try {
+        writer.close();
+      } catch (IOException e) {
+        LOGGER.debug("Fail to close console log file", e);
+      }
+      writer = null;
+    }
+  }
+
+  /**
+   * Displays the lines in its own thread. It is the only lossy output of the console.
+   */
+  private static class Echo {
+    private final BlockingQueue<Object> queue = new LinkedBlockingQueue<>();
+    // number of lines waiting to be displayed, markers of flush and end are not counted
+    private final AtomicInteger size = new AtomicInteger(0);
+    private final AtomicLong dropped = new AtomicLong(0L);
+    private final Consumer<String> consumer;
+    private final int capacity;
+    private final Thread thread;
+
+    Echo(Consumer<String> consumer, int capacity) {
+      this.consumer = consumer;
+      this.capacity = capacity;
+      this.thread = new Thread(this::pump, "orchestrator-console-echo");
+      this.thread.setDaemon(true);
+      this.thread.start();
+    }
+
+    void display(String line) {
+      if (size.incrementAndGet() > capacity) {
+        size.decrementAndGet();
+        dropped.incrementAndGet();
+        return;
+      }
+      queue.offer(line);
+    }
+
+    void offer(Object marker) {
+      queue.offer(marker);
+    }
+
+    private void pump() {
+      List<Object> items = new ArrayList<>();
+      try {
+        boolean ended = false;
+        while (!ended) {
+          items.add(queue.take());
+          queue.drainTo(items, MAX_BATCH_SIZE - 1);
+          StringBuilder text = new StringBuilder();
+          List<CountDownLatch> flushes = new ArrayList<>();
+          for (Object item : items) {
+            if (item == END_OF_STREAM) {
+              ended = true;
+            } else if (item instanceof CountDownLatch) {
+              flushes.add((CountDownLatch) item);
+            } else {
+              size.decrementAndGet();
+              text.append((String) item).append(System.lineSeparator());
+            }
+          }
+          items.clear();
+          long droppedLines = dropped.getAndSet(0L);
+          if (droppedLines > 0) {
+            text.append("[").append(droppedLines).append(" lines dropped, console is too slow]").append(System.lineSeparator());
+          }
+          if (text.length() > 0) {
+            consumer.accept(text.toString());
+          }
+          flushes.forEach(CountDownLatch::countDown);
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+}
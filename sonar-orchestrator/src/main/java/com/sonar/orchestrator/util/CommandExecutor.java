@@ -21,15 +21,20 @@ package com.sonar.orchestrator.util;
 
 import java.io.BufferedReader;
 import java.io.Closeable;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.util.concurrent.Callable;
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import javax.annotation.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -47,6 +52,7 @@ public class CommandExecutor {
   private static final Logger LOG = LoggerFactory.getLogger(CommandExecutor.class);
 
   private static final CommandExecutor INSTANCE = new CommandExecutor();
+  private static final ExecutorService OUTPUT_EXECUTOR = newOutputExecutor();
 
   private CommandExecutor() {
   }
@@ -61,11 +67,29 @@ public class CommandExecutor {
    * @since 3.0
    */
   public int execute(Command command, StreamConsumer stdOut, long timeoutMilliseconds) {
+    requireNonNull(stdOut);
+    return execute(command, stdOut, null, timeoutMilliseconds);
+  }
+
+  /**
+   * Executes the command and appends its output (stdout and stderr) to a file. Output is copied by the
+   * operating system, without being read by the JVM, so it's the fastest way to execute commands with
+   * large output when output is not processed line by line.
+   *
+   * @throws CommandException
+   * @since 4.7
+   */
+  public int execute(Command command, File output, long timeoutMilliseconds) {
+    requireNonNull(output);
+    return execute(command, null, output, timeoutMilliseconds);
+  }
+
+  private static int execute(Command command, @Nullable StreamConsumer stdOut, @Nullable File outputFile, long timeoutMilliseconds) {
     requireNonNull(command);
 
-    ExecutorService executorService = null;
     Process process = null;
     StreamGobbler outputGobbler = null;
+    Future<?> output = null;
     ProcessBuilder builder = new ProcessBuilder(command.toStrings());
     try {
       if (command.getDirectory() != null) {
@@ -73,43 +97,88 @@ public class CommandExecutor {
       }
       builder.environment().putAll(command.getEnvironmentVariables());
       builder.redirectErrorStream(true);
+      if (outputFile != null) {
+        builder.redirectOutput(ProcessBuilder.Redirect.appendTo(outputFile));
+      }
       process = builder.start();
 
-      outputGobbler = new StreamGobbler(process.getInputStream(), stdOut);
-      outputGobbler.start();
-
-      final Process finalProcess = process;
-      executorService = Executors.newSingleThreadExecutor();
-      Future<Integer> ft = executorService.submit(new Callable<Integer>() {
-        @Override
-        public Integer call() throws InterruptedException {
-          return finalProcess.waitFor();
-        }
-      });
-      int exitCode = ft.get(timeoutMilliseconds, TimeUnit.MILLISECONDS);
-      waitUntilFinish(outputGobbler);
-      verifyGobbler(command, outputGobbler);
-      return exitCode;
+      if (stdOut != null) {
+        outputGobbler = new StreamGobbler(process.getInputStream(), stdOut);
+        output = OUTPUT_EXECUTOR.submit(outputGobbler);
+      }
 
-    } catch (TimeoutException te) {
-      if (process != null) {
-        process.destroy();
+      if (!process.waitFor(timeoutMilliseconds, TimeUnit.MILLISECONDS)) {
+        destroyProcessTree(process);
+        throw new CommandException(command, "Timeout exceeded: " + timeoutMilliseconds + " ms", new TimeoutException());
       }
-      throw new CommandException(command, "Timeout exceeded: " + timeoutMilliseconds + " ms", te);
+      waitUntilFinish(output);
+      if (outputGobbler != null) {
+        verifyGobbler(command, outputGobbler);
+      }
+      return process.exitValue();
 
     } catch (CommandException e) {
       throw e;
 
+    } catch (InterruptedException e) {
+      // for example when builds are cancelled. The process must not survive.
+      Thread.currentThread().interrupt();
+      if (process != null) {
+        destroyProcessTree(process);
+      }
+      throw new CommandException(command, e);
+
     } catch (Exception e) {
       throw new CommandException(command, e);
 
     } finally {
-      waitUntilFinish(outputGobbler);
+      waitUntilFinish(output);
       closeStreams(process);
+    }
+  }
+
+  /**
+   * Output of commands is read by threads that are shared between commands: virtual threads on Java 21+,
+   * otherwise a pool of daemon threads. Virtual threads are loaded by reflection as long as Java 8 is supported.
+   */
+  private static ExecutorService newOutputExecutor() {
+    try {
+      return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    } catch (ReflectiveOperationException e) {
+      return Executors.newCachedThreadPool(CommandExecutor::newOutputThread);
+    }
+  }
 
-      if (executorService != null) {
-        executorService.shutdown();
+  private static Thread newOutputThread(Runnable runnable) {
+    Thread thread = new Thread(runnable, "orchestrator-command-output");
+    thread.setDaemon(true);
+    return thread;
+  }
+
+  /**
+   * Destroys the process and its descendants, for example the JVM started by the script of a scanner.
+   * Descendants are destroyed only on Java 9+ (through {@code ProcessHandle}, which is loaded by reflection
+   * as long as Java 8 is supported).
+   */
+  static void destroyProcessTree(Process process) {
+    try {
+      Class<?> handleClass = Class.forName("java.lang.ProcessHandle");
+      Method destroy = handleClass.getMethod("destroy");
+      for (Object descendant : descendantsOf(process, handleClass)) {
+        destroy.invoke(descendant);
       }
+    } catch (ReflectiveOperationException e) {
+      // Java 8
+      LOG.debug("Descendants of process are not destroyed", e);
+    }
+    process.destroy();
+  }
+
+  private static List<?> descendantsOf(Process process, Class<?> handleClass) throws ReflectiveOperationException {
+    Object handle = Process.class.getMethod("toHandle").invoke(process);
+    try (Stream<?> descendants = (Stream<?>) handleClass.getMethod("descendants").invoke(handle)) {
+      // listed before the parent is destroyed, as its children are then re-parented
+      return descendants.collect(Collectors.toList());
     }
   }
 
@@ -150,24 +219,27 @@ public class CommandExecutor {
     }
   }
 
-  private static void waitUntilFinish(@Nullable StreamGobbler thread) {
-    if (thread != null) {
+  private static void waitUntilFinish(@Nullable Future<?> output) {
+    if (output != null) {
       try {
-        thread.join();
+        output.get();
+      } catch (ExecutionException e) {
+        // not expected, failures are kept by StreamGobbler
+        LOG.error("Fail to read output of command", e);
       } catch (InterruptedException e) {
-        LOG.error("InterruptedException while waiting finish of " + thread.toString(), e);
+        // for example when the command is cancelled. Output is still read in background until the process exits.
+        LOG.debug("Interrupted while waiting for output of command", e);
         Thread.currentThread().interrupt();
       }
     }
   }
 
-  private static class StreamGobbler extends Thread {
+  private static class StreamGobbler implements Runnable {
     private final InputStream is;
     private final StreamConsumer consumer;
     private volatile Exception exception;
 
     StreamGobbler(InputStream is, StreamConsumer consumer) {
-      super("ProcessStreamGobbler");
       this.is = is;
       this.consumer = consumer;
     }
@@ -0,0 +1,236 @@
+/*
+ * Orchestrator
+ * Copyright (C) 2011-2024 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.sonar.orchestrator.util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.annotation.CheckForNull;
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Exclusive lock on a file, shared between processes. It is used to prevent a directory
+ * from being reused or deleted while another JVM works in it. The lock is released
+ * when closed or when the JVM exits.
+ * <p/>
+ * Shared locks (see {@link #tryLockShared(File)}) allow several threads and processes to read a directory
+ * at the same time, while preventing it from being deleted by the holder of an exclusive lock.
+ * <p/>
+ * File locks are owned by the whole process, and closing any channel on a locked file releases the
+ * locks of the process on this file. For this reason the files locked by this JVM are registered, and
+ * a second channel is never opened on them.
+ */
+public final class DirectoryLock implements Closeable {
+
+  // locks that must be kept until the JVM exits
+  private static final List<DirectoryLock> HELD_LOCKS = Collections.synchronizedList(new ArrayList<>());
+  // canonical paths of the files locked by this JVM
+  private static final Set<String> LOCKED_PATHS = ConcurrentHashMap.newKeySet();
+  // shared locks of this JVM by canonical path. A process has a single lock per file, whatever the number of holders.
+  private static final Map<String, SharedLock> SHARED_LOCKS = new HashMap<>();
+
+  private final File lockFile;
+  private final String path;
+  private final FileLock lock;
+  private final boolean shared;
+  private boolean closed = false;
+
+  private DirectoryLock(File lockFile, String path, FileLock lock, boolean shared) {
+    this.lockFile = lockFile;
+    this.path = path;
+    this.lock = lock;
+    this.shared = shared;
+  }
+
+  /**
+   * @return the acquired lock, or {@code null} if the file is already locked, by this JVM or another process
+   */
+  @CheckForNull
+  public static DirectoryLock tryLock(File lockFile) {
+    String path = canonicalPath(lockFile);
+    if (!LOCKED_PATHS.add(path)) {
+      // already locked by this JVM
+      return null;
+    }
+    FileLock lock = lockRegisteredPath(lockFile, path, false);
+    return lock == null ? null : new DirectoryLock(lockFile, path, lock, false);
+  }
+
+  /**
+   * Acquires a lock that can be held by several threads and processes at the same time, but not at the same time
+   * as an exclusive lock.
+   *
+   * @return the acquired lock, or {@code null} if the file is exclusively locked, by this JVM or another process
+   */
+  @CheckForNull
+  public static DirectoryLock tryLockShared(File lockFile) {
+    String path = canonicalPath(lockFile);
+    synchronized (SHARED_LOCKS) {
+      SharedLock sharedLock = SHARED_LOCKS.get(path);
+      if (sharedLock == null) {
+        if (!LOCKED_PATHS.add(path)) {
+          // exclusively locked by this JVM
+          return null;
+        }
+        FileLock lock = lockRegisteredPath(lockFile, path, true);
+        if (lock == null) {
+          return null;
+        }
+        sharedLock = new SharedLock(lock);
+        SHARED_LOCKS.put(path, sharedLock);
+      }
+      sharedLock.holders++;
+      return new DirectoryLock(lockFile, path, sharedLock.lock, true);
+    }
+  }
+
+  /**
+   * Locks a file whose path has been added to {@link #LOCKED_PATHS}. The path is removed if the lock is not acquired.
+   */
+  @CheckForNull
+  private static FileLock lockRegisteredPath(File lockFile, String path, boolean shared) {
+    FileChannel channel = null;
+    try {
+      FileUtils.forceMkdirParent(lockFile);
+      // shared locks require a channel opened for reading
+      channel = FileChannel.open(lockFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+      FileLock lock = channel.tryLock(0L, Long.MAX_VALUE, shared);
+      if (lock == null) {
+        // locked by another process. This JVM has no lock on the file, so the channel can be closed.
+        LOCKED_PATHS.remove(path);
+        channel.close();
+      }
+      return lock;
+    } catch (OverlappingFileLockException e) {
+      // locked in this JVM without DirectoryLock. Closing the channel would release that lock.
+      LOCKED_PATHS.remove(path);
+      return null;
+    } catch (IOException e) {
+      LOCKED_PATHS.remove(path);
+      closeQuietly(channel);
+      throw new IllegalStateException("Fail to lock " + lockFile, e);
+    }
+  }
+
+  /**
+   * Same as {@link #tryLock(File)} but the lock is never released before the JVM exits.
+   *
+   * @return {@code true} if the lock is acquired
+   */
+  public static boolean tryLockUntilExit(File lockFile) {
+    DirectoryLock lock = tryLock(lockFile);
+    if (lock == null) {
+      return false;
+    }
+    HELD_LOCKS.add(lock);
+    return true;
+  }
+
+  /**
+   * Whether the file is currently locked, by this JVM or another process.
+   */
+  public static boolean isLocked(File lockFile) {
+    if (!lockFile.exists()) {
+      return false;
+    }
+    if (LOCKED_PATHS.contains(canonicalPath(lockFile))) {
+      return true;
+    }
+    DirectoryLock lock = tryLock(lockFile);
+    if (lock == null) {
+      return true;
+    }
+    lock.close();
+    return false;
+  }
+
+  public File getLockFile() {
+    return lockFile;
+  }
+
+  @Override
+  public synchronized void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    if (!shared) {
+      release(lock, path);
+      return;
+    }
+    synchronized (SHARED_LOCKS) {
+      SharedLock sharedLock = SHARED_LOCKS.get(path);
+      sharedLock.holders--;
+      if (sharedLock.holders == 0) {
+        SHARED_LOCKS.remove(path);
+        release(lock, path);
+      }
+    }
+  }
+
+  private static void release(FileLock lock, String path) {
+    try {
+      lock.release();
+    } catch (IOException e) {
+      // ignored, the channel is closed anyway
+    } finally {
+      closeQuietly(lock.channel());
+      LOCKED_PATHS.remove(path);
+    }
+  }
+
+  private static String canonicalPath(File file) {
+    try {
+      return file.getCanonicalPath();
+    } catch (IOException e) {
+      throw new IllegalStateException("Fail to get canonical path of " + file, e);
+    }
+  }
+
+  private static void closeQuietly(@CheckForNull FileChannel channel) {
+    if (channel != null) {
+      try {
+        channel.close();
+      } catch (IOException e) {
+        // ignored
+      }
+    }
+  }
+
+  private static final class SharedLock {
+    private final FileLock lock;
+    private int holders = 0;
+
+    private SharedLock(FileLock lock) {
+      this.lock = lock;
+    }
+  }
+}
@@ -25,6 +25,7 @@ import java.net.ServerSocket;
 import java.net.UnknownHostException;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static java.lang.String.format;
 import static java.util.Arrays.asList;
@@ -32,7 +33,8 @@ import static java.util.Collections.unmodifiableSet;
 
 public final class NetworkUtils {
 
-  private static final Set<Integer> ALREADY_ALLOCATED = new HashSet<>();
+  // ports can be allocated concurrently, for example by builds executed in parallel
+  private static final Set<Integer> ALREADY_ALLOCATED = ConcurrentHashMap.newKeySet();
   private static final int MAX_TRIES = 50;
 
   // Firefox blocks some reserved ports : https://developer.mozilla.org/en-US/docs/Mozilla/Mozilla_Port_Blocking
@@ -69,8 +71,7 @@ public final class NetworkUtils {
   static int getNextAvailablePort(InetAddress address, PortAllocator portAllocator) {
     for (int i = 0; i < MAX_TRIES; i++) {
       int port = portAllocator.getAvailable(address);
-      if (isValidPort(port)) {
-        ALREADY_ALLOCATED.add(port);
+      if (isValidPort(port) && ALREADY_ALLOCATED.add(port)) {
         return port;
       }
     }
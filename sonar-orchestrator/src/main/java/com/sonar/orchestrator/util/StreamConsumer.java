@@ -19,6 +19,7 @@
  */
 package com.sonar.orchestrator.util;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.Writer;
 import org.slf4j.LoggerFactory;
@@ -27,25 +28,50 @@ public interface StreamConsumer {
 
   void consumeLine(String line);
 
-  class Pipe implements StreamConsumer {
+  /**
+   * Writes lines to a {@link Writer} and optionally displays them on stdout. Lines are displayed
+   * asynchronously, so a slow console does not block the process that produces the lines.
+   */
+  class Pipe implements StreamConsumer, Closeable {
+
+    private static final long FLUSH_TIMEOUT_MS = 10_000L;
 
     private final Writer writer;
+    private final boolean echo;
 
     public Pipe(Writer writer) {
+      this(writer, true);
+    }
+
+    /**
+     * @param echo whether lines are also displayed on stdout
+     * @since 4.7
+     */
+    public Pipe(Writer writer, boolean echo) {
       this.writer = writer;
+      this.echo = echo;
     }
 
     @Override
     public void consumeLine(String line) {
       try {
-        System.out.println(line);
-        writer.write(line);
-        writer.write("\n");
+        if (echo) {
+          AsyncConsole.STDOUT.print(line);
+        }
+        writer.write(line + "\n");
       } catch (IOException e) {
         LoggerFactory.getLogger(Pipe.class).error("Fail to write : " + line, e);
       }
     }
-  }
-
 
+    /**
+     * Waits for the lines consumed so far to be displayed.
+     */
+    @Override
+    public void close() {
+      if (echo) {
+        AsyncConsole.STDOUT.flush(FLUSH_TIMEOUT_MS);
+      }
+    }
+  }
 }
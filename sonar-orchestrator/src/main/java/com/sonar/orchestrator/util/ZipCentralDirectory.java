@@ -0,0 +1,122 @@
+/*
+ * Orchestrator
+ * Copyright (C) 2011-2024 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.sonar.orchestrator.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Minimal reader of the central directory of a zip file. It only extracts what {@link java.util.zip.ZipFile}
+ * does not expose: the Unix permissions of the entries, stored in the external file attributes.
+ */
+final class ZipCentralDirectory {
+
+  private static final int END_SIGNATURE = 0x06054b50;
+  private static final int END_SIZE = 22;
+  private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+  private static final int ZIP64_LOCATOR_SIZE = 20;
+  private static final int ZIP64_END_SIGNATURE = 0x06064b50;
+  private static final int ENTRY_SIGNATURE = 0x02014b50;
+  private static final int ENTRY_SIZE = 46;
+  private static final int MAX_COMMENT_SIZE = 0xFFFF;
+  private static final int UNIX_PLATFORM = 3;
+
+  private ZipCentralDirectory() {
+    // only static methods
+  }
+
+  /**
+   * @return the Unix mode of the entries, by entry name. Entries created on other platforms are ignored.
+   */
+  static Map<String, Integer> readUnixModes(File zip) throws IOException {
+    try (RandomAccessFile file = new RandomAccessFile(zip, "r"); FileChannel channel = file.getChannel()) {
+      ByteBuffer directory = readCentralDirectory(channel);
+      Map<String, Integer> modes = new HashMap<>();
+      while (directory.remaining() >= ENTRY_SIZE && directory.getInt(directory.position()) == ENTRY_SIGNATURE) {
+        int start = directory.position();
+        int platform = (directory.getShort(start + 4) >> 8) & 0xFF;
+        int nameLength = directory.getShort(start + 28) & 0xFFFF;
+        int extraLength = directory.getShort(start + 30) & 0xFFFF;
+        int commentLength = directory.getShort(start + 32) & 0xFFFF;
+        int mode = directory.getInt(start + 38) >>> 16;
+        if (platform == UNIX_PLATFORM && mode != 0) {
+          byte[] name = new byte[nameLength];
+          directory.position(start + ENTRY_SIZE);
+          directory.get(name);
+          modes.put(new String(name, UTF_8), mode);
+        }
+        directory.position(start + ENTRY_SIZE + nameLength + extraLength + commentLength);
+      }
+      return modes;
+    }
+  }
+
+  private static ByteBuffer readCentralDirectory(FileChannel channel) throws IOException {
+    long fileSize = channel.size();
+    int tailSize = (int) Math.min(fileSize, END_SIZE + MAX_COMMENT_SIZE + ZIP64_LOCATOR_SIZE);
+    ByteBuffer tail = read(channel, fileSize - tailSize, tailSize);
+
+    int end = -1;
+    for (int i = tailSize - END_SIZE; i >= 0; i--) {
+      if (tail.getInt(i) == END_SIGNATURE) {
+        end = i;
+        break;
+      }
+    }
+    if (end < 0) {
+      throw new IOException("End of central directory not found");
+    }
+    long size = tail.getInt(end + 12) & 0xFFFFFFFFL;
+    long offset = tail.getInt(end + 16) & 0xFFFFFFFFL;
+
+    int locator = end - ZIP64_LOCATOR_SIZE;
+    if (locator >= 0 && tail.getInt(locator) == ZIP64_LOCATOR_SIGNATURE) {
+      ByteBuffer zip64End = read(channel, tail.getLong(locator + 8), 56);
+      if (zip64End.getInt(0) != ZIP64_END_SIGNATURE) {
+        throw new IOException("Invalid zip64 end of central directory");
+      }
+      size = zip64End.getLong(40);
+      offset = zip64End.getLong(48);
+    }
+    if (size > Integer.MAX_VALUE) {
+      throw new IOException("Central directory is too large: " + size);
+    }
+    return read(channel, offset, (int) size);
+  }
+
+  private static ByteBuffer read(FileChannel channel, long position, int size) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, position + buffer.position()) < 0) {
+        throw new IOException("Unexpected end of file");
+      }
+    }
+    buffer.flip();
+    return buffer;
+  }
+}
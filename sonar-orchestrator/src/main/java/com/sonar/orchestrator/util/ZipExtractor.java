@@ -0,0 +1,327 @@
+/*
+ * Orchestrator
+ * Copyright (C) 2011-2024 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.sonar.orchestrator.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+import javax.annotation.Nullable;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.CloseShieldInputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Pure Java extraction of zip files, distributed over a pool of threads. Directories are created
+ * first, then files are extracted by workers that share the list of entries, largest first.
+ * Each worker opens its own {@link ZipFile} so that inflating is not serialized.
+ * Unix permissions and symbolic links are restored when the file system supports them. Entries rejected by the
+ * filter are not written at all.
+ */
+final class ZipExtractor {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ZipExtractor.class);
+  private static final int BUFFER_SIZE = 64 * 1024;
+  private static final int FILE_TYPE_MASK = 0170000;
+  private static final int SYMBOLIC_LINK_TYPE = 0120000;
+  private static final PosixFilePermission[] PERMISSIONS_BY_BIT = {
+    PosixFilePermission.OTHERS_EXECUTE, PosixFilePermission.OTHERS_WRITE, PosixFilePermission.OTHERS_READ,
+    PosixFilePermission.GROUP_EXECUTE, PosixFilePermission.GROUP_WRITE, PosixFilePermission.GROUP_READ,
+    PosixFilePermission.OWNER_EXECUTE, PosixFilePermission.OWNER_WRITE, PosixFilePermission.OWNER_READ
+  };
+
+  private final File zip;
+  private final Path targetDir;
+  private final int threads;
+  private final Predicate<String> entryFilter;
+
+  ZipExtractor(File zip, Path targetDir, int threads, Predicate<String> entryFilter) {
+    this.zip = zip;
+    this.targetDir = targetDir;
+    this.threads = threads;
+    this.entryFilter = entryFilter;
+  }
+
+  void extract() throws IOException, InterruptedException {
+    Map<String, Integer> modes = readUnixModes(zip);
+    List<ZipEntry> files = new ArrayList<>();
+    List<ZipEntry> links = new ArrayList<>();
+    try (ZipFile zipFile = new ZipFile(zip)) {
+      Enumeration<? extends ZipEntry> entries = zipFile.entries();
+      while (entries.hasMoreElements()) {
+        ZipEntry entry = entries.nextElement();
+        Path to = resolve(entry);
+        if (!entryFilter.test(entry.getName())) {
+          continue;
+        }
+        if (entry.isDirectory()) {
+          Files.createDirectories(to);
+        } else if (isSymbolicLink(modes.get(entry.getName()))) {
+          links.add(entry);
+        } else {
+          files.add(entry);
+        }
+      }
+    }
+    files.sort(Comparator.comparingLong(ZipEntry::getCompressedSize).reversed());
+    extractFilesInParallel(files, modes);
+
+    // links are created last, so that no file is extracted through a link
+    try (ZipFile zipFile = new ZipFile(zip)) {
+      for (ZipEntry link : links) {
+        try (InputStream input = zipFile.getInputStream(link)) {
+          createSymbolicLink(targetDir, link.getName(), IOUtils.toString(input, StandardCharsets.UTF_8));
+        }
+      }
+    }
+  }
+
+  private void extractFilesInParallel(List<ZipEntry> files, Map<String, Integer> modes) throws IOException, InterruptedException {
+    int workers = Math.max(1, Math.min(threads, files.size()));
+    AtomicInteger next = new AtomicInteger(0);
+    if (workers == 1) {
+      extractFiles(files, next, modes);
+      return;
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(workers, ZipExtractor::newThread);
+    try {
+      List<Future<Void>> futures = new ArrayList<>();
+      for (int i = 0; i < workers; i++) {
+        futures.add(executor.submit(() -> {
+          extractFiles(files, next, modes);
+          return null;
+        }));
+      }
+      for (Future<Void> future : futures) {
+        waitFor(future);
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Extracts the entries of a zip while it is read, for example while it is downloaded. Unix permissions
+   * are stored in the central directory at the end of the zip, so they must be restored afterwards
+   * with {@link #restoreUnixModes(File, Path)}.
+   */
+  static void extractStream(InputStream input, Path targetDir, Predicate<String> entryFilter) throws IOException {
+    byte[] buffer = new byte[BUFFER_SIZE];
+    // the stream is not closed, so that the caller can read the remaining bytes (the central directory)
+    try (ZipInputStream zipInput = new ZipInputStream(new CloseShieldInputStream(input))) {
+      ZipEntry entry;
+      while ((entry = zipInput.getNextEntry()) != null) {
+        Path to = resolve(targetDir, entry);
+        if (!entryFilter.test(entry.getName())) {
+          continue;
+        }
+        if (entry.isDirectory()) {
+          Files.createDirectories(to);
+        } else {
+          Path parent = to.getParent();
+          if (parent != null) {
+            Files.createDirectories(parent);
+          }
+          try (OutputStream output = Files.newOutputStream(to)) {
+            int read;
+            while ((read = zipInput.read(buffer)) != -1) {
+              output.write(buffer, 0, read);
+            }
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Applies the Unix permissions defined in the zip to the files already extracted in {@code targetDir}.
+   * Symbolic links, that are extracted as regular files containing the target of the link, are replaced by links.
+   */
+  static void restoreUnixModes(File zip, Path targetDir) throws IOException {
+    for (Map.Entry<String, Integer> mode : readUnixModes(zip).entrySet()) {
+      Path file = targetDir.resolve(mode.getKey());
+      if (mode.getKey().endsWith("/") || !Files.isRegularFile(file, LinkOption.NOFOLLOW_LINKS)) {
+        continue;
+      }
+      if (isSymbolicLink(mode.getValue())) {
+        createSymbolicLink(targetDir, mode.getKey(), new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+      } else {
+        Files.setPosixFilePermissions(file, toPermissions(mode.getValue()));
+      }
+    }
+  }
+
+  private static boolean isSymbolicLink(@Nullable Integer mode) {
+    return mode != null && (mode & FILE_TYPE_MASK) == SYMBOLIC_LINK_TYPE;
+  }
+
+  private static void createSymbolicLink(Path targetDir, String entryName, String target) throws IOException {
+    Path link = targetDir.resolve(entryName);
+    Path linkTarget = link.getFileSystem().getPath(target);
+    Path parent = link.getParent();
+    if (linkTarget.isAbsolute() || parent == null || !parent.resolve(linkTarget).normalize().startsWith(targetDir)) {
+      // vulnerability - trying to access a file outside the target directory through the link
+      throw new IllegalStateException("Unzipping a symbolic link outside the target directory is not allowed: " + entryName + " -> " + target);
+    }
+    Files.createDirectories(parent);
+    Files.deleteIfExists(link);
+    Files.createSymbolicLink(link, linkTarget);
+  }
+
+  private Path resolve(ZipEntry entry) {
+    return resolve(targetDir, entry);
+  }
+
+  private static Path resolve(Path targetDir, ZipEntry entry) {
+    Path to = targetDir.resolve(entry.getName());
+    if (!to.normalize().startsWith(targetDir)) {
+      // vulnerability - trying to create a file outside the target directory
+      throw new IllegalStateException("Unzipping an entry outside the target directory is not allowed: " + entry.getName());
+    }
+    return to;
+  }
+
+  private static Map<String, Integer> readUnixModes(File zip) {
+    if (!FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+      return Collections.emptyMap();
+    }
+    try {
+      return ZipCentralDirectory.readUnixModes(zip);
+    } catch (IOException e) {
+      LOG.debug("Fail to read Unix permissions of " + zip, e);
+      return Collections.emptyMap();
+    }
+  }
+
+  private void extractFiles(List<ZipEntry> files, AtomicInteger next, Map<String, Integer> modes) throws IOException {
+    byte[] buffer = new byte[BUFFER_SIZE];
+    try (ZipFile zipFile = new ZipFile(zip)) {
+      int index;
+      while ((index = next.getAndIncrement()) < files.size()) {
+        ZipEntry entry = files.get(index);
+        Path to = resolve(entry);
+        extractFile(zipFile, entry, to, buffer);
+        Integer mode = modes.get(entry.getName());
+        if (mode != null) {
+          Files.setPosixFilePermissions(to, toPermissions(mode));
+        }
+      }
+    }
+  }
+
+  private static void extractFile(ZipFile zipFile, ZipEntry entry, Path to, byte[] buffer) throws IOException {
+    Path parent = to.getParent();
+    if (parent != null) {
+      Files.createDirectories(parent);
+    }
+    long size = entry.getSize();
+    try (InputStream input = zipFile.getInputStream(entry);
+      RandomAccessFile file = new RandomAccessFile(to.toFile(), "rw");
+      FileChannel channel = file.getChannel()) {
+      // preallocate when size is known, and truncate previous content of the file if any
+      file.setLength(Math.max(size, 0L));
+      if (entry.getMethod() == ZipEntry.STORED && size > 0) {
+        transfer(input, channel, size);
+      } else {
+        ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
+        int read;
+        while ((read = input.read(buffer)) != -1) {
+          byteBuffer.clear();
+          byteBuffer.limit(read);
+          while (byteBuffer.hasRemaining()) {
+            channel.write(byteBuffer);
+          }
+        }
+      }
+    }
+  }
+
+  private static void transfer(InputStream input, FileChannel channel, long size) throws IOException {
+    ReadableByteChannel source = Channels.newChannel(input);
+    long position = 0L;
+    while (position < size) {
+      long transferred = channel.transferFrom(source, position, size - position);
+      if (transferred <= 0) {
+        throw new IOException("Unexpected end of entry");
+      }
+      position += transferred;
+    }
+  }
+
+  private static Set<PosixFilePermission> toPermissions(int mode) {
+    Set<PosixFilePermission> permissions = EnumSet.noneOf(PosixFilePermission.class);
+    for (int bit = 0; bit < PERMISSIONS_BY_BIT.length; bit++) {
+      if ((mode & (1 << bit)) != 0) {
+        permissions.add(PERMISSIONS_BY_BIT[bit]);
+      }
+    }
+    return permissions;
+  }
+
+  private static void waitFor(Future<Void> future) throws IOException, InterruptedException {
+    try {
+      future.get();
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new IllegalStateException(cause);
+    }
+  }
+
+  private static Thread newThread(Runnable runnable) {
+    Thread thread = new Thread(runnable, "ZipExtractor");
+    thread.setDaemon(true);
+    return thread;
+  }
+}
@@ -19,24 +19,30 @@
  */
 package com.sonar.orchestrator.util;
 
-import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.OutputStream;
-import java.nio.file.Files;
+import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Path;
-import java.util.Enumeration;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
+import java.util.function.Predicate;
 import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.IOUtils;
-import org.apache.commons.lang.SystemUtils;
 
 public final class ZipUtils {
+
+  private static final int THREADS = Runtime.getRuntime().availableProcessors();
+
   private ZipUtils() {
     // only static methods
   }
 
   public static void unzip(File zip, File toDir) {
+    unzip(zip, toDir, entryName -> true);
+  }
+
+  /**
+   * Unzips only the entries whose name is accepted by {@code entryFilter}. Names are relative to the
+   * root of the zip and use '/' as separator, for example {@code "sonarqube-10.0/lib/extensions/foo.jar"}.
+   */
+  public static void unzip(File zip, File toDir, Predicate<String> entryFilter) {
     try {
       if (!toDir.exists()) {
         FileUtils.forceMkdir(toDir);
@@ -45,57 +51,49 @@ public final class ZipUtils {
       throw new IllegalStateException("Fail to create folder " + toDir, e);
     }
 
-    if (SystemUtils.IS_OS_WINDOWS) {
-      javaUnzip(zip, toDir);
-    } else {
-      nativeUnzip(zip, toDir);
-    }
+    javaUnzip(zip, toDir, entryFilter);
   }
 
-  static void javaUnzip(File zip, File toDir) {
+  /**
+   * Unzips the stream while it is read, for example while it is downloaded. The stream is not closed and the bytes
+   * following the last entry (the central directory of the zip) are not consumed.
+   * Unix permissions can be restored afterwards with {@link #restoreUnixPermissions(File, File)}.
+   */
+  public static void unzip(InputStream zipStream, File toDir, Predicate<String> entryFilter) {
     Path targetDirNormalizedPath = toDir.toPath().normalize();
     try {
-      try (ZipFile zipFile = new ZipFile(zip)) {
-        Enumeration<? extends ZipEntry> entries = zipFile.entries();
-        while (entries.hasMoreElements()) {
-          ZipEntry entry = entries.nextElement();
-          File to = targetDirNormalizedPath.resolve(entry.getName()).toFile();
-          verifyInsideTargetDirectory(entry, to.toPath(), targetDirNormalizedPath);
-          if (entry.isDirectory()) {
-            FileUtils.forceMkdir(to);
-          } else {
-            File parent = to.getParentFile();
-            if (parent != null) {
-              FileUtils.forceMkdir(parent);
-            }
-
-            try (OutputStream fos = new BufferedOutputStream(Files.newOutputStream(to.toPath()))) {
-              IOUtils.copy(zipFile.getInputStream(entry), fos);
-            }
-          }
-        }
-      }
-    } catch (Exception e) {
-      throw new IllegalStateException("Fail to unzip " + zip + " to " + targetDirNormalizedPath, e);
+      FileUtils.forceMkdir(toDir);
+      ZipExtractor.extractStream(zipStream, targetDirNormalizedPath, entryFilter);
+    } catch (IOException e) {
+      throw new IllegalStateException("Fail to unzip stream to " + targetDirNormalizedPath, e);
     }
   }
 
-  private static void nativeUnzip(File zip, File toDir) {
-    Command command = Command.create("unzip");
-    command.addArgument("-o");
-    command.addArgument("-q");
-    command.addArgument(zip.getAbsolutePath());
-    command.setDirectory(toDir);
-    int result = CommandExecutor.create().execute(command, 60L * 60 * 1000);
-    if (result != 0) {
-      throw new IllegalStateException("Fail to unzip " + zip + " to " + toDir);
+  /**
+   * Applies the Unix permissions stored in the zip to the files already unzipped in {@code toDir}.
+   * Does nothing if the file system does not support them.
+   */
+  public static void restoreUnixPermissions(File zip, File toDir) {
+    try {
+      ZipExtractor.restoreUnixModes(zip, toDir.toPath().normalize());
+    } catch (IOException e) {
+      throw new IllegalStateException("Fail to restore permissions of files unzipped from " + zip + " to " + toDir, e);
     }
   }
 
-  private static void verifyInsideTargetDirectory(ZipEntry entry, Path entryPath, Path targetDirNormalizedPath) {
-    if (!entryPath.normalize().startsWith(targetDirNormalizedPath)) {
-      // vulnerability - trying to create a file outside the target directory
-      throw new IllegalStateException("Unzipping an entry outside the target directory is not allowed: " + entry.getName());
+  static void javaUnzip(File zip, File toDir) {
+    javaUnzip(zip, toDir, entryName -> true);
+  }
+
+  static void javaUnzip(File zip, File toDir, Predicate<String> entryFilter) {
+    Path targetDirNormalizedPath = toDir.toPath().normalize();
+    try {
+      new ZipExtractor(zip, targetDirNormalizedPath, THREADS, entryFilter).extract();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while unzipping " + zip + " to " + targetDirNormalizedPath, e);
+    } catch (Exception e) {
+      throw new IllegalStateException("Fail to unzip " + zip + " to " + targetDirNormalizedPath, e);
     }
   }
 }
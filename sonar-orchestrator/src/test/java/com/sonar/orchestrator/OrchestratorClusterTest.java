@@ -0,0 +1,109 @@
+/*
+ * Orchestrator
+ * Copyright (C) 2011-2024 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.sonar.orchestrator;
+
+import com.sonar.orchestrator.config.Configuration;
+import com.sonar.orchestrator.container.SonarDistribution;
+import com.sonar.orchestrator.server.ServerInstaller;
+import java.net.InetAddress;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class OrchestratorClusterTest {
+
+  private final InetAddress host = InetAddress.getLoopbackAddress();
+
+  @Test
+  public void configure_search_nodes_then_application_nodes() {
+    OrchestratorCluster underTest = OrchestratorCluster.builder(Configuration.create())
+      .setSonarVersion("10.0")
+      .setServerProperty("foo", "bar")
+      .setSearchNodes(2)
+      .setApplicationNodes(1)
+      .build();
+    AtomicInteger ports = new AtomicInteger(10_000);
+
+    List<SonarDistribution> nodes = underTest.configureNodes(host, ports::incrementAndGet);
+
+    assertThat(nodes).hasSize(3);
+    SonarDistribution search1 = nodes.get(0);
+    assertThat(search1.getServerProperty("sonar.cluster.enabled")).isEqualTo("true");
+    assertThat(search1.getServerProperty("sonar.cluster.node.type")).isEqualTo("search");
+    assertThat(search1.getServerProperty("sonar.cluster.node.name")).isEqualTo("search-1");
+    assertThat(search1.getServerProperty("sonar.cluster.node.es.port")).isEqualTo("10001");
+    assertThat(search1.getServerProperty("sonar.cluster.node.search.port")).isEqualTo("10002");
+    assertThat(search1.getServerProperty("foo")).isEqualTo("bar");
+    assertThat(nodes.get(1).getServerProperty("sonar.cluster.node.name")).isEqualTo("search-2");
+
+    SonarDistribution app1 = nodes.get(2);
+    assertThat(app1.getServerProperty("sonar.cluster.node.type")).isEqualTo("application");
+    assertThat(app1.getServerProperty("sonar.cluster.node.name")).isEqualTo("app-1");
+    assertThat(app1.getServerProperty("sonar.cluster.node.port")).isEqualTo("10005");
+    assertThat(app1.getServerProperty("sonar.web.port")).isEqualTo("10006");
+    assertThat(app1.getServerProperty("sonar.auth.jwtBase64Hs256Secret")).isNotEmpty();
+
+    String address = host.getHostAddress();
+    for (SonarDistribution node : nodes) {
+      assertThat(node.getServerProperty("sonar.cluster.es.hosts")).isEqualTo(address + ":10001," + address + ":10003");
+      assertThat(node.getServerProperty("sonar.cluster.search.hosts")).isEqualTo(address + ":10002," + address + ":10004");
+      assertThat(node.getServerProperty("sonar.cluster.hosts")).isEqualTo(address + ":10005");
+    }
+    // nodes are configured on copies
+    assertThat(underTest.getDistribution().getServerProperty("sonar.cluster.enabled")).isNull();
+  }
+
+  @Test
+  public void distribution_cache_is_enabled_by_default() {
+    OrchestratorCluster cluster = OrchestratorCluster.builder(Configuration.create())
+      .setSonarVersion("10.0")
+      .build();
+    assertThat(cluster.getConfiguration().getString(ServerInstaller.DISTRIBUTION_CACHE_PROPERTY)).isEqualTo("true");
+
+    cluster = OrchestratorCluster.builder(Configuration.create())
+      .setSonarVersion("10.0")
+      .setOrchestratorProperty(ServerInstaller.DISTRIBUTION_CACHE_PROPERTY, "false")
+      .build();
+    assertThat(cluster.getConfiguration().getString(ServerInstaller.DISTRIBUTION_CACHE_PROPERTY)).isEqualTo("false");
+  }
+
+  @Test
+  public void fail_if_no_search_nodes() {
+    OrchestratorClusterBuilder builder = OrchestratorCluster.builder(Configuration.create());
+
+    assertThatThrownBy(() -> builder.setSearchNodes(0))
+      .isInstanceOf(IllegalArgumentException.class)
+      .hasMessage("At least one search node is required. Got 0.");
+  }
+
+  @Test
+  public void fail_to_start_with_h2() {
+    OrchestratorCluster cluster = OrchestratorCluster.builder(Configuration.create())
+      .setSonarVersion("10.0")
+      .build();
+
+    assertThatThrownBy(cluster::start)
+      .isInstanceOf(IllegalStateException.class)
+      .hasMessage("Cluster requires a database shared by the nodes. H2 is not supported.");
+  }
+}
@@ -0,0 +1,162 @@
+/*
+ * Orchestrator
+ * Copyright (C) 2011-2024 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.sonar.orchestrator;
+
+import com.sonar.orchestrator.config.Configuration;
+import com.sonar.orchestrator.container.SonarDistribution;
+import com.sonar.orchestrator.server.ServerInstaller;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import javax.annotation.Nullable;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class OrchestratorTest {
+
+  private static final String UNSUPPORTED_JDBC_URL = "jdbc:unsupported://localhost/sonar";
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  private final List<CompletableFuture<Void>> pendingStops = new ArrayList<>();
+
+  @After
+  public void tearDown() {
+    pendingStops.forEach(stop -> stop.complete(null));
+  }
+
+  @Test
+  public void start_waits_for_pending_stop_of_server_using_same_database() throws Exception {
+    File workspace = temp.newFolder();
+    CompletableFuture<Void> stop = newPendingStop(newOrchestrator(workspace, false, UNSUPPORTED_JDBC_URL));
+
+    CompletableFuture<Void> start = CompletableFuture.runAsync(newOrchestrator(temp.newFolder(), false, UNSUPPORTED_JDBC_URL)::start);
+
+    assertNotDone(start);
+    stop.complete(null);
+    // the database is resolved once the pending stop is done
+    assertFailsOnUnsupportedDatabase(start);
+  }
+
+  @Test
+  public void start_waits_for_pending_stop_of_server_reusing_same_home() throws Exception {
+    File workspace = temp.newFolder();
+    CompletableFuture<Void> stop = newPendingStop(newOrchestrator(workspace, true, null));
+
+    CompletableFuture<Void> start = CompletableFuture.runAsync(newOrchestrator(workspace, true, UNSUPPORTED_JDBC_URL)::start);
+
+    assertNotDone(start);
+    stop.complete(null);
+    assertFailsOnUnsupportedDatabase(start);
+  }
+
+  @Test
+  public void start_does_not_wait_for_pending_stops_of_unrelated_servers() throws Exception {
+    File workspace = temp.newFolder();
+    CompletableFuture<Void> stop = newPendingStop(newOrchestrator(temp.newFolder(), true, null));
+    newPendingStop(newOrchestrator(workspace, false, null));
+
+    CompletableFuture<Void> start = CompletableFuture.runAsync(newOrchestrator(workspace, true, UNSUPPORTED_JDBC_URL)::start);
+
+    assertFailsOnUnsupportedDatabase(start);
+    assertThat(stop).isNotDone();
+  }
+
+  @Test
+  public void conflicts_with_pending_stops_ignores_unrelated_homes() throws IOException {
+    File workspace = temp.newFolder();
+    Orchestrator underTest = newOrchestrator(workspace, true, null);
+
+    assertThat(underTest.conflictsWithPendingStop(newOrchestrator(workspace, true, null).sharedResources())).isTrue();
+    // home of another workspace
+    assertThat(underTest.conflictsWithPendingStop(newOrchestrator(temp.newFolder(), true, null).sharedResources())).isFalse();
+    // home that is not reusable
+    assertThat(underTest.conflictsWithPendingStop(newOrchestrator(workspace, false, null).sharedResources())).isFalse();
+  }
+
+  @Test
+  public void conflicts_with_pending_stops_using_same_database_or_ports() throws IOException {
+    Orchestrator underTest = newOrchestrator(temp.newFolder(), false, UNSUPPORTED_JDBC_URL);
+    Set<String> resources = newOrchestrator(temp.newFolder(), false, null).sharedResources();
+
+    assertThat(underTest.conflictsWithPendingStop(resources)).isFalse();
+    resources.add("jdbc:" + UNSUPPORTED_JDBC_URL);
+    assertThat(underTest.conflictsWithPendingStop(resources)).isTrue();
+
+    Orchestrator withFixedPort = new Orchestrator(Configuration.builder()
+      .setProperty("orchestrator.workspaceDir", temp.newFolder())
+      .build(), new SonarDistribution().setServerProperty("sonar.web.port", "9000"), null);
+    assertThat(withFixedPort.conflictsWithPendingStop(resources)).isFalse();
+    resources.add("port:9000");
+    assertThat(withFixedPort.conflictsWithPendingStop(resources)).isTrue();
+  }
+
+  @Test
+  public void shutdown_hook_waits_for_in_flight_stops() throws Exception {
+    CompletableFuture<Void> stop1 = newPendingStop(newOrchestrator(temp.newFolder(), false, null));
+    CompletableFuture<Void> stop2 = newPendingStop(newOrchestrator(temp.newFolder(), false, null));
+
+    CompletableFuture<Void> hook = CompletableFuture.runAsync(Orchestrator::awaitPendingStops);
+
+    assertNotDone(hook);
+    stop1.complete(null);
+    assertNotDone(hook);
+    // failures of stops do not prevent the JVM from exiting
+    stop2.completeExceptionally(new IllegalStateException("Fail to stop server"));
+    hook.get(10, TimeUnit.SECONDS);
+  }
+
+  private CompletableFuture<Void> newPendingStop(Orchestrator stoppedOrchestrator) {
+    CompletableFuture<Void> stop = new CompletableFuture<>();
+    pendingStops.add(stop);
+    Orchestrator.registerPendingStop(stop, stoppedOrchestrator.sharedResources());
+    return stop;
+  }
+
+  private static Orchestrator newOrchestrator(File workspace, boolean reuseServerHome, @Nullable String jdbcUrl) {
+    Configuration config = Configuration.builder()
+      .setProperty("orchestrator.workspaceDir", workspace)
+      .setProperty(ServerInstaller.REUSE_SERVER_HOME_PROPERTY, String.valueOf(reuseServerHome))
+      .setProperty("sonar.jdbc.url", jdbcUrl)
+      .build();
+    return new Orchestrator(config, new SonarDistribution(), null);
+  }
+
+  private static void assertNotDone(CompletableFuture<Void> future) throws Exception {
+    assertThatThrownBy(() -> future.get(200, TimeUnit.MILLISECONDS)).isInstanceOf(TimeoutException.class);
+  }
+
+  private static void assertFailsOnUnsupportedDatabase(CompletableFuture<Void> start) {
+    assertThatThrownBy(() -> start.get(10, TimeUnit.SECONDS))
+      .hasCauseInstanceOf(IllegalArgumentException.class)
+      .hasMessageContaining("Unsupported DB: " + UNSUPPORTED_JDBC_URL);
+  }
+}
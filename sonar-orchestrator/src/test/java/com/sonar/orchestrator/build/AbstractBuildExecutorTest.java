@@ -22,6 +22,13 @@ package com.sonar.orchestrator.build;
 import com.google.common.collect.ImmutableMap;
 import com.sonar.orchestrator.config.Configuration;
 import com.sonar.orchestrator.test.MockHttpServerInterceptor;
+import com.sonar.orchestrator.util.Command;
+import com.sonar.orchestrator.util.CommandExecutor;
+import com.sonar.orchestrator.util.StreamConsumer;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
 import java.util.HashMap;
 import java.util.Map;
 import org.junit.Rule;
@@ -29,6 +36,11 @@ import org.junit.Test;
 
 import static java.util.Collections.singletonMap;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 
 public class AbstractBuildExecutorTest {
 
@@ -72,4 +84,60 @@ public class AbstractBuildExecutorTest {
 
     assertThat(env.get("SONAR_OPTS")).startsWith("-javaagent:");
   }
+
+  @Test
+  public void executeCommand_pipes_output_to_logs_when_console_echo_is_enabled() {
+    Configuration config = Configuration.builder().setProperty("orchestrator.build.consoleEcho", "on").build();
+    CommandExecutor commandExecutor = mock(CommandExecutor.class);
+    when(commandExecutor.execute(any(Command.class), any(StreamConsumer.class), anyLong())).thenAnswer(invocation -> {
+      StreamConsumer consumer = invocation.getArgument(1);
+      consumer.consumeLine("foo");
+      consumer.consumeLine("bar");
+      return 1;
+    });
+    BuildResult result = new BuildResult();
+
+    int status = AbstractBuildExecutor.executeCommand(config, commandExecutor, Command.create("mvn"), result, 1_000L);
+
+    assertThat(status).isEqualTo(1);
+    assertThat(result.getLogs()).isEqualTo("foo\nbar\n");
+  }
+
+  @Test
+  public void executeCommand_redirects_output_to_logs_file_when_console_echo_is_not_enabled() {
+    for (String echo : new String[] {"off", "on_failure"}) {
+      Configuration config = Configuration.builder().setProperty("orchestrator.build.consoleEcho", echo).build();
+      CommandExecutor commandExecutor = mock(CommandExecutor.class);
+      File[] redirected = new File[1];
+      when(commandExecutor.execute(any(Command.class), any(File.class), anyLong())).thenAnswer(invocation -> {
+        redirected[0] = invocation.getArgument(1);
+        Files.write(redirected[0].toPath(), "foo\nbar\n".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        return 1;
+      });
+      BuildResult result = new BuildResult();
+
+      int status = AbstractBuildExecutor.executeCommand(config, commandExecutor, Command.create("mvn"), result, 1_000L);
+
+      assertThat(status).isEqualTo(1);
+      assertThat(result.getLogs()).isEqualTo("foo\nbar\n");
+      assertThat(result.getLogsLineCount()).isEqualTo(2);
+      // small logs are moved back to memory
+      assertThat(redirected[0]).doesNotExist();
+    }
+  }
+
+  @Test
+  public void fail_if_console_echo_is_invalid() {
+    Configuration config = Configuration.builder().setProperty("orchestrator.build.consoleEcho", "sometimes").build();
+
+    assertThatThrownBy(() -> ConsoleEcho.of(config))
+      .isInstanceOf(IllegalArgumentException.class)
+      .hasMessage("Invalid value of property orchestrator.build.consoleEcho: sometimes. Supported values are on, off and on_failure.");
+  }
+
+  @Test
+  public void console_echo_is_enabled_by_default() {
+    assertThat(ConsoleEcho.of(Configuration.create(new HashMap<>()))).isEqualTo(ConsoleEcho.ON);
+    assertThat(ConsoleEcho.of(Configuration.builder().setProperty("orchestrator.build.consoleEcho", "On_Failure").build())).isEqualTo(ConsoleEcho.ON_FAILURE);
+  }
 }
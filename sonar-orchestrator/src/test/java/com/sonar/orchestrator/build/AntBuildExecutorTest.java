@@ -55,6 +55,6 @@ public class AntBuildExecutorTest {
 
     verify(executor).execute(argThat(c -> c.toCommandLine().contains("ant") &&
       c.toCommandLine().contains("-f") &&
-      c.toCommandLine().contains("-Dsonar.jdbc.dialect=")), any(), eq(30000L));
+      c.toCommandLine().contains("-Dsonar.jdbc.dialect=")), any(StreamConsumer.class), eq(30000L));
   }
 }
@@ -0,0 +1,204 @@
+/*
+ * Orchestrator
+ * Copyright (C) 2011-2024 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.sonar.orchestrator.build;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class BuildLogsTest {
+
+  @Test
+  public void keep_small_logs_in_memory() throws Exception {
+    BuildLogs underTest = new BuildLogs(1_000);
+    underTest.write("foo\nbar\n");
+
+    assertThat(underTest.isSpilled()).isFalse();
+    assertThat(underTest.getContent()).isEqualTo("foo\nbar\n");
+    assertThat(underTest.getLineCount()).isEqualTo(2);
+    assertThat(lines(underTest, 0, 10)).containsExactly("foo", "bar");
+  }
+
+  @Test
+  public void move_large_logs_to_file() throws Exception {
+    BuildLogs underTest = new BuildLogs(20);
+    for (int i = 0; i < 100; i++) {
+      underTest.write("line " + i + "\n");
+    }
+
+    assertThat(underTest.isSpilled()).isTrue();
+    assertThat(underTest.getLineCount()).isEqualTo(100);
+    assertThat(underTest.getContent()).startsWith("line 0\nline 1\n").endsWith("line 99\n");
+    assertThat(lines(underTest, 0, 2)).containsExactly("line 0", "line 1");
+    assertThat(lines(underTest, 50, 52)).containsExactly("line 50", "line 51");
+    assertThat(lines(underTest, 98, 1_000)).containsExactly("line 98", "line 99");
+  }
+
+  @Test
+  public void count_last_line_without_line_feed() throws Exception {
+    BuildLogs underTest = new BuildLogs(1_000);
+    underTest.write("foo\n\nbar");
+
+    assertThat(underTest.getLineCount()).isEqualTo(3);
+    assertThat(lines(underTest, 0, 3)).containsExactly("foo", "", "bar");
+    assertThat(lines(underTest, 2, 3)).containsExactly("bar");
+  }
+
+  @Test
+  public void split_lines_on_line_feed_and_carriage_return() throws Exception {
+    BuildLogs underTest = new BuildLogs(10);
+    underTest.write("foo\r\nbar\rbaz\n\rqux\r");
+    // \r\n split over two writes
+    underTest.write("\nend");
+
+    assertThat(underTest.getLineCount()).isEqualTo(6);
+    assertThat(lines(underTest, 0, 10)).containsExactly("foo", "bar", "baz", "", "qux", "end");
+    assertThat(lines(underTest, 4, 6)).containsExactly("qux", "end");
+  }
+
+  @Test
+  public void read_lines_from_preceding_checkpoint() throws Exception {
+    BuildLogs underTest = new BuildLogs(100);
+    List<String> expected = new ArrayList<>();
+    String[] separators = {"\n", "\r", "\r\n"};
+    for (int i = 0; i < 3 * BuildLogs.LINES_PER_CHECKPOINT + 5; i++) {
+      expected.add("line " + i);
+      String separator = separators[i % separators.length];
+      underTest.write("line " + i + separator.charAt(0));
+      if (separator.length() > 1) {
+        // \r\n split over two writes, including on lines that are checkpoints
+        underTest.write(separator.substring(1));
+      }
+    }
+
+    assertThat(underTest.getLineCount()).isEqualTo(expected.size());
+    for (int from = 0; from < expected.size(); from++) {
+      int to = Math.min(from + 3, expected.size());
+      assertThat(lines(underTest, from, from + 3)).as("lines from %d", from).isEqualTo(expected.subList(from, to));
+    }
+    assertThat(lines(underTest, 0, 1_000)).isEqualTo(expected);
+  }
+
+  @Test
+  public void index_lines_of_multi_byte_characters() throws Exception {
+    BuildLogs underTest = new BuildLogs(10);
+    underTest.write("été\n中文\nend\n");
+
+    assertThat(underTest.isSpilled()).isTrue();
+    assertThat(lines(underTest, 1, 3)).containsExactly("中文", "end");
+  }
+
+  @Test
+  public void write_after_close() throws Exception {
+    BuildLogs underTest = new BuildLogs(5);
+    underTest.write("foo\n");
+    underTest.write("bar\n");
+    underTest.close();
+    underTest.write("baz\n");
+
+    assertThat(lines(underTest, 0, 3)).containsExactly("foo", "bar", "baz");
+  }
+
+  @Test
+  public void index_lines_appended_to_file_by_process() throws Exception {
+    BuildLogs underTest = new BuildLogs(1_000);
+    underTest.write("foo\n");
+
+    File file = underTest.redirectToFile();
+    Files.write(file.toPath(), "bar\r\nbaz\n".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+    assertThat(underTest.isSpilled()).isTrue();
+    assertThat(underTest.getLineCount()).isEqualTo(3);
+    assertThat(lines(underTest, 1, 3)).containsExactly("bar", "baz");
+
+    underTest.write("qux\n");
+    assertThat(underTest.getContent()).isEqualTo("foo\nbar\r\nbaz\nqux\n");
+    assertThat(lines(underTest, 3, 4)).containsExactly("qux");
+  }
+
+  @Test
+  public void move_logs_back_to_memory_when_redirection_ends() throws Exception {
+    BuildLogs underTest = new BuildLogs(1_000);
+    underTest.write("foo\n");
+
+    File file = underTest.redirectToFile();
+    Files.write(file.toPath(), "bar\n".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+    underTest.endRedirect();
+
+    assertThat(underTest.isSpilled()).isFalse();
+    assertThat(file).doesNotExist();
+    assertThat(underTest.getContent()).isEqualTo("foo\nbar\n");
+    underTest.write("baz\n");
+    assertThat(lines(underTest, 0, 3)).containsExactly("foo", "bar", "baz");
+  }
+
+  @Test
+  public void keep_large_logs_in_file_when_redirection_ends() throws Exception {
+    BuildLogs underTest = new BuildLogs(10);
+
+    File file = underTest.redirectToFile();
+    Files.write(file.toPath(), "a large line\n".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+    underTest.endRedirect();
+
+    assertThat(underTest.isSpilled()).isTrue();
+    assertThat(file).exists();
+    assertThat(lines(underTest, 0, 1)).containsExactly("a large line");
+  }
+
+  @Test
+  public void delete_file_of_logs_once_they_are_garbage_collected() throws Exception {
+    File file = spilledLogsFile();
+
+    for (int i = 0; i < 100 && file.exists(); i++) {
+      System.gc();
+      Thread.sleep(50L);
+      // cleans the files of released logs
+      new BuildLogs(10);
+    }
+    assertThat(file).doesNotExist();
+  }
+
+  private static File spilledLogsFile() throws Exception {
+    BuildLogs logs = new BuildLogs(10);
+    logs.write("large logs moved to file\n");
+    return logs.redirectToFile();
+  }
+
+  @Test
+  public void no_lines_if_empty() {
+    BuildLogs underTest = new BuildLogs(10);
+
+    assertThat(underTest.getLineCount()).isZero();
+    assertThat(underTest.getContent()).isEmpty();
+    assertThat(lines(underTest, 0, 10)).isEmpty();
+  }
+
+  private static List<String> lines(BuildLogs logs, int from, int to) {
+    List<String> lines = new ArrayList<>();
+    logs.forEachLine(from, to, lines::add);
+    return lines;
+  }
+}
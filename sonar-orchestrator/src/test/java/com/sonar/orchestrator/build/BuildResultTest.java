@@ -42,4 +42,27 @@ public class BuildResultTest {
       .containsExactly("Hello,", "Goodbye now.");
   }
 
+  @Test
+  public void filter_lines_like_split_of_logs() throws Exception {
+    BuildResult buildResult = new BuildResult();
+    buildResult.getLogsWriter().append("\n\nfoo\r\nbar\rbaz\n\n\r\n");
+
+    assertThat(buildResult.getLogsLines(s -> true)).containsExactly("", "", "foo", "bar", "baz");
+    assertThat(new BuildResult().getLogsLines(s -> true)).containsExactly("");
+  }
+
+  @Test
+  public void get_last_lines_and_ranges_of_lines() throws Exception {
+    BuildResult buildResult = new BuildResult(new BuildLogs(10));
+    Writer writer = buildResult.getLogsWriter();
+    for (int i = 0; i < 10; i++) {
+      writer.append("line ").append(String.valueOf(i)).append("\n");
+    }
+
+    assertThat(buildResult.getLogsLineCount()).isEqualTo(10);
+    assertThat(buildResult.getLastLogsLines(2)).containsExactly("line 8", "line 9");
+    assertThat(buildResult.getLastLogsLines(100)).hasSize(10);
+    assertThat(buildResult.getLogsLines(3, 5)).containsExactly("line 3", "line 4");
+    assertThat(buildResult.getLogsLines(s -> s.endsWith("7"))).containsExactly("line 7");
+  }
 }
@@ -61,8 +61,8 @@ public class GradleBuildExecutorTest {
 
     new GradleBuildExecutor(os).execute(build, Configuration.create(), props, executor);
 
-    verify(executor).execute(argThat(gradlewMatcher(projectDir.getFile(), "gradlew", "clean")), any(), eq(30000L));
-    verify(executor).execute(argThat(gradlewMatcher(projectDir.getFile(), "gradlew", "sonarqube")), any(), eq(30000L));
+    verify(executor).execute(argThat(gradlewMatcher(projectDir.getFile(), "gradlew", "clean")), any(StreamConsumer.class), eq(30000L));
+    verify(executor).execute(argThat(gradlewMatcher(projectDir.getFile(), "gradlew", "sonarqube")), any(StreamConsumer.class), eq(30000L));
   }
 
   @Test
@@ -84,8 +84,8 @@ public class GradleBuildExecutorTest {
 
     new GradleBuildExecutor(os).execute(build, Configuration.create(), props, executor);
 
-    verify(executor).execute(argThat(gradlewMatcher(projectDir.getFile(), "gradlew.bat", "clean")), any(), eq(30000L));
-    verify(executor).execute(argThat(gradlewMatcher(projectDir.getFile(), "gradlew.bat", "sonarqube")), any(), eq(30000L));
+    verify(executor).execute(argThat(gradlewMatcher(projectDir.getFile(), "gradlew.bat", "clean")), any(StreamConsumer.class), eq(30000L));
+    verify(executor).execute(argThat(gradlewMatcher(projectDir.getFile(), "gradlew.bat", "sonarqube")), any(StreamConsumer.class), eq(30000L));
   }
 
   private ArgumentMatcher<Command> gradlewMatcher(File workingDirectory, String gradlewName, String task) {
@@ -24,6 +24,7 @@ import com.sonar.orchestrator.locator.FileLocation;
 import com.sonar.orchestrator.locator.Location;
 import com.sonar.orchestrator.util.Command;
 import com.sonar.orchestrator.util.CommandExecutor;
+import com.sonar.orchestrator.util.StreamConsumer;
 import java.io.File;
 import java.util.HashMap;
 import java.util.Map;
@@ -35,12 +36,14 @@ import org.junit.rules.TemporaryFolder;
 import org.mockito.ArgumentMatcher;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.argThat;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
 
 public class MavenBuildExecutorTest {
@@ -211,12 +214,119 @@ public class MavenBuildExecutorTest {
     props.put("sonar.jdbc.dialect", "h2");
 
     CommandExecutor executor = mock(CommandExecutor.class);
-    when(executor.execute(any(), any(), anyLong())).thenReturn(2);
+    when(executor.execute(any(Command.class), any(StreamConsumer.class), anyLong())).thenReturn(2);
 
     new MavenBuildExecutor().execute(build, Configuration.create(), props, executor);
 
-    verify(executor).execute(argThat(mvnMatcher(pom, "clean")), any(), eq(30000L));
-    verify(executor).execute(argThat(mvnMatcher(pom, "sonar:sonar")), any(), eq(30000L));
+    verify(executor).execute(argThat(mvnMatcher(pom, "clean")), any(StreamConsumer.class), eq(30000L));
+    verify(executor).execute(argThat(mvnMatcher(pom, "sonar:sonar")), any(StreamConsumer.class), eq(30000L));
+  }
+
+  @Test
+  public void execute_goals_in_single_invocation() throws Exception {
+    File pom = new File(getClass().getResource("/com/sonar/orchestrator/build/MavenBuildTest/pom.xml").toURI());
+    MavenBuild build = MavenBuild.create(pom)
+      .addGoal("clean install")
+      .addSonarGoal()
+      .setDebugLogs(true)
+      .setTimeoutSeconds(30);
+    Configuration config = Configuration.builder().setProperty("orchestrator.maven.singleInvocation", "true").build();
+
+    CommandExecutor executor = mock(CommandExecutor.class);
+    when(executor.execute(any(Command.class), any(StreamConsumer.class), anyLong())).thenReturn(2);
+
+    BuildResult result = new MavenBuildExecutor().execute(build, config, new TreeMap<>(), executor);
+
+    verify(executor).execute(argThat(mvnMatcher(pom, "clean install sonar:sonar")), any(StreamConsumer.class), eq(30000L));
+    verifyNoMoreInteractions(executor);
+    // one status per goal, the status of the invocation
+    assertThat(result.getStatuses()).containsExactly(2, 2);
+    assertThat(result.isSuccess()).isFalse();
+  }
+
+  @Test
+  public void do_not_chain_goals_having_arguments() throws Exception {
+    File pom = new File(getClass().getResource("/com/sonar/orchestrator/build/MavenBuildTest/pom.xml").toURI());
+    MavenBuild build = MavenBuild.create(pom)
+      .addGoal("clean install -DskipTests")
+      .addSonarGoal()
+      .setDebugLogs(true)
+      .setTimeoutSeconds(30);
+    Configuration config = Configuration.builder().setProperty("orchestrator.maven.singleInvocation", "true").build();
+
+    CommandExecutor executor = mock(CommandExecutor.class);
+    when(executor.execute(any(Command.class), any(StreamConsumer.class), anyLong())).thenReturn(0);
+
+    BuildResult result = new MavenBuildExecutor().execute(build, config, new TreeMap<>(), executor);
+
+    verify(executor).execute(argThat(mvnMatcher(pom, "clean install -DskipTests")), any(StreamConsumer.class), eq(30000L));
+    verify(executor).execute(argThat(mvnMatcher(pom, "sonar:sonar")), any(StreamConsumer.class), eq(30000L));
+    assertThat(result.getStatuses()).containsExactly(0, 0);
+  }
+
+  @Test
+  public void default_maven_daemon_is_in_PATH() throws Exception {
+    emulateLinux();
+    Configuration configuration = Configuration.builder().setProperty("orchestrator.maven.daemon", "true").build();
+
+    assertThat(underTest.buildMvnPath(configuration)).isEqualTo("mvnd");
+  }
+
+  @Test
+  public void configure_MVND_HOME_on_windows() throws Exception {
+    emulateWindows();
+    File home = temp.newFolder();
+    Configuration configuration = Configuration.builder()
+      .setProperty("orchestrator.maven.daemon", "true")
+      .setProperty("MVND_HOME", home.getCanonicalPath())
+      .build();
+
+    assertThat(underTest.buildMvnPath(configuration)).isEqualTo(new File(home, "bin/mvnd.cmd").getCanonicalPath());
+  }
+
+  @Test
+  public void search_maven_daemon_in_maven_home() throws Exception {
+    emulateLinux();
+    File home = temp.newFolder();
+    FileUtils.touch(new File(home, "bin/mvnd"));
+    Configuration configuration = Configuration.builder()
+      .setProperty("orchestrator.maven.daemon", "true")
+      .setProperty("MAVEN_HOME", home.getCanonicalPath())
+      .build();
+
+    assertThat(underTest.buildMvnPath(configuration)).isEqualTo(new File(home, "bin/mvnd").getCanonicalPath());
+  }
+
+  @Test
+  public void fail_if_maven_binary_is_set_with_maven_daemon() throws Exception {
+    File pom = new File(getClass().getResource("/com/sonar/orchestrator/build/MavenBuildTest/pom.xml").toURI());
+    MavenBuild build = MavenBuild.create(pom).addGoal("install");
+    Configuration config = Configuration.builder()
+      .setProperty("orchestrator.maven.daemon", "true")
+      .setProperty("maven.binary", "mvnDebug")
+      .build();
+    CommandExecutor executor = mock(CommandExecutor.class);
+
+    assertThatThrownBy(() -> underTest.execute(build, config, new TreeMap<>(), executor))
+      .isInstanceOf(IllegalStateException.class)
+      .hasMessage("Property maven.binary is not supported by the Maven Daemon (property orchestrator.maven.daemon)");
+    verifyNoMoreInteractions(executor);
+  }
+
+  @Test
+  public void fail_if_coverage_is_enabled_with_maven_daemon() throws Exception {
+    File pom = new File(getClass().getResource("/com/sonar/orchestrator/build/MavenBuildTest/pom.xml").toURI());
+    MavenBuild build = MavenBuild.create(pom).addGoal("install");
+    Configuration config = Configuration.builder()
+      .setProperty("orchestrator.maven.daemon", "true")
+      .setProperty("orchestrator.computeCoverage", "true")
+      .build();
+    CommandExecutor executor = mock(CommandExecutor.class);
+
+    assertThatThrownBy(() -> underTest.execute(build, config, new TreeMap<>(), executor))
+      .isInstanceOf(IllegalStateException.class)
+      .hasMessageStartingWith("Coverage is not supported by the Maven Daemon (property orchestrator.maven.daemon)");
+    verifyNoMoreInteractions(executor);
   }
 
   private ArgumentMatcher<Command> mvnMatcher(final File pom, final String goal) {
@@ -145,7 +145,7 @@ public class ScannerForMSBuildExecutorTest {
     ScannerForMSBuildInstaller installer = mock(ScannerForMSBuildInstaller.class);
     when(installer.install(isNull(), isNull(), any(), eq(false))).thenReturn(new File("SonarScanner.MSBuild.exe"));
     CommandExecutor executor = mock(CommandExecutor.class);
-    when(executor.execute(any(Command.class), any(), anyLong())).thenThrow(new CommandException(mock(Command.class), new Exception("Error")));
+    when(executor.execute(any(Command.class), any(StreamConsumer.class), anyLong())).thenThrow(new CommandException(mock(Command.class), new Exception("Error")));
 
     new ScannerForMSBuildExecutor().execute(build, Configuration.create(), props, installer, executor);
   }
@@ -160,11 +160,11 @@ public class ScannerForMSBuildExecutorTest {
     ScannerForMSBuildInstaller installer = mock(ScannerForMSBuildInstaller.class);
     when(installer.install(isNull(), isNull(), any(), eq(false))).thenReturn(new File("SonarScanner.MSBuild.exe"));
     CommandExecutor executor = mock(CommandExecutor.class);
-    when(executor.execute(any(Command.class), any(), anyLong())).thenReturn(2);
+    when(executor.execute(any(Command.class), any(StreamConsumer.class), anyLong())).thenReturn(2);
 
     new ScannerForMSBuildExecutor().execute(build, Configuration.create(), props, installer, executor);
 
     verify(executor).execute(argThat(c -> c.getDirectory().equals(new File("."))
-      && c.toCommandLine().contains("SonarScanner.MSBuild.exe")), any(), eq(30000L));
+      && c.toCommandLine().contains("SonarScanner.MSBuild.exe")), any(StreamConsumer.class), eq(30000L));
   }
 }
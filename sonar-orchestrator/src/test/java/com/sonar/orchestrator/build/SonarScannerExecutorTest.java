@@ -21,15 +21,27 @@ package com.sonar.orchestrator.build;
 
 import com.sonar.orchestrator.config.Configuration;
 import com.sonar.orchestrator.util.Command;
+import com.sonar.orchestrator.util.CommandException;
 import com.sonar.orchestrator.util.CommandExecutor;
 import com.sonar.orchestrator.util.StreamConsumer;
 import com.sonar.orchestrator.version.Version;
 import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.TimeoutException;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang.SystemUtils;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.argThat;
@@ -39,6 +51,10 @@ import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class SonarScannerExecutorTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
   @Test
   public void execute_command() {
     SonarRunner build = SonarRunner.create()
@@ -62,7 +78,7 @@ public class SonarScannerExecutorTest {
       && c.toCommandLine().contains("sonar-runner")
       && c.toCommandLine().contains("-X")
       && c.toCommandLine().contains("-Dsonar.jdbc.dialect")
-      && c.toCommandLine().contains("-Dsonar.projectKey")), any(), eq(30000L));
+      && c.toCommandLine().contains("-Dsonar.projectKey")), any(StreamConsumer.class), eq(30000L));
   }
 
   @Test
@@ -95,7 +111,7 @@ public class SonarScannerExecutorTest {
         && c.toCommandLine().contains("-e")
         && c.toCommandLine().contains("-Dsonar.jdbc.dialect")
         && c.toCommandLine().contains("-Dsonar.projectKey");
-    }), any(), eq(30000L));
+    }), any(StreamConsumer.class), eq(30000L));
   }
 
   @Test
@@ -121,7 +137,7 @@ public class SonarScannerExecutorTest {
       && c.toCommandLine().contains("sonar-runner")
       && c.toCommandLine().contains("-Dsonar.jdbc.dialect")
       && c.toCommandLine().contains("-Dsonar.projectKey")
-      && c.toCommandLine().contains("-Dsonar.task")), any(), eq(30000L));
+      && c.toCommandLine().contains("-Dsonar.task")), any(StreamConsumer.class), eq(30000L));
   }
 
   @Test
@@ -142,7 +158,7 @@ public class SonarScannerExecutorTest {
 
     verify(executor).execute(argThat(c -> c.getDirectory().equals(new File("."))
       && c.toCommandLine().contains("sonar-runner.sh")
-      && c.toCommandLine().contains("--help")), any(), eq(30000L));
+      && c.toCommandLine().contains("--help")), any(StreamConsumer.class), eq(30000L));
   }
 
   @Test
@@ -162,4 +178,110 @@ public class SonarScannerExecutorTest {
     new SonarScannerExecutor().execute(build, Configuration.create(), props, installer, executor);
     verify(installer).install(eq(build.scannerVersion()), eq(classifier), any(), eq(false));
   }
+
+  @Test
+  public void share_class_data_of_scanner_jvm_between_analyses() throws Exception {
+    Configuration config = newAppCdsConfiguration();
+    SonarScannerInstaller installer = newInstaller();
+    CommandExecutor executor = mock(CommandExecutor.class);
+    List<String> opts = new ArrayList<>();
+    when(executor.execute(any(Command.class), any(StreamConsumer.class), anyLong())).thenAnswer(invocation -> {
+      String scannerOpts = invocation.getArgument(0, Command.class).getEnvironmentVariables().get("SONAR_SCANNER_OPTS");
+      opts.add(scannerOpts);
+      dumpArchiveIfRequested(scannerOpts);
+      return 0;
+    });
+    SonarScannerExecutor underTest = new SonarScannerExecutor(java -> true);
+
+    underTest.execute(newScanner(), config, new TreeMap<>(), installer, executor);
+    underTest.execute(newScanner(), config, new TreeMap<>(), installer, executor);
+
+    File appCdsDir = new File(config.fileSystem().getCacheDir(), "appcds");
+    assertThat(opts.get(0)).startsWith("-Xmx512m -XX:ArchiveClassesAtExit=" + appCdsDir.getAbsolutePath()).endsWith(".jsa.tmp");
+    assertThat(opts.get(1)).startsWith("-Xmx512m -XX:SharedArchiveFile=" + appCdsDir.getAbsolutePath()).endsWith("scanner.jsa");
+    assertThat(new File(opts.get(1).substring(opts.get(1).indexOf('=') + 1))).isFile();
+  }
+
+  @Test
+  public void drop_class_data_dumped_by_scanner_killed_on_timeout() throws Exception {
+    Configuration config = newAppCdsConfiguration();
+    SonarScannerInstaller installer = newInstaller();
+    CommandExecutor executor = mock(CommandExecutor.class);
+    List<String> opts = new ArrayList<>();
+    when(executor.execute(any(Command.class), any(StreamConsumer.class), anyLong())).thenAnswer(invocation -> {
+      Command command = invocation.getArgument(0, Command.class);
+      String scannerOpts = command.getEnvironmentVariables().get("SONAR_SCANNER_OPTS");
+      opts.add(scannerOpts);
+      dumpArchiveIfRequested(scannerOpts);
+      throw new CommandException(command, "Timeout exceeded", new TimeoutException());
+    });
+    SonarScannerExecutor underTest = new SonarScannerExecutor(java -> true);
+
+    assertThatThrownBy(() -> underTest.execute(newScanner(), config, new TreeMap<>(), installer, executor))
+      .isInstanceOf(IllegalStateException.class);
+    assertThatThrownBy(() -> underTest.execute(newScanner(), config, new TreeMap<>(), installer, executor))
+      .isInstanceOf(IllegalStateException.class);
+
+    assertThat(opts).allMatch(o -> o.contains("-XX:ArchiveClassesAtExit="));
+    assertThat(FileUtils.listFiles(new File(config.fileSystem().getCacheDir(), "appcds"), null, true)).isEmpty();
+  }
+
+  @Test
+  public void do_not_share_class_data_if_java_does_not_support_it() throws Exception {
+    Configuration config = newAppCdsConfiguration();
+    SonarScannerInstaller installer = newInstaller();
+    CommandExecutor executor = mock(CommandExecutor.class);
+
+    new SonarScannerExecutor(java -> false).execute(newScanner(), config, new TreeMap<>(), installer, executor);
+
+    verify(executor).execute(argThat(c -> c.getEnvironmentVariables().get("SONAR_SCANNER_OPTS").equals("-Xmx512m")),
+      any(StreamConsumer.class), eq(30000L));
+  }
+
+  @Test
+  public void java_of_scanner_is_searched_in_embedded_jre_then_in_java_home() throws Exception {
+    File scannerHome = temp.newFolder();
+    String executable = SystemUtils.IS_OS_WINDOWS ? "java.exe" : "java";
+    File javaHome = temp.newFolder();
+
+    assertThat(SonarScannerExecutor.javaExecutableOf(scannerHome, Collections.emptyMap())).isEqualTo(executable);
+    assertThat(SonarScannerExecutor.javaExecutableOf(scannerHome, Collections.singletonMap("JAVA_HOME", javaHome.getAbsolutePath())))
+      .isEqualTo(new File(javaHome, "bin/" + executable).getAbsolutePath());
+
+    File embeddedJava = new File(scannerHome, "jre/bin/" + executable);
+    FileUtils.touch(embeddedJava);
+    assertThat(SonarScannerExecutor.javaExecutableOf(scannerHome, Collections.singletonMap("JAVA_HOME", javaHome.getAbsolutePath())))
+      .isEqualTo(embeddedJava.getAbsolutePath());
+  }
+
+  private Configuration newAppCdsConfiguration() throws IOException {
+    return Configuration.builder()
+      .setProperty("orchestrator.home", temp.newFolder())
+      .setProperty("orchestrator.scanner.appCds", "true")
+      .build();
+  }
+
+  private SonarScannerInstaller newInstaller() throws IOException {
+    File scannerHome = temp.newFolder();
+    FileUtils.write(new File(scannerHome, "lib/sonar-scanner-cli.jar"), "jar", StandardCharsets.UTF_8);
+    SonarScannerInstaller installer = mock(SonarScannerInstaller.class);
+    when(installer.install(any(Version.class), any(), any(File.class), eq(false))).thenReturn(new File(scannerHome, "bin/sonar-scanner"));
+    return installer;
+  }
+
+  private static SonarScanner newScanner() {
+    return SonarScanner.create()
+      .setProjectDir(new File("."))
+      .setTimeoutSeconds(30)
+      .setEnvironmentVariable("SONAR_SCANNER_OPTS", "-Xmx512m");
+  }
+
+  // the JVM writes the archive when it exits
+  private static void dumpArchiveIfRequested(String scannerOpts) throws IOException {
+    String option = "-XX:ArchiveClassesAtExit=";
+    int index = scannerOpts.indexOf(option);
+    if (index >= 0) {
+      FileUtils.write(new File(scannerOpts.substring(index + option.length())), "archive", StandardCharsets.UTF_8);
+    }
+  }
 }
@@ -0,0 +1,187 @@
+/*
+ * Orchestrator
+ * Copyright (C) 2011-2024 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.sonar.orchestrator.config;
+
+import com.sonar.orchestrator.util.DirectoryLock;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang.SystemUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assume.assumeFalse;
+
+public class DiskGarbageCollectorTest {
+
+  private static final long NOW = TimeUnit.DAYS.toMillis(100);
+  private static final long ONE_DAY_AGO = NOW - TimeUnit.DAYS.toMillis(1);
+  private static final long TEN_DAYS_AGO = NOW - TimeUnit.DAYS.toMillis(10);
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  private File workspace;
+  private File cacheDir;
+
+  @Before
+  public void setUp() throws IOException {
+    workspace = temp.newFolder();
+    cacheDir = temp.newFolder();
+  }
+
+  @Test
+  public void delete_server_homes_that_are_not_locked() throws IOException {
+    File unlocked = createEntry(workspace, "1", 10, TEN_DAYS_AGO);
+    File locked = createEntry(workspace, "2", 10, TEN_DAYS_AGO);
+    File otherDir = createEntry(workspace, "classes", 10, TEN_DAYS_AGO);
+    try (DirectoryLock lock = DirectoryLock.tryLock(new File(workspace, "2.lock"))) {
+      long reclaimed = newCollector(Long.MAX_VALUE).collect();
+
+      assertThat(reclaimed).isEqualTo(10L);
+    }
+    assertThat(unlocked).doesNotExist();
+    assertThat(locked).exists();
+    assertThat(otherDir).exists();
+  }
+
+  @Test
+  public void delete_reusable_server_homes_that_are_not_used_anymore() throws IOException {
+    File recent = createEntry(workspace, "home-0123456789abcdef", 10, ONE_DAY_AGO);
+    File old = createEntry(workspace, "home-fedcba9876543210", 10, TEN_DAYS_AGO);
+
+    newCollector(Long.MAX_VALUE).collect();
+
+    assertThat(recent).exists();
+    assertThat(old).doesNotExist();
+  }
+
+  @Test
+  public void delete_leftovers_of_downloads() throws IOException {
+    File tempDownloads = new File(workspace, "temp-downloads");
+    File old = createFile(tempDownloads, "old.jar", 10, ONE_DAY_AGO);
+    File inProgress = createFile(tempDownloads, "in-progress.jar", 10, NOW);
+
+    newCollector(Long.MAX_VALUE).collect();
+
+    assertThat(old).doesNotExist();
+    assertThat(inProgress).exists();
+  }
+
+  @Test
+  public void delete_checkpoints_that_are_not_locked() throws IOException {
+    File checkpoints = new File(workspace, "checkpoints");
+    File unlocked = createEntry(checkpoints, "abc", 10, NOW);
+    File locked = createEntry(checkpoints, "def", 10, TEN_DAYS_AGO);
+    try (DirectoryLock lock = DirectoryLock.tryLock(new File(checkpoints, "def.lock"))) {
+      newCollector(Long.MAX_VALUE).collect();
+    }
+
+    assertThat(unlocked).doesNotExist();
+    assertThat(locked).exists();
+  }
+
+  @Test
+  public void evict_least_recently_used_cache_entries_when_exceeding_budget() throws IOException {
+    File oldest = createEntry(cacheDir, "aaa", 10, TEN_DAYS_AGO);
+    File old = createEntry(new File(cacheDir, "distributions"), "bbb", 10, TEN_DAYS_AGO + 1);
+    File recent = createEntry(cacheDir, "ccc", 10, ONE_DAY_AGO);
+    File inUse = createEntry(cacheDir, "ddd", 10, NOW);
+
+    long reclaimed = newCollector(25L).collect();
+
+    assertThat(reclaimed).isEqualTo(20L);
+    assertThat(oldest).doesNotExist();
+    assertThat(old).doesNotExist();
+    assertThat(recent).exists();
+    assertThat(inUse).exists();
+  }
+
+  @Test
+  public void never_evict_cache_entries_accessed_recently() throws IOException {
+    File inUse = createEntry(cacheDir, "aaa", 10, NOW);
+
+    long reclaimed = newCollector(0L).collect();
+
+    assertThat(reclaimed).isZero();
+    assertThat(inUse).exists();
+  }
+
+  @Test
+  public void keep_extracted_distributions_that_are_locked() throws IOException {
+    File distributions = new File(cacheDir, "distributions");
+    File locked = createEntry(distributions, "abc", 10, TEN_DAYS_AGO);
+    File unlocked = createEntry(distributions, "def", 10, TEN_DAYS_AGO);
+    try (DirectoryLock lock = DirectoryLock.tryLockShared(new File(distributions, "abc.lock"))) {
+      long reclaimed = newCollector(0L).collect();
+
+      assertThat(reclaimed).isEqualTo(10L);
+    }
+    assertThat(locked).exists();
+    assertThat(unlocked).doesNotExist();
+
+    newCollector(0L).collect();
+    assertThat(locked).doesNotExist();
+  }
+
+  @Test
+  public void do_not_count_hard_linked_files_in_reclaimed_bytes() throws IOException {
+    assumeFalse(SystemUtils.IS_OS_WINDOWS);
+    File home = createEntry(workspace, "1", 10, TEN_DAYS_AGO);
+    File jar = createFile(temp.newFolder(), "foo.jar", 100, TEN_DAYS_AGO);
+    Files.createLink(new File(home, "foo.jar").toPath(), jar.toPath());
+
+    long reclaimed = newCollector(Long.MAX_VALUE).collect();
+
+    assertThat(reclaimed).isEqualTo(10L);
+    assertThat(home).doesNotExist();
+    assertThat(jar).exists();
+  }
+
+  @Test
+  public void is_disabled_by_default() {
+    assertThat(DiskGarbageCollector.isEnabled(Configuration.create())).isFalse();
+    assertThat(DiskGarbageCollector.isEnabled(Configuration.builder().setProperty(DiskGarbageCollector.ENABLED_PROPERTY, "true").build())).isTrue();
+  }
+
+  private DiskGarbageCollector newCollector(long cacheMaxSize) {
+    return new DiskGarbageCollector(workspace, cacheDir, cacheMaxSize, TimeUnit.DAYS.toMillis(7), NOW);
+  }
+
+  private static File createEntry(File parentDir, String name, int size, long lastModified) throws IOException {
+    File dir = new File(parentDir, name);
+    createFile(dir, "file", size, lastModified);
+    dir.setLastModified(lastModified);
+    return dir;
+  }
+
+  private static File createFile(File dir, String name, int size, long lastModified) throws IOException {
+    File file = new File(dir, name);
+    FileUtils.write(file, new String(new char[size]).replace('\0', 'a'), UTF_8);
+    file.setLastModified(lastModified);
+    return file;
+  }
+}
@@ -23,9 +23,14 @@ import com.sonar.orchestrator.locator.FileLocation;
 import com.sonar.orchestrator.locator.Locators;
 import com.sonar.orchestrator.version.Version;
 import java.io.File;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
 import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
 import javax.annotation.Nullable;
 import okhttp3.HttpUrl;
+import okhttp3.mockwebserver.Dispatcher;
 import okhttp3.mockwebserver.MockResponse;
 import okhttp3.mockwebserver.MockWebServer;
 import okhttp3.mockwebserver.RecordedRequest;
@@ -130,6 +135,78 @@ public class ServerTest {
     assertThat(receivedRequest.getBody().readUtf8()).isEqualTo("project=foo&language=bar&qualityProfile=baz");
   }
 
+  @Test
+  public void deleteAllProjects_deletes_projects_by_batches() {
+    FakeProjectsDispatcher projects = new FakeProjectsDispatcher(1_200, false);
+    server.setDispatcher(projects);
+    Server underTest = newServerForUrl(this.server.url("").toString());
+
+    underTest.deleteAllProjects();
+
+    assertThat(projects.keys).isEmpty();
+    // 3 batches of deletion, each one followed by a search
+    assertThat(server.getRequestCount()).isEqualTo(7);
+  }
+
+  @Test
+  public void deleteAllProjects_does_nothing_if_no_projects() {
+    server.setDispatcher(new FakeProjectsDispatcher(0, false));
+    Server underTest = newServerForUrl(this.server.url("").toString());
+
+    underTest.deleteAllProjects();
+
+    assertThat(server.getRequestCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void deleteAllProjects_fails_if_projects_are_not_deleted() {
+    server.setDispatcher(new FakeProjectsDispatcher(3, true));
+    Server underTest = newServerForUrl(this.server.url("").toString());
+
+    expectedException.expect(IllegalStateException.class);
+    expectedException.expectMessage("Fail to delete projects. 3 projects remaining.");
+    underTest.deleteAllProjects();
+  }
+
+  /**
+   * Emulates api/projects/search and api/projects/bulk_delete, including the parameters required by bulk_delete.
+   */
+  private static class FakeProjectsDispatcher extends Dispatcher {
+    private final Set<String> keys = new LinkedHashSet<>();
+    private final boolean ignoreDeletions;
+
+    FakeProjectsDispatcher(int projects, boolean ignoreDeletions) {
+      for (int i = 0; i < projects; i++) {
+        keys.add("project" + i);
+      }
+      this.ignoreDeletions = ignoreDeletions;
+    }
+
+    @Override
+    public synchronized MockResponse dispatch(RecordedRequest request) {
+      HttpUrl url = request.getRequestUrl();
+      if (url.encodedPath().equals("/api/projects/search")) {
+        int pageSize = Integer.parseInt(url.queryParameter("ps"));
+        String components = keys.stream().limit(pageSize).map(key -> "{\"key\":\"" + key + "\"}").collect(Collectors.joining(","));
+        return new MockResponse().setBody("{\"paging\":{\"pageIndex\":1,\"pageSize\":" + pageSize + ",\"total\":" + keys.size() + "},"
+          + "\"components\":[" + components + "]}");
+      }
+      if (url.encodedPath().equals("/api/projects/bulk_delete") && request.getMethod().equals("POST")) {
+        HttpUrl form = HttpUrl.parse("http://localhost/?" + request.getBody().readUtf8());
+        String projects = form.queryParameter("projects");
+        if (projects == null && form.queryParameter("q") == null && form.queryParameter("analyzedBefore") == null) {
+          return new MockResponse().setResponseCode(400)
+            .setBody("{\"errors\":[{\"msg\":\"At least one parameter among analyzedBefore, projects and q must be provided\"}]}");
+        }
+        if (!ignoreDeletions && projects != null) {
+          keys.removeAll(Arrays.asList(projects.split(",")));
+        }
+        return new MockResponse().setResponseCode(204);
+      }
+      return new MockResponse().setResponseCode(404);
+    }
+  }
+
   private Server newServerForUrl(String url) {
     return newServerForUrl(url, randomPort, null);
   }
@@ -116,4 +116,26 @@ public class SonarDistributionTest {
     distribution.setForceDefaultAdminCredentialsRedirect(false);
     assertThat(distribution.isForceDefaultAdminCredentialsRedirect()).isFalse();
   }
+
+  @Test
+  public void copy_is_independent_from_original() {
+    SonarDistribution distribution = new SonarDistribution()
+      .setVersion("10.0")
+      .setEdition(DATACENTER)
+      .setServerProperty("foo", "bar")
+      .addPluginLocation(MavenLocation.create("org.sonarsource.java", "sonar-java-plugin", "1.0"))
+      .addBundledPluginToKeep("sonar-java");
+
+    SonarDistribution copy = distribution.copy()
+      .setServerProperty("foo", "baz")
+      .addBundledPluginToKeep("sonar-xml");
+
+    assertThat(copy.getVersion()).hasValue("10.0");
+    assertThat(copy.getEdition()).isEqualTo(DATACENTER);
+    assertThat(copy.getPluginLocations()).hasSize(1);
+    assertThat(copy.getServerProperty("foo")).isEqualTo("baz");
+    assertThat(copy.getBundledPluginNamePrefixesToKeep()).containsOnly("sonar-java", "sonar-xml");
+    assertThat(distribution.getServerProperty("foo")).isEqualTo("bar");
+    assertThat(distribution.getBundledPluginNamePrefixesToKeep()).containsOnly("sonar-java");
+  }
 }
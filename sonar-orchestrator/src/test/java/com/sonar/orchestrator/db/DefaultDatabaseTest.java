@@ -264,4 +264,10 @@ public class DefaultDatabaseTest {
       connection.close();
     }
   }
+
+  @Test
+  public void only_h2_is_stored_in_server_home() {
+    assertThat(db.isStoredInServerHome()).isTrue();
+    assertThat(new DefaultDatabase(PostgreSql.builder().build()).isStoredInServerHome()).isFalse();
+  }
 }
@@ -19,8 +19,11 @@
  */
 package com.sonar.orchestrator.http;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.util.ArrayList;
 import java.util.Base64;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 import okhttp3.mockwebserver.MockResponse;
 import okhttp3.mockwebserver.MockWebServer;
@@ -432,6 +435,36 @@ public class HttpCallTest {
     }
   }
 
+  @Test
+  public void downloadToDir_writes_content_to_tee() throws Exception {
+    server.enqueue(new MockResponse().setBody(PONG).setHeader("Content-Disposition", "attachment; filename=foo.jar"));
+    File dir = temp.newFolder();
+    ByteArrayOutputStream tee = new ByteArrayOutputStream();
+
+    newCall("api/system/ping").downloadToDirectory(dir, () -> tee);
+
+    assertThat(new File(dir, "foo.jar")).isFile().hasContent(PONG);
+    assertThat(tee.toString(UTF_8.name())).isEqualTo(PONG);
+  }
+
+  @Test
+  public void downloadToDir_writes_content_of_retry_to_new_tee() throws Exception {
+    server.enqueue(new MockResponse().setBody(PONG).setSocketPolicy(SocketPolicy.DISCONNECT_DURING_RESPONSE_BODY));
+    server.enqueue(new MockResponse().setBody(PONG).setHeader("Content-Disposition", "attachment; filename=foo.jar"));
+    File dir = temp.newFolder();
+    List<ByteArrayOutputStream> tees = new ArrayList<>();
+
+    newCall("api/system/ping").downloadToDirectory(dir, () -> {
+      ByteArrayOutputStream tee = new ByteArrayOutputStream();
+      tees.add(tee);
+      return tee;
+    });
+
+    assertThat(new File(dir, "foo.jar")).isFile().hasContent(PONG);
+    assertThat(tees).hasSize(2);
+    assertThat(tees.get(1).toString(UTF_8.name())).isEqualTo(PONG);
+  }
+
   @Test
   public void setTimeout_overrides_default_timeouts() throws Exception {
     server.enqueue(new MockResponse().setSocketPolicy(SocketPolicy.NO_RESPONSE));
@@ -0,0 +1,88 @@
+/*
+ * Orchestrator
+ * Copyright (C) 2011-2024 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.sonar.orchestrator.server;
+
+import com.sonar.orchestrator.util.DirectoryLock;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class DataCheckpointTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  @Test
+  public void restore_data_as_saved() throws IOException {
+    File home = temp.newFolder();
+    File db = new File(home, "data/sonar.mv.db");
+    File index = new File(home, "data/es7/nodes/0/segment");
+    FileUtils.write(db, "v1", StandardCharsets.UTF_8);
+    FileUtils.write(index, "v1", StandardCharsets.UTF_8);
+    DataCheckpoint underTest = new DataCheckpoint(home, new File(temp.getRoot(), "checkpoint"));
+
+    underTest.save();
+    FileUtils.write(db, "v2", StandardCharsets.UTF_8);
+    FileUtils.write(new File(home, "data/es7/nodes/0/new_segment"), "v2", StandardCharsets.UTF_8);
+    underTest.restore();
+
+    assertThat(db).hasContent("v1");
+    assertThat(index).hasContent("v1");
+    assertThat(new File(home, "data/es7/nodes/0/new_segment")).doesNotExist();
+
+    // checkpoint can be restored multiple times
+    FileUtils.write(db, "v3", StandardCharsets.UTF_8);
+    underTest.restore();
+    assertThat(db).hasContent("v1");
+  }
+
+  @Test
+  public void fail_to_restore_if_not_saved() throws IOException {
+    DataCheckpoint underTest = new DataCheckpoint(temp.newFolder(), new File(temp.getRoot(), "checkpoint"));
+
+    assertThatThrownBy(underTest::restore)
+      .isInstanceOf(IllegalStateException.class)
+      .hasMessageStartingWith("Checkpoint does not exist");
+  }
+
+  @Test
+  public void create_checkpoint_in_workspace_and_delete_it() throws IOException {
+    File workspace = temp.newFolder();
+    File home = new File(temp.newFolder(), "sonarqube");
+    FileUtils.write(new File(home, "data/sonar.mv.db"), "v1", StandardCharsets.UTF_8);
+    DataCheckpoint underTest = DataCheckpoint.create(workspace, home);
+
+    underTest.save();
+    File[] checkpoints = new File(workspace, DataCheckpoint.WORKSPACE_DIR).listFiles(File::isDirectory);
+    assertThat(checkpoints).hasSize(1);
+    assertThat(new File(checkpoints[0], "sonar.mv.db")).hasContent("v1");
+    assertThat(DirectoryLock.isLocked(new File(checkpoints[0].getPath() + ".lock"))).isTrue();
+
+    underTest.delete();
+    assertThat(new File(workspace, DataCheckpoint.WORKSPACE_DIR).list()).isEmpty();
+  }
+}
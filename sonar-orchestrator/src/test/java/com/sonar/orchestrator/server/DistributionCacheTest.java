@@ -0,0 +1,167 @@
+/*
+ * Orchestrator
+ * Copyright (C) 2011-2024 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.sonar.orchestrator.server;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class DistributionCacheTest {
+
+  private static final File ZIP = FileUtils.toFile(DistributionCacheTest.class.getResource("ServerInstallerTest/sonarqube-4.5.6-lite.zip"));
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  @Test
+  public void extract_zip_only_once() throws IOException {
+    File cacheDir = temp.newFolder();
+    DistributionCache underTest = new DistributionCache(cacheDir);
+
+    File pristineDir = underTest.getOrExtract(ZIP);
+    File marker = new File(pristineDir, "marker.txt");
+    FileUtils.write(marker, "marker", StandardCharsets.UTF_8);
+
+    assertThat(underTest.getOrExtract(ZIP)).isEqualTo(pristineDir);
+    assertThat(marker).exists();
+    assertThat(cacheDir.list()).containsExactly(DistributionCache.hashOf(ZIP));
+  }
+
+  @Test
+  public void install_materializes_the_extracted_distribution() throws IOException {
+    DistributionCache underTest = new DistributionCache(temp.newFolder());
+    File toDir = temp.newFolder();
+    FileUtils.deleteDirectory(toDir);
+
+    underTest.install(ZIP, toDir);
+
+    assertThat(new File(toDir, "sonarqube-4.5.6/conf/sonar.properties")).isFile();
+    assertThat(new File(toDir, "sonarqube-4.5.6/lib/sonar-application-4.5.6.jar")).isFile();
+    assertThat(new File(toDir, "sonarqube-4.5.6/logs")).isDirectory();
+  }
+
+  @Test
+  public void changes_in_installed_home_do_not_alter_cache() throws IOException {
+    DistributionCache underTest = new DistributionCache(temp.newFolder());
+    File toDir = temp.newFolder();
+
+    underTest.install(ZIP, toDir);
+    File pristineDir = underTest.getOrExtract(ZIP);
+    FileUtils.write(new File(toDir, "sonarqube-4.5.6/conf/sonar.properties"), "foo=bar", StandardCharsets.UTF_8);
+    FileUtils.forceDelete(new File(toDir, "sonarqube-4.5.6/lib/bundled-plugins/sonar-java-plugin-2.0.jar"));
+
+    assertThat(FileUtils.readFileToString(new File(pristineDir, "sonarqube-4.5.6/conf/sonar.properties"), StandardCharsets.UTF_8)).doesNotContain("foo=bar");
+    assertThat(new File(pristineDir, "sonarqube-4.5.6/lib/bundled-plugins/sonar-java-plugin-2.0.jar")).isFile();
+  }
+
+  @Test
+  public void reuse_distribution_extracted_while_downloading() throws IOException {
+    File cacheDir = temp.newFolder();
+    DistributionCache underTest = new DistributionCache(cacheDir);
+    File zip = temp.newFile("sonarqube.zip");
+    FileUtils.copyFile(ZIP, zip);
+
+    DistributionCache.StreamingExtraction extraction = underTest.extractWhileDownloading();
+    try (InputStream input = new FileInputStream(zip)) {
+      extraction.onDownload(input);
+    }
+    extraction.complete(zip);
+
+    String hash = DistributionCache.hashOf(zip);
+    assertThat(cacheDir.list()).containsExactly(hash);
+    assertThat(underTest.getOrExtract(zip)).isEqualTo(new File(cacheDir, hash));
+    assertThat(new File(cacheDir, hash + "/sonarqube-4.5.6/conf/sonar.properties")).isFile();
+  }
+
+  @Test
+  public void ignore_download_that_is_not_a_zip() throws IOException {
+    File cacheDir = temp.newFolder();
+    DistributionCache underTest = new DistributionCache(cacheDir);
+    File notZip = temp.newFile("not-a-zip.zip");
+    FileUtils.write(notZip, "not a zip", StandardCharsets.UTF_8);
+
+    DistributionCache.StreamingExtraction extraction = underTest.extractWhileDownloading();
+    try (InputStream input = new FileInputStream(notZip)) {
+      extraction.onDownload(input);
+    }
+    extraction.complete(notZip);
+
+    assertThat(cacheDir.list()).isEmpty();
+  }
+
+  @Test
+  public void delete_extraction_if_download_is_not_completed() throws IOException {
+    File cacheDir = temp.newFolder();
+    DistributionCache underTest = new DistributionCache(cacheDir);
+
+    try (DistributionCache.StreamingExtraction extraction = underTest.extractWhileDownloading();
+      InputStream input = new FileInputStream(ZIP)) {
+      extraction.onDownload(input);
+      assertThat(cacheDir.list()).hasSize(1);
+    }
+
+    assertThat(cacheDir.list()).isEmpty();
+  }
+
+  @Test
+  public void restart_extraction_when_download_is_retried() throws IOException {
+    File cacheDir = temp.newFolder();
+    DistributionCache underTest = new DistributionCache(cacheDir);
+    File zip = temp.newFile("sonarqube.zip");
+    FileUtils.copyFile(ZIP, zip);
+    byte[] content = FileUtils.readFileToByteArray(zip);
+
+    try (DistributionCache.StreamingExtraction extraction = underTest.extractWhileDownloading()) {
+      // first attempt is cut short
+      extraction.onDownload(new ByteArrayInputStream(content, 0, content.length / 2));
+      extraction.onDownload(new ByteArrayInputStream(content));
+      extraction.complete(zip);
+    }
+
+    String hash = DistributionCache.hashOf(zip);
+    assertThat(cacheDir.list()).containsExactly(hash);
+    assertThat(new File(cacheDir, hash + "/sonarqube-4.5.6/conf/sonar.properties")).isFile();
+  }
+
+  @Test
+  public void ignore_extraction_of_content_that_differs_from_downloaded_zip() throws IOException {
+    File cacheDir = temp.newFolder();
+    DistributionCache underTest = new DistributionCache(cacheDir);
+    byte[] content = FileUtils.readFileToByteArray(ZIP);
+    File zip = temp.newFile("sonarqube.zip");
+    FileUtils.writeByteArrayToFile(zip, content, 0, content.length - 1);
+
+    try (DistributionCache.StreamingExtraction extraction = underTest.extractWhileDownloading()) {
+      extraction.onDownload(new ByteArrayInputStream(content));
+      extraction.complete(zip);
+    }
+
+    assertThat(cacheDir.list()).isEmpty();
+  }
+}
@@ -0,0 +1,80 @@
+/*
+ * Orchestrator
+ * Copyright (C) 2011-2024 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.sonar.orchestrator.server;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class InstallPipelineTest {
+
+  @Test
+  public void execute_stages_after_their_dependencies() {
+    try (InstallPipeline pipeline = new InstallPipeline()) {
+      CompletableFuture<Integer> first = pipeline.supply("first", () -> 1);
+      CompletableFuture<Integer> second = pipeline.then("second", first, i -> i + 1);
+
+      assertThat(InstallPipeline.join(second)).isEqualTo(2);
+      assertThat(pipeline.getDurations()).containsOnlyKeys("first", "second");
+    }
+  }
+
+  @Test
+  public void join_throws_failure_of_stage() {
+    try (InstallPipeline pipeline = new InstallPipeline()) {
+      CompletableFuture<Void> failing = pipeline.run("failing", () -> {
+        throw new IllegalStateException("boom");
+      });
+      CompletableFuture<Integer> dependent = pipeline.then("dependent", failing, v -> 1);
+
+      assertThatThrownBy(() -> InstallPipeline.join(dependent))
+        .isInstanceOf(IllegalStateException.class)
+        .hasMessage("boom");
+      assertThat(pipeline.getDurations()).isEmpty();
+    }
+  }
+
+  @Test
+  public void joinAll_fails_without_waiting_for_other_stages() {
+    CountDownLatch blocked = new CountDownLatch(1);
+    try (InstallPipeline pipeline = new InstallPipeline()) {
+      CompletableFuture<Void> slow = pipeline.run("slow", () -> {
+        try {
+          blocked.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      });
+      CompletableFuture<Void> failing = pipeline.run("failing", () -> {
+        throw new IllegalStateException("boom");
+      });
+
+      assertThatThrownBy(() -> InstallPipeline.joinAll(slow, failing))
+        .isInstanceOf(IllegalStateException.class)
+        .hasMessage("boom");
+      assertThat(slow).isNotDone();
+    } finally {
+      blocked.countDown();
+    }
+  }
+}
@@ -0,0 +1,136 @@
+/*
+ * Orchestrator
+ * Copyright (C) 2011-2024 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.sonar.orchestrator.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Properties;
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ReusableServerHomeTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  private File workspace;
+  private File zip;
+
+  @Before
+  public void setUp() throws IOException {
+    workspace = temp.newFolder();
+    zip = temp.newFile("sonarqube-9.9.zip");
+  }
+
+  @Test
+  public void fingerprint_does_not_depend_on_order_of_prefixes() {
+    String fingerprint = ReusableServerHome.fingerprintOf(zip, false, Arrays.asList("sonar-java", "sonar-php"), new Properties());
+
+    assertThat(ReusableServerHome.fingerprintOf(zip, false, Arrays.asList("sonar-php", "sonar-java"), new Properties())).isEqualTo(fingerprint);
+    assertThat(ReusableServerHome.fingerprintOf(zip, true, Arrays.asList("sonar-php", "sonar-java"), new Properties())).isNotEqualTo(fingerprint);
+  }
+
+  @Test
+  public void fingerprint_depends_on_server_properties() {
+    Properties properties = new Properties();
+    properties.setProperty("sonar.foo", "bar");
+
+    assertThat(ReusableServerHome.fingerprintOf(zip, false, Collections.emptyList(), properties))
+      .isNotEqualTo(ReusableServerHome.fingerprintOf(zip, false, Collections.emptyList(), new Properties()));
+  }
+
+  @Test
+  public void home_can_not_be_locked_twice() {
+    ReusableServerHome home = ReusableServerHome.lock(workspace, "abc");
+
+    assertThat(home).isNotNull();
+    assertThat(home.getDir()).isEqualTo(new File(workspace, "home-abc"));
+    assertThat(home.isReusable()).isFalse();
+    assertThat(ReusableServerHome.lock(workspace, "abc")).isNull();
+  }
+
+  @Test
+  public void home_is_reusable_if_manifest_has_the_same_fingerprint() throws IOException {
+    FileUtils.write(new File(workspace, "home-abc/" + ReusableServerHome.MANIFEST_FILENAME), "fingerprint=abc", UTF_8);
+    FileUtils.write(new File(workspace, "home-def/" + ReusableServerHome.MANIFEST_FILENAME), "fingerprint=other", UTF_8);
+
+    assertThat(ReusableServerHome.lock(workspace, "abc").isReusable()).isTrue();
+    assertThat(ReusableServerHome.lock(workspace, "def").isReusable()).isFalse();
+    // manifest is written again only when installation is complete
+    assertThat(new File(workspace, "home-abc/" + ReusableServerHome.MANIFEST_FILENAME)).doesNotExist();
+  }
+
+  @Test
+  public void install_only_plugins_that_changed_since_previous_run() throws IOException {
+    File homeDir = new File(workspace, "home-abc/sonarqube");
+    ReusableServerHome firstRun = ReusableServerHome.lock(workspace, "abc");
+    firstRun.installPlugins(stagePlugins("unchanged.jar", "v1", "changed.jar", "v1", "removed.jar", "v1"), homeDir, "lib/extensions");
+    firstRun.storeManifest();
+    File unchanged = new File(homeDir, "lib/extensions/unchanged.jar");
+    unchanged.setLastModified(1_000L);
+
+    // locks are held until the JVM exits, so the next run is simulated in another workspace
+    File otherWorkspace = temp.newFolder();
+    FileUtils.copyDirectory(new File(workspace, "home-abc"), new File(otherWorkspace, "home-abc"), true);
+    ReusableServerHome secondRun = ReusableServerHome.lock(otherWorkspace, "abc");
+    File secondHomeDir = new File(secondRun.getDir(), "sonarqube");
+    secondRun.installPlugins(stagePlugins("unchanged.jar", "v1", "changed.jar", "v2", "added.jar", "v1"), secondHomeDir, "lib/extensions");
+
+    assertThat(new File(secondHomeDir, "lib/extensions").list()).containsOnly("unchanged.jar", "changed.jar", "added.jar");
+    assertThat(new File(secondHomeDir, "lib/extensions/unchanged.jar").lastModified()).isEqualTo(1_000L);
+    assertThat(FileUtils.readFileToString(new File(secondHomeDir, "lib/extensions/changed.jar"), UTF_8)).isEqualTo("v2");
+  }
+
+  @Test
+  public void downloaded_plugin_moved_by_sonarqube_is_considered_as_installed() throws IOException {
+    File homeDir = new File(workspace, "home-abc/sonarqube");
+    ReusableServerHome firstRun = ReusableServerHome.lock(workspace, "abc");
+    firstRun.installPlugins(stagePlugins("foo.jar", "v1", "bar.jar", "v1"), homeDir, "extensions/downloads");
+    firstRun.storeManifest();
+    // done by SonarQube at startup
+    FileUtils.moveFileToDirectory(new File(homeDir, "extensions/downloads/foo.jar"), new File(homeDir, "extensions/plugins"), true);
+    FileUtils.moveFileToDirectory(new File(homeDir, "extensions/downloads/bar.jar"), new File(homeDir, "extensions/plugins"), true);
+
+    File otherWorkspace = temp.newFolder();
+    FileUtils.copyDirectory(new File(workspace, "home-abc"), new File(otherWorkspace, "home-abc"));
+    ReusableServerHome secondRun = ReusableServerHome.lock(otherWorkspace, "abc");
+    File secondHomeDir = new File(secondRun.getDir(), "sonarqube");
+    secondRun.installPlugins(stagePlugins("foo.jar", "v1"), secondHomeDir, "extensions/downloads");
+
+    assertThat(new File(secondHomeDir, "extensions/downloads").list()).isEmpty();
+    assertThat(new File(secondHomeDir, "extensions/plugins").list()).containsOnly("foo.jar");
+  }
+
+  private File stagePlugins(String... namesAndContents) throws IOException {
+    File dir = temp.newFolder();
+    for (int i = 0; i < namesAndContents.length; i += 2) {
+      FileUtils.write(new File(dir, namesAndContents[i]), namesAndContents[i + 1], UTF_8);
+    }
+    return dir;
+  }
+}
@@ -23,6 +23,10 @@ import com.sonar.orchestrator.config.FileSystem;
 import com.sonar.orchestrator.container.Server;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Properties;
 import org.apache.commons.exec.CommandLine;
 import org.apache.commons.io.FileUtils;
 import org.junit.Rule;
@@ -59,6 +63,107 @@ public class ServerCommandLineFactoryTest {
       .contains("lib/sonar-application-5.6.jar");
   }
 
+  @Test
+  public void dump_then_use_class_data_archive_if_app_cds_is_enabled() throws Exception {
+    generateValidFileSystem();
+    File cacheDir = temp.newFolder();
+    when(fs.getCacheDir()).thenReturn(cacheDir);
+    writeSonarProperties("sonar.web.javaAdditionalOpts=-Xss1m");
+    AppCds.writeKey(server.getHome(), "abcd", true);
+
+    ServerCommandLineFactory underTest = new ServerCommandLineFactory(fs, true, java -> true);
+
+    File appDump = optionValue(underTest.create(server).getArguments(), "-XX:ArchiveClassesAtExit=");
+    assertThat(appDump.getParentFile()).isEqualTo(new File(cacheDir, "appcds/abcd"));
+    Properties properties = readSonarProperties();
+    assertThat(properties.getProperty("sonar.web.javaAdditionalOpts")).startsWith("-Xss1m -XX:ArchiveClassesAtExit=");
+    File webDump = optionValue(properties.getProperty("sonar.web.javaAdditionalOpts").split(" "), "-XX:ArchiveClassesAtExit=");
+    File ceDump = optionValue(properties.getProperty("sonar.ce.javaAdditionalOpts").split(" "), "-XX:ArchiveClassesAtExit=");
+
+    // archives are generated when JVMs exit, then published when server is stopped
+    FileUtils.touch(appDump);
+    FileUtils.touch(webDump);
+    FileUtils.touch(ceDump);
+    underTest.onStopped(server, false);
+    assertThat(new File(cacheDir, "appcds/abcd").list()).containsOnly("app.jsa", "web.jsa", "ce.jsa");
+
+    assertThat(underTest.create(server).getArguments()).contains("-XX:SharedArchiveFile=" + new File(cacheDir, "appcds/abcd/app.jsa").getAbsolutePath());
+    properties = readSonarProperties();
+    assertThat(properties.getProperty("sonar.web.javaAdditionalOpts"))
+      .isEqualTo("-Xss1m -XX:SharedArchiveFile=" + new File(cacheDir, "appcds/abcd/web.jsa").getAbsolutePath());
+    assertThat(properties.getProperty("sonar.ce.javaAdditionalOpts"))
+      .isEqualTo("-XX:SharedArchiveFile=" + new File(cacheDir, "appcds/abcd/ce.jsa").getAbsolutePath());
+    assertThat(underTest.create(server).getArguments()).noneMatch(arg -> arg.equals("-XX:+IgnoreUnrecognizedVMOptions"));
+  }
+
+  @Test
+  public void drop_class_data_dumped_by_killed_server() throws Exception {
+    generateValidFileSystem();
+    File cacheDir = temp.newFolder();
+    when(fs.getCacheDir()).thenReturn(cacheDir);
+    writeSonarProperties("");
+    AppCds.writeKey(server.getHome(), "abcd", true);
+
+    ServerCommandLineFactory underTest = new ServerCommandLineFactory(fs, true, java -> true);
+    File appDump = optionValue(underTest.create(server).getArguments(), "-XX:ArchiveClassesAtExit=");
+    FileUtils.touch(appDump);
+    underTest.onStopped(server, true);
+
+    assertThat(new File(cacheDir, "appcds/abcd").list()).isEmpty();
+    assertThat(underTest.create(server).getArguments()).anyMatch(arg -> arg.startsWith("-XX:ArchiveClassesAtExit="));
+  }
+
+  @Test
+  public void keep_archive_published_by_another_server() throws Exception {
+    generateValidFileSystem();
+    File cacheDir = temp.newFolder();
+    when(fs.getCacheDir()).thenReturn(cacheDir);
+    writeSonarProperties("");
+    AppCds.writeKey(server.getHome(), "abcd", false);
+
+    ServerCommandLineFactory underTest = new ServerCommandLineFactory(fs, true, java -> true);
+    File appDump = optionValue(underTest.create(server).getArguments(), "-XX:ArchiveClassesAtExit=");
+    FileUtils.write(appDump, "dump", StandardCharsets.UTF_8);
+    File archive = new File(cacheDir, "appcds/abcd/app.jsa");
+    FileUtils.write(archive, "published", StandardCharsets.UTF_8);
+    underTest.onStopped(server, false);
+
+    assertThat(archive).hasContent("published");
+    assertThat(appDump).doesNotExist();
+    // JVM options of web and Compute Engine processes are not configured
+    assertThat(readSonarProperties()).isEmpty();
+  }
+
+  @Test
+  public void no_class_data_archive_if_java_does_not_support_it() throws Exception {
+    generateValidFileSystem();
+    when(fs.getCacheDir()).thenReturn(temp.newFolder());
+    writeSonarProperties("");
+    AppCds.writeKey(server.getHome(), "abcd", true);
+
+    ServerCommandLineFactory underTest = new ServerCommandLineFactory(fs, true, java -> false);
+
+    assertThat(underTest.create(server).getArguments()).noneMatch(arg -> arg.startsWith("-XX:"));
+    assertThat(readSonarProperties()).isEmpty();
+  }
+
+  @Test
+  public void parse_java_major_version() {
+    assertThat(AppCds.parseJavaMajorVersion("java version \"1.8.0_292\"")).isEqualTo(8);
+    assertThat(AppCds.parseJavaMajorVersion("openjdk version \"17.0.2\" 2022-01-18")).isEqualTo(17);
+    assertThat(AppCds.parseJavaMajorVersion("openjdk version \"21\" 2023-09-19")).isEqualTo(21);
+    assertThat(AppCds.parseJavaMajorVersion("unknown")).isEqualTo(-1);
+  }
+
+  @Test
+  public void no_class_data_archive_by_default() throws Exception {
+    generateValidFileSystem();
+
+    ServerCommandLineFactory underTest = new ServerCommandLineFactory(fs);
+
+    assertThat(underTest.create(server).getArguments()).noneMatch(arg -> arg.startsWith("-XX:"));
+  }
+
   @Test
   public void override_java_home() throws Exception {
     generateValidFileSystem();
@@ -83,6 +188,23 @@ public class ServerCommandLineFactoryTest {
     underTest.create(server);
   }
 
+  private void writeSonarProperties(String content) throws IOException {
+    FileUtils.write(new File(server.getHome(), "conf/sonar.properties"), content, StandardCharsets.UTF_8);
+  }
+
+  private Properties readSonarProperties() throws IOException {
+    Properties properties = new Properties();
+    try (InputStream input = FileUtils.openInputStream(new File(server.getHome(), "conf/sonar.properties"))) {
+      properties.load(input);
+    }
+    return properties;
+  }
+
+  private static File optionValue(String[] options, String prefix) {
+    String option = Arrays.stream(options).filter(arg -> arg.startsWith(prefix)).findFirst().get();
+    return new File(option.substring(prefix.length()));
+  }
+
   private void generateValidFileSystem() throws IOException {
     File homeDir = temp.getRoot();
     FileUtils.touch(new File(homeDir, "lib/sonar-application-5.6.jar"));
@@ -33,8 +33,11 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.InetAddress;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.util.Collection;
 import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Predicate;
 import org.apache.commons.io.FileUtils;
 import org.junit.Before;
 import org.junit.Rule;
@@ -43,12 +46,14 @@ import org.junit.rules.ExpectedException;
 import org.junit.rules.TemporaryFolder;
 import org.mockito.Mockito;
 
+import static java.util.Collections.singletonList;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.mockito.ArgumentMatchers.argThat;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
 
 public class ServerInstallerTest {
@@ -94,6 +99,21 @@ public class ServerInstallerTest {
     assertThat(props.getProperty("sonar.forceRedirectOnDefaultAdminCredentials")).isEqualTo("false");
   }
 
+  @Test
+  public void install_packaging_resolved_by_caller() throws Exception {
+    Packaging packaging = new Packaging(Edition.DEVELOPER, Version.create(VERSION_9_9), SQ_LITE_ZIP);
+
+    Server server;
+    try (InstallPipeline pipeline = new InstallPipeline()) {
+      server = newInstaller().install(new SonarDistribution().setVersion(VERSION_9_9), pipeline, CompletableFuture.completedFuture(packaging));
+      assertThat(pipeline.getDurations()).containsKeys("unzip", "download plugins", "download bundled plugins");
+    }
+
+    assertThat(server.getEdition()).isEqualTo(Edition.DEVELOPER);
+    assertThat(new File(server.getHome(), "conf/sonar.properties")).isFile();
+    verifyNoInteractions(packagingResolver);
+  }
+
   @Test
   public void force_authentication_fallback_to_false_for_8_6_and_greater() throws Exception {
     prepareResolutionOfPackaging(Edition.DATACENTER, Version.create(VERSION_9_9), SQ_LITE_ZIP);
@@ -332,6 +352,36 @@ public class ServerInstallerTest {
     assertThat(installedFiles).extracting(File::getName).containsExactlyInAnyOrder(jar1.getName(), jar2.getName());
   }
 
+  @Test
+  public void copy_plugins_with_a_single_download_thread() throws IOException {
+    prepareResolutionOfPackaging(Edition.COMMUNITY, Version.create(VERSION_9_9), SQ_LITE_ZIP);
+    SonarDistribution distribution = new SonarDistribution().setVersion(VERSION_9_9);
+    distribution.addPluginLocation(MavenLocation.of("fake", "sonar-foo-plugin", "1.0"));
+    distribution.addPluginLocation(MavenLocation.of("fake", "sonar-bar-plugin", "1.0"));
+    File jar1 = temp.newFile();
+    File jar2 = temp.newFile();
+    prepareCopyOfPlugin("sonar-foo-plugin", "1.0", jar1);
+    prepareCopyOfPlugin("sonar-bar-plugin", "1.0", jar2);
+
+    Server server = newInstaller(Configuration.builder().setProperty(ServerInstaller.PLUGIN_DOWNLOAD_THREADS_PROPERTY, "1")).install(distribution);
+
+    Collection<File> installedFiles = FileUtils.listFiles(new File(server.getHome(), "extensions/downloads"), null, false);
+    assertThat(installedFiles).extracting(File::getName).containsExactlyInAnyOrder(jar1.getName(), jar2.getName());
+  }
+
+  @Test
+  public void throw_ISE_if_one_of_the_plugins_can_not_be_found() throws IOException {
+    prepareResolutionOfPackaging(Edition.COMMUNITY, Version.create(VERSION_9_9), SQ_LITE_ZIP);
+    SonarDistribution distribution = new SonarDistribution().setVersion(VERSION_9_9);
+    distribution.addPluginLocation(MavenLocation.of("fake", "sonar-foo-plugin", "1.0"));
+    distribution.addPluginLocation(MavenLocation.of("fake", "sonar-missing-plugin", "1.0"));
+    prepareCopyOfPlugin("sonar-foo-plugin", "1.0", temp.newFile());
+
+    assertThatThrownBy(() -> newInstaller().install(distribution))
+      .isInstanceOf(IllegalStateException.class)
+      .hasMessageContaining("Can not find the plugin [fake:sonar-missing-plugin:1.0:jar]");
+  }
+
   private void prepareCopyOfPlugin(String artifactId, String version, File pluginJar) {
     doAnswer(invocationOnMock -> {
       File toDir = invocationOnMock.getArgument(1);
@@ -377,6 +427,102 @@ public class ServerInstallerTest {
     assertThat(bundledPlugin(server)).isFile().exists();
   }
 
+  @Test
+  public void keep_bundled_plugins_matching_prefixes() {
+    prepareResolutionOfPackaging(Edition.COMMUNITY, Version.create(VERSION_9_9), SQ_LITE_ZIP);
+    SonarDistribution distrib = new SonarDistribution().setVersion(VERSION_9_9).addBundledPluginToKeep("sonar-java-");
+
+    Server server = newInstaller().install(distrib);
+
+    assertThat(bundledPlugin(server)).isFile().exists();
+  }
+
+  @Test
+  public void bundled_plugins_filter_rejects_only_plugins_not_kept() {
+    Predicate<String> filter = ServerInstaller.bundledPluginsFilter(singletonList("sonar-java-"));
+
+    assertThat(filter.test("sonarqube-10.0/lib/extensions/sonar-php-plugin-3.0.jar")).isFalse();
+    assertThat(filter.test("sonarqube-10.0/extensions/plugins/sonar-php-plugin-3.0.jar")).isFalse();
+    assertThat(filter.test("sonarqube-10.0/lib/bundled-plugins/sonar-php-plugin-3.0.jar")).isFalse();
+    assertThat(filter.test("sonarqube-10.0/lib/extensions/sonar-java-plugin-7.0.jar")).isTrue();
+    assertThat(filter.test("sonarqube-10.0/lib/extensions/")).isTrue();
+    assertThat(filter.test("sonarqube-10.0/lib/sonar-application-10.0.jar")).isTrue();
+    assertThat(filter.test("sonarqube-10.0/extensions/jdbc-driver/h2/h2.jar")).isTrue();
+  }
+
+  @Test
+  public void remove_bundled_plugins_when_installing_from_distribution_cache() throws IOException {
+    prepareResolutionOfPackaging(Edition.COMMUNITY, Version.create(VERSION_9_9), SQ_LITE_ZIP);
+    File orchestratorHome = temp.newFolder();
+    Configuration.Builder configBuilder = Configuration.builder()
+      .setProperty("orchestrator.home", orchestratorHome.getAbsolutePath())
+      .setProperty(ServerInstaller.DISTRIBUTION_CACHE_PROPERTY, "true");
+
+    Server server1 = newInstaller(configBuilder).install(new SonarDistribution().setVersion(VERSION_9_9));
+    Server server2 = newInstaller(configBuilder).install(new SonarDistribution().setVersion(VERSION_9_9).setKeepBundledPlugins(true));
+
+    assertThat(bundledPlugin(server1)).doesNotExist();
+    assertThat(bundledPlugin(server2)).isFile();
+  }
+
+  @Test
+  public void install_reusable_server_home() {
+    prepareResolutionOfPackaging(Edition.COMMUNITY, Version.create(VERSION_9_9), SQ_LITE_ZIP);
+    Configuration.Builder configBuilder = Configuration.builder().setProperty(ServerInstaller.REUSE_SERVER_HOME_PROPERTY, "true");
+
+    Server server1 = newInstaller(configBuilder).install(new SonarDistribution().setVersion(VERSION_9_9));
+    // home of first server is locked until the JVM exits
+    Server server2 = newInstaller(configBuilder).install(new SonarDistribution().setVersion(VERSION_9_9));
+
+    assertThat(server1.getHome().getParentFile().getName()).startsWith("home-");
+    assertThat(new File(server1.getHome().getParentFile(), ReusableServerHome.MANIFEST_FILENAME)).isFile();
+    assertThat(server2.getHome().getParentFile().getName()).doesNotStartWith("home-");
+    assertThat(new File(server2.getHome(), "conf/sonar.properties")).isFile();
+  }
+
+  @Test
+  public void reuse_server_home_after_checkpoint() throws IOException {
+    prepareResolutionOfPackaging(Edition.COMMUNITY, Version.create(VERSION_9_9), SQ_LITE_ZIP);
+    Configuration.Builder configBuilder = Configuration.builder().setProperty(ServerInstaller.REUSE_SERVER_HOME_PROPERTY, "true");
+    Server server1 = newInstaller(configBuilder).install(new SonarDistribution().setVersion(VERSION_9_9));
+    File reusableDir = server1.getHome().getParentFile();
+    FileUtils.write(new File(server1.getHome(), "data/sonar.mv.db"), "db", StandardCharsets.UTF_8);
+    DataCheckpoint checkpoint = DataCheckpoint.create(workspaceDir, server1.getHome());
+    checkpoint.save();
+
+    // the directory of a reusable home must contain only the home
+    assertThat(reusableDir.listFiles(File::isDirectory)).containsExactly(server1.getHome());
+
+    // locks of reusable homes are held until the JVM exits, so the next run is simulated in another workspace
+    File firstWorkspace = workspaceDir;
+    workspaceDir = temp.newFolder();
+    FileUtils.copyDirectory(reusableDir, new File(workspaceDir, reusableDir.getName()), true);
+    Server server2 = newInstaller(configBuilder).install(new SonarDistribution().setVersion(VERSION_9_9));
+
+    assertThat(server2.getHome()).isEqualTo(new File(workspaceDir, reusableDir.getName() + "/" + server1.getHome().getName()));
+
+    checkpoint.delete();
+    assertThat(new File(firstWorkspace, DataCheckpoint.WORKSPACE_DIR).list()).isEmpty();
+  }
+
+  @Test
+  public void install_from_distribution_cache() throws IOException {
+    prepareResolutionOfPackaging(Edition.COMMUNITY, Version.create(VERSION_9_9), SQ_LITE_ZIP);
+    File orchestratorHome = temp.newFolder();
+    Configuration.Builder configBuilder = Configuration.builder()
+      .setProperty("orchestrator.home", orchestratorHome.getAbsolutePath())
+      .setProperty(ServerInstaller.DISTRIBUTION_CACHE_PROPERTY, "true");
+
+    Server server1 = newInstaller(configBuilder).install(new SonarDistribution().setVersion(VERSION_9_9).setServerProperty("test.id", "1"));
+    Server server2 = newInstaller(configBuilder).install(new SonarDistribution().setVersion(VERSION_9_9).setServerProperty("test.id", "2"));
+
+    assertThat(server1.getHome()).isNotEqualTo(server2.getHome());
+    assertThat(new File(server2.getHome(), "lib/sonar-application-4.5.6.jar")).isFile();
+    assertThat(openPropertiesFile(server1).getProperty("test.id")).isEqualTo("1");
+    assertThat(openPropertiesFile(server2).getProperty("test.id")).isEqualTo("2");
+    assertThat(new File(orchestratorHome, "cache/distributions").list()).hasSize(1);
+  }
+
   private void prepareResolutionOfPackaging(Edition edition, Version version, File zip) {
     when(packagingResolver.resolve(any())).thenReturn(new Packaging(edition, version, zip));
   }
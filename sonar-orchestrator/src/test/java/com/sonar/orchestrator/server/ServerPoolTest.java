@@ -0,0 +1,111 @@
+/*
+ * Orchestrator
+ * Copyright (C) 2011-2024 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.sonar.orchestrator.server;
+
+import com.google.common.collect.ImmutableMap;
+import com.sonar.orchestrator.config.Configuration;
+import com.sonar.orchestrator.container.SonarDistribution;
+import com.sonar.orchestrator.locator.MavenLocation;
+import com.sonar.orchestrator.util.DirectoryLock;
+import java.io.File;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ServerPoolTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  @Test
+  public void fingerprint_depends_on_distribution() {
+    SonarDistribution distribution = new SonarDistribution().setVersion("7.9").setServerProperty("sonar.foo", "bar");
+    String fingerprint = ServerPool.fingerprintOf(distribution);
+
+    assertThat(ServerPool.fingerprintOf(new SonarDistribution().setVersion("7.9").setServerProperty("sonar.foo", "bar"))).isEqualTo(fingerprint);
+    assertThat(ServerPool.fingerprintOf(new SonarDistribution().setVersion("8.9").setServerProperty("sonar.foo", "bar"))).isNotEqualTo(fingerprint);
+    assertThat(ServerPool.fingerprintOf(new SonarDistribution().setVersion("7.9").setServerProperty("sonar.foo", "baz"))).isNotEqualTo(fingerprint);
+    assertThat(ServerPool.fingerprintOf(distribution.addPluginLocation(MavenLocation.of("org.sonarsource.java", "sonar-java-plugin", "5.0"))))
+      .isNotEqualTo(fingerprint);
+  }
+
+  @Test
+  public void encode_descriptor_in_a_single_field() {
+    Properties properties = new Properties();
+    properties.setProperty("home", "/path/with spaces\tand tabs");
+    properties.setProperty("url", "http://localhost:9000");
+
+    String encoded = ServerPool.encode(properties);
+
+    assertThat(encoded).doesNotContain("\t", "\n", " ");
+    assertThat(ServerPool.decode(encoded)).isEqualTo(properties);
+  }
+
+  @Test
+  public void pool_is_enabled_only_with_embedded_database() {
+    assertThat(ServerPool.isEnabled(Configuration.create(ImmutableMap.of(ServerPool.ENABLED_PROPERTY, "true")))).isTrue();
+    assertThat(ServerPool.isEnabled(Configuration.create(ImmutableMap.of(ServerPool.ENABLED_PROPERTY, "true", "sonar.jdbc.url", "jdbc:h2:tcp://localhost:9092/sonar")))).isTrue();
+    assertThat(ServerPool.isEnabled(Configuration.create(ImmutableMap.of(ServerPool.ENABLED_PROPERTY, "true", "sonar.jdbc.url", "jdbc:postgresql://localhost/sonar")))).isFalse();
+    assertThat(ServerPool.isEnabled(Configuration.create(ImmutableMap.of()))).isFalse();
+  }
+
+  @Test
+  public void client_waits_for_the_port_file_of_the_daemon_holding_the_lock() throws Exception {
+    File poolDir = temp.newFolder();
+    File portFile = new File(poolDir, ServerPoolDaemon.PORT_FILE);
+    // obsolete port file of a killed daemon
+    FileUtils.write(portFile, "1", StandardCharsets.UTF_8);
+
+    // emulates a daemon that took the lock but does not listen yet
+    try (DirectoryLock lock = DirectoryLock.tryLock(new File(poolDir, ServerPoolDaemon.LOCK_FILE));
+      ServerSocket daemonSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+      ExecutorService executor = Executors.newSingleThreadExecutor();
+      try {
+        Future<ServerPool.Lease> lease = executor.submit(() -> new ServerPool(poolDir, 1, 1).lease("abc"));
+        Thread.sleep(500L);
+        FileUtils.write(portFile, String.valueOf(daemonSocket.getLocalPort()), StandardCharsets.UTF_8);
+        try (Socket client = daemonSocket.accept()) {
+          new PrintWriter(new OutputStreamWriter(client.getOutputStream(), StandardCharsets.UTF_8), true).println(ServerPoolDaemon.NONE);
+          try (ServerPool.Lease l = lease.get(10, TimeUnit.SECONDS)) {
+            assertThat(l.isStarted()).isFalse();
+          }
+        }
+      } finally {
+        executor.shutdownNow();
+      }
+    }
+    // clients never delete the port file, as they don't know whether it's obsolete
+    assertThat(portFile).exists();
+  }
+}
@@ -21,11 +21,15 @@ package com.sonar.orchestrator.server;
 
 import com.sonar.orchestrator.TestModules;
 import com.sonar.orchestrator.container.Server;
+import com.sonar.orchestrator.http.HttpCall;
+import com.sonar.orchestrator.http.HttpResponse;
 import com.sonar.orchestrator.version.Version;
 import java.io.File;
 import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 import org.apache.commons.exec.CommandLine;
+import org.apache.commons.exec.ExecuteException;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.DisableOnDebug;
@@ -35,6 +39,8 @@ import org.junit.rules.TestRule;
 import org.junit.rules.Timeout;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+import static org.mockito.Mockito.atLeast;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -66,6 +72,51 @@ public class ServerProcessImplTest {
 
     underTest.stop();
     verify(logWatcher).isStarted("stopped");
+    verify(commandLineFactory).onStopped(server, false);
+  }
+
+  @Test
+  public void start_async_completes_when_startup_log_is_displayed() throws Exception {
+    prepareValidCommand("com.sonar.orchestrator.echo.SonarQubeEmulator");
+
+    CompletableFuture<Void> started = underTest.startAsync();
+    started.get();
+
+    assertThat(underTest.isProcessAlive()).isTrue();
+    verify(logWatcher).isStarted("started");
+    underTest.stop();
+  }
+
+  @Test
+  public void start_async_fails_as_soon_as_process_exits() throws Exception {
+    prepareValidCommand("com.sonar.orchestrator.echo.Fail");
+
+    CompletableFuture<Void> started = underTest.startAsync();
+    Throwable failure = catchThrowable(started::join);
+
+    assertThat(failure).hasRootCauseInstanceOf(ExecuteException.class);
+    assertThat(failure.getCause()).isInstanceOf(IllegalStateException.class).hasMessage("Server startup failure");
+    assertThat(underTest.isProcessAlive()).isFalse();
+  }
+
+  @Test
+  public void wait_for_status_up_if_status_check_is_enabled() throws Exception {
+    prepareValidCommand("com.sonar.orchestrator.echo.SonarQubeEmulator");
+    HttpCall statusCall = mock(HttpCall.class);
+    HttpResponse starting = mock(HttpResponse.class);
+    when(starting.isSuccessful()).thenReturn(true);
+    when(starting.getBodyAsString()).thenReturn("{\"status\":\"STARTING\"}");
+    HttpResponse up = mock(HttpResponse.class);
+    when(up.isSuccessful()).thenReturn(true);
+    when(up.getBodyAsString()).thenReturn("{\"status\":\"UP\"}");
+    when(statusCall.executeUnsafely()).thenReturn(starting, up);
+    when(server.newHttpCall("api/system/status")).thenReturn(statusCall);
+    underTest.setCheckStatus(true);
+
+    underTest.start();
+
+    verify(statusCall, atLeast(2)).executeUnsafely();
+    underTest.stop();
   }
 
   @Test
@@ -143,6 +194,25 @@ public class ServerProcessImplTest {
     assertThat(underTest.isProcessAlive()).isFalse();
   }
 
+  @Test
+  public void stop_on_startup_timeout_does_not_delay_startup_timeout_of_other_servers() throws IOException {
+    prepareValidCommand("com.sonar.orchestrator.echo.Stuck");
+    underTest.setStartupTimeout(1);
+    // stop is blocked during 5 seconds before the process is killed
+    underTest.setStopTimeout(5_000);
+    CompletableFuture<Void> stuckStartup = underTest.startAsync();
+
+    ServerProcessImpl other = new ServerProcessImpl(commandLineFactory, server, logWatcher);
+    other.setStartupTimeout(200);
+    other.setStopTimeout(1);
+    long start = System.currentTimeMillis();
+    Throwable failure = catchThrowable(() -> other.startAsync().join());
+
+    assertThat(failure).hasMessageContaining("Server did not start in timely fashion");
+    assertThat(System.currentTimeMillis() - start).isLessThan(5_000L);
+    assertThat(catchThrowable(stuckStartup::join)).hasMessageContaining("Server did not start in timely fashion");
+  }
+
   private void prepareValidCommand(String mainClass) throws IOException {
     when(server.version()).thenReturn(Version.create("6.7"));
     when(server.getHome()).thenReturn(new File("../echo/target"));
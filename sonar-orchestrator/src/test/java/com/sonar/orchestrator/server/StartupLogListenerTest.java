@@ -19,6 +19,8 @@
  */
 package com.sonar.orchestrator.server;
 
+import java.util.ArrayList;
+import java.util.List;
 import org.junit.Test;
 
 import static org.assertj.core.api.Assertions.assertThat;
@@ -47,4 +49,39 @@ public class StartupLogListenerTest {
     assertThat(underTest.isStarted()).isTrue();
   }
 
+  @Test
+  public void whenStarted_is_completed_as_soon_as_startup_log_is_displayed() {
+    when(watcher.isStarted("Process[web] is up")).thenReturn(true);
+    StartupLogListener underTest = new StartupLogListener(watcher, null);
+
+    underTest.processLine("foo", 2);
+    assertThat(underTest.whenStarted()).isNotDone();
+
+    underTest.processLine("Process[web] is up", 2);
+    assertThat(underTest.whenStarted()).isCompleted();
+  }
+
+  @Test
+  public void report_startup_phases() {
+    when(watcher.isStarted("Process[web] is up")).thenReturn(true);
+    StartupLogListener underTest = new StartupLogListener(watcher, null);
+
+    underTest.processLine("Launch process[ELASTICSEARCH] from [/opt/sonarqube/elasticsearch]: /opt/sonarqube/elasticsearch/bin/elasticsearch", 2);
+    underTest.processLine("Process[es] is up", 2);
+    assertThat(underTest.getReport().getPhase(StartupReport.ELASTICSEARCH).get().isEnded()).isTrue();
+    assertThat(underTest.getReport().getPhase(StartupReport.SERVER).get().isEnded()).isFalse();
+
+    underTest.processLine("Process[web] is up", 2);
+    assertThat(underTest.getReport().getPhase(StartupReport.SERVER).get().isEnded()).isTrue();
+  }
+
+  @Test
+  public void lines_are_sent_to_output_with_prefix() {
+    List<String> output = new ArrayList<>();
+    StartupLogListener underTest = new StartupLogListener(watcher, "node1", output::add);
+
+    underTest.processLine("foo", 2);
+
+    assertThat(output).containsExactly("node1> foo");
+  }
 }
@@ -0,0 +1,95 @@
+/*
+ * Orchestrator
+ * Copyright (C) 2011-2024 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.sonar.orchestrator.server;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class StartupReportTest {
+
+  private StartupReport underTest = new StartupReport(1_000L);
+
+  @Test
+  public void detect_phases_from_logs() {
+    // console of SonarQube 9.9: sonar.log of the app process, then web.log
+    underTest.onLogLine("2023.02.06 10:00:01 INFO  app[][o.s.a.ProcessLauncherImpl] Launch process[ELASTICSEARCH] from [/opt/sonarqube/elasticsearch]: "
+      + "/opt/sonarqube/elasticsearch/bin/elasticsearch", 1_100L);
+    underTest.onLogLine("2023.02.06 10:00:05 INFO  app[][o.s.a.SchedulerImpl] Process[es] is up", 5_000L);
+    underTest.onLogLine("2023.02.06 10:00:05 INFO  app[][o.s.a.ProcessLauncherImpl] Launch process[WEB_SERVER] from [/opt/sonarqube]: "
+      + "/usr/lib/jvm/java-17-openjdk/bin/java -Djava.awt.headless=true -Dfile.encoding=UTF-8 -Djava.io.tmpdir=/opt/sonarqube/temp "
+      + "-cp ./lib/sonar-application-9.9.0.65466.jar:/opt/sonarqube/lib/jdbc/h2/h2-2.1.214.jar org.sonar.server.app.WebServer "
+      + "/opt/sonarqube/temp/sq-process1289378372937.properties", 5_100L);
+    underTest.onLogLine("2023.02.06 10:00:07 INFO  web[][o.s.s.p.ServerPluginRepository] Deploy plugin Java Code Quality and Security / 7.16.0.30901 / "
+      + "e8f8dd9b4c5bd4ae8ea9e58e6ac2ac8d1be9b0ab", 7_000L);
+    underTest.onLogLine("2023.02.06 10:00:08 INFO  web[][o.s.s.p.ServerPluginRepository] Deploy plugin XML Code Quality and Security / 2.7.0.3820 / "
+      + "656ea4f4fc1a0db8e4f48e5ee93c4bf91c2dc16b", 8_000L);
+    underTest.onLogLine("2023.02.06 10:00:09 INFO  web[][o.s.s.p.d.m.AutoDbMigration] Starting DB Migration and data initialization", 9_000L);
+    underTest.onLogLine("2023.02.06 10:00:12 INFO  web[][o.s.s.p.d.m.AutoDbMigration] DB Migration and data initialization ended: success", 12_000L);
+    underTest.onLogLine("2023.02.06 10:00:15 INFO  app[][o.s.a.SchedulerImpl] Process[web] is up", 15_000L);
+    underTest.onLogLine("2023.02.06 10:00:15 INFO  app[][o.s.a.ProcessLauncherImpl] Launch process[COMPUTE_ENGINE] from [/opt/sonarqube]: "
+      + "/usr/lib/jvm/java-17-openjdk/bin/java -Djava.awt.headless=true -Dfile.encoding=UTF-8 -Djava.io.tmpdir=/opt/sonarqube/temp "
+      + "-cp ./lib/sonar-application-9.9.0.65466.jar:/opt/sonarqube/lib/jdbc/h2/h2-2.1.214.jar org.sonar.ce.app.CeServer "
+      + "/opt/sonarqube/temp/sq-process2813612874312.properties", 15_100L);
+    underTest.onLogLine("2023.02.06 10:00:18 INFO  app[][o.s.a.SchedulerImpl] Process[ce] is up", 18_000L);
+    underTest.onLogLine("2023.02.06 10:00:18 INFO  app[][o.s.a.SchedulerImpl] SonarQube is operational", 18_000L);
+    underTest.onPhaseEnd(StartupReport.SERVER, 20_000L);
+
+    assertThat(underTest.getPhases()).extracting(StartupReport.Phase::getName)
+      .containsExactly(StartupReport.SERVER, StartupReport.ELASTICSEARCH, StartupReport.WEB, StartupReport.PLUGINS, StartupReport.DB_MIGRATION,
+        StartupReport.COMPUTE_ENGINE);
+    assertThat(underTest.getPhase(StartupReport.SERVER).get().getDurationMs()).isEqualTo(19_000L);
+    assertThat(underTest.getPhase(StartupReport.ELASTICSEARCH).get().getDurationMs()).isEqualTo(3_900L);
+    assertThat(underTest.getPhase(StartupReport.WEB).get().getStartedAt()).isEqualTo(5_100L);
+    assertThat(underTest.getPhase(StartupReport.WEB).get().getDurationMs()).isEqualTo(9_900L);
+    assertThat(underTest.getPhase(StartupReport.PLUGINS).get().getDurationMs()).isEqualTo(1_000L);
+    assertThat(underTest.getPhase(StartupReport.DB_MIGRATION).get().getStartedAt()).isEqualTo(9_000L);
+    assertThat(underTest.getPhase(StartupReport.DB_MIGRATION).get().getEndedAt()).isEqualTo(12_000L);
+    assertThat(underTest.getPhase(StartupReport.COMPUTE_ENGINE).get().getDurationMs()).isEqualTo(2_900L);
+  }
+
+  @Test
+  public void detect_launch_of_processes_logged_by_old_versions() {
+    // sonar.log of SonarQube 7.9
+    underTest.onLogLine("2019.07.01 10:00:01 INFO  app[][o.s.a.ProcessLauncherImpl] Launch process[[key='es', ipcIndex=1, logFilenamePrefix=es]] "
+      + "from [/opt/sonarqube/elasticsearch]: /opt/sonarqube/elasticsearch/bin/elasticsearch", 1_100L);
+    underTest.onLogLine("2019.07.01 10:00:05 INFO  app[][o.s.a.SchedulerImpl] Process[es] is up", 5_000L);
+    underTest.onLogLine("2019.07.01 10:00:05 INFO  app[][o.s.a.ProcessLauncherImpl] Launch process[[key='web', ipcIndex=2, logFilenamePrefix=web]] "
+      + "from [/opt/sonarqube]: /usr/lib/jvm/java-11-openjdk/bin/java -Djava.awt.headless=true org.sonar.server.app.WebServer", 5_100L);
+    underTest.onLogLine("2019.07.01 10:00:15 INFO  app[][o.s.a.SchedulerImpl] Process[web] is up", 15_000L);
+
+    assertThat(underTest.getPhase(StartupReport.ELASTICSEARCH).get().getDurationMs()).isEqualTo(3_900L);
+    assertThat(underTest.getPhase(StartupReport.WEB).get().getDurationMs()).isEqualTo(9_900L);
+  }
+
+  @Test
+  public void phase_is_not_ended_until_its_end_is_logged() {
+    underTest.onLogLine("2023.02.06 10:00:02 INFO  app[][o.s.a.ProcessLauncherImpl] Launch process[COMPUTE_ENGINE] from [/opt/sonarqube]: java", 2_000L);
+
+    StartupReport.Phase phase = underTest.getPhase(StartupReport.COMPUTE_ENGINE).get();
+    assertThat(phase.isEnded()).isFalse();
+    assertThat(underTest.toString()).isEqualTo("server=?, ce=?");
+
+    underTest.onLogLine("2023.02.06 10:00:03 INFO  app[][o.s.a.SchedulerImpl] Process[ce] is up", 3_000L);
+    assertThat(underTest.getPhase(StartupReport.COMPUTE_ENGINE).get().getDurationMs()).isEqualTo(1_000L);
+    // phases returned previously are not modified
+    assertThat(phase.isEnded()).isFalse();
+  }
+}
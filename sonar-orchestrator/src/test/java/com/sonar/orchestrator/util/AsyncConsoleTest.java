@@ -0,0 +1,198 @@
+/*
+ * Orchestrator
+ * Copyright (C) 2011-2024 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.sonar.orchestrator.util;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AsyncConsoleTest {
+
+  private static final String EOL = System.lineSeparator();
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  @Test
+  public void lines_are_displayed_in_order_when_flushed() {
+    StringBuffer output = new StringBuffer();
+    AsyncConsole underTest = new AsyncConsole(null, output::append, 100, 0);
+
+    underTest.print("foo");
+    underTest.print("bar");
+    underTest.flush(10_000L);
+
+    assertThat(output.toString()).isEqualTo("foo" + EOL + "bar" + EOL);
+  }
+
+  @Test
+  public void lines_are_not_displayed_when_queue_is_full() throws Exception {
+    StringBuffer output = new StringBuffer();
+    CountDownLatch blocked = new CountDownLatch(1);
+    CountDownLatch unblock = new CountDownLatch(1);
+    AsyncConsole underTest = new AsyncConsole(null, text -> {
+      if (output.length() == 0) {
+        blocked.countDown();
+        await(unblock);
+      }
+      output.append(text);
+    }, 1, 3);
+
+    underTest.print("first");
+    blocked.await();
+    underTest.print("second");
+    // queue is full, line is dropped without blocking
+    underTest.print("third");
+    waitForTail(underTest, "third");
+    unblock.countDown();
+    underTest.flush(10_000L);
+
+    assertThat(output.toString())
+      .isEqualTo("first" + EOL + "second" + EOL + "[1 lines dropped, console is too slow]" + EOL);
+  }
+
+  @Test
+  public void all_lines_are_written_to_log_file_and_tail_when_stdout_is_slow() throws Exception {
+    File logFile = new File(temp.newFolder(), "logs/console.log");
+    StringBuffer output = new StringBuffer();
+    CountDownLatch blocked = new CountDownLatch(1);
+    CountDownLatch unblock = new CountDownLatch(1);
+    AsyncConsole underTest = new AsyncConsole(logFile, text -> {
+      blocked.countDown();
+      await(unblock);
+      output.append(text);
+    }, 1, 3);
+
+    underTest.print("first");
+    blocked.await();
+    for (int i = 0; i < 10; i++) {
+      underTest.print("line " + i);
+    }
+    // stdout is still blocked
+    waitForTail(underTest, "line 9");
+    assertThat(underTest.tail()).containsExactly("line 7", "line 8", "line 9");
+    assertThat(Files.readAllLines(logFile.toPath(), StandardCharsets.UTF_8)).hasSize(11);
+
+    unblock.countDown();
+    underTest.close();
+    assertThat(output.toString()).contains("lines dropped, console is too slow");
+    assertThat(Files.readAllLines(logFile.toPath(), StandardCharsets.UTF_8)).hasSize(11).doesNotContain("lines dropped");
+  }
+
+  @Test
+  public void append_lines_to_existing_log_file() throws Exception {
+    File logFile = new File(temp.newFolder(), "logs/console.log");
+    AsyncConsole firstRun = new AsyncConsole(logFile, false, 100, 0);
+    firstRun.print("first run");
+    firstRun.close();
+
+    AsyncConsole secondRun = new AsyncConsole(logFile, false, 100, 0);
+    secondRun.print("second run");
+    secondRun.close();
+
+    assertThat(Files.readAllLines(logFile.toPath(), StandardCharsets.UTF_8)).containsExactly("first run", "second run");
+  }
+
+  @Test
+  public void write_lines_to_log_file() throws Exception {
+    File logFile = new File(temp.newFolder(), "logs/console.log");
+    AsyncConsole underTest = new AsyncConsole(logFile, false, 100, 10);
+
+    for (int i = 0; i < 100; i++) {
+      underTest.print("line " + i);
+    }
+    underTest.close();
+
+    List<String> lines = Files.readAllLines(logFile.toPath(), StandardCharsets.UTF_8);
+    assertThat(lines).hasSize(100);
+    assertThat(lines.get(0)).isEqualTo("line 0");
+    assertThat(lines.get(99)).isEqualTo("line 99");
+  }
+
+  @Test
+  public void write_lines_in_batches_from_concurrent_threads() throws Exception {
+    StringBuffer output = new StringBuffer();
+    AsyncConsole underTest = new AsyncConsole(null, output::append, 100_000, 0);
+
+    Thread[] threads = new Thread[4];
+    for (int t = 0; t < threads.length; t++) {
+      String prefix = "thread " + t + " line ";
+      threads[t] = new Thread(() -> {
+        for (int i = 0; i < 10_000; i++) {
+          underTest.print(prefix + i);
+        }
+      });
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    underTest.close();
+
+    assertThat(output.toString().split(EOL)).hasSize(40_000);
+  }
+
+  @Test
+  public void keep_last_lines_in_memory() {
+    AsyncConsole underTest = new AsyncConsole(null, false, 10, 3);
+
+    underTest.print("line 1");
+    underTest.print("line 2");
+    underTest.print("line 3");
+    underTest.print("line 4");
+    underTest.close();
+
+    assertThat(underTest.tail()).containsExactly("line 2", "line 3", "line 4");
+  }
+
+  @Test
+  public void close_is_idempotent() {
+    AsyncConsole underTest = new AsyncConsole(null, false, 10, 3);
+    underTest.print("foo");
+
+    underTest.close();
+    underTest.close();
+
+    assertThat(underTest.tail()).containsExactly("foo");
+  }
+
+  // the tail is updated once the lines are queued for display and written to the log file
+  private static void waitForTail(AsyncConsole console, String lastLine) throws InterruptedException {
+    for (int i = 0; i < 1_000 && !console.tail().contains(lastLine); i++) {
+      Thread.sleep(10L);
+    }
+    assertThat(console.tail()).contains(lastLine);
+  }
+
+  private static void await(CountDownLatch latch) {
+    try {
+      latch.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
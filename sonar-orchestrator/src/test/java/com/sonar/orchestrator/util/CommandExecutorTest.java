@@ -23,9 +23,15 @@ import com.sonar.orchestrator.TestModules;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.SystemUtils;
 import org.junit.Before;
 import org.junit.Rule;
@@ -35,7 +41,9 @@ import org.junit.rules.TemporaryFolder;
 import org.junit.rules.TestName;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
 import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeFalse;
 
 public class CommandExecutorTest {
 
@@ -73,6 +81,21 @@ public class CommandExecutorTest {
     assertThat(stdOut).contains("stdOut: second line");
   }
 
+  @Test
+  public void should_append_output_to_file() throws Exception {
+    File output = new File(workDir, "output.log");
+    FileUtils.write(output, "previous line" + SystemUtils.LINE_SEPARATOR);
+    Command command = Command.create(getScript("output")).setDirectory(workDir);
+
+    int exitCode = CommandExecutor.create().execute(command, output, 1000L);
+
+    assertThat(exitCode).isEqualTo(0);
+    assertThat(FileUtils.readFileToString(output))
+      .startsWith("previous line")
+      .contains("stdOut: first line")
+      .contains("stdOut: second line");
+  }
+
   @Test
   public void stream_consumer_can_throw_exception() throws Exception {
     Command command = Command.create(getScript("output")).setDirectory(workDir);
@@ -103,6 +126,73 @@ public class CommandExecutorTest {
     }
   }
 
+  @Test
+  public void should_stop_when_interrupted() {
+    String executable = getScript("forever");
+    Thread.currentThread().interrupt();
+    try {
+      CommandExecutor.create().execute(Command.create(executable).setDirectory(workDir), 60_000L);
+      fail();
+    } catch (CommandException e) {
+      assertThat(e).hasCauseInstanceOf(InterruptedException.class);
+      assertThat(Thread.interrupted()).isTrue();
+    }
+  }
+
+  @Test
+  public void destroy_child_processes_on_timeout() throws Exception {
+    assumeFalse(SystemUtils.IS_OS_WINDOWS);
+    Command command = Command.create(getScript("forever-with-child")).setDirectory(workDir);
+
+    Throwable failure = catchThrowable(() -> CommandExecutor.create().execute(command, line -> {
+    }, 2_000L));
+
+    assertThat(failure).isInstanceOf(CommandException.class).hasMessageContaining("Timeout exceeded");
+    assertThat(waitForExit(readChildPid())).isTrue();
+  }
+
+  @Test
+  public void destroy_child_processes_when_interrupted() throws Exception {
+    assumeFalse(SystemUtils.IS_OS_WINDOWS);
+    Command command = Command.create(getScript("forever-with-child")).setDirectory(workDir);
+    AtomicReference<Throwable> failure = new AtomicReference<>();
+    AtomicBoolean interrupted = new AtomicBoolean(false);
+    Thread thread = new Thread(() -> {
+      try {
+        CommandExecutor.create().execute(command, line -> {
+        }, 60_000L);
+      } catch (CommandException e) {
+        failure.set(e);
+        interrupted.set(Thread.currentThread().isInterrupted());
+      }
+    });
+    thread.start();
+    String childPid = readChildPid();
+
+    thread.interrupt();
+    thread.join(10_000L);
+
+    assertThat(failure.get()).hasCauseInstanceOf(InterruptedException.class);
+    assertThat(interrupted).isTrue();
+    assertThat(waitForExit(childPid)).isTrue();
+  }
+
+  @Test
+  public void output_of_commands_is_read_by_shared_threads() throws Exception {
+    Set<Thread> readers = ConcurrentHashMap.newKeySet();
+    Command command = Command.create(getScript("output")).setDirectory(workDir);
+
+    for (int i = 0; i < 10; i++) {
+      CommandExecutor.create().execute(command, line -> readers.add(Thread.currentThread()), 5_000L);
+    }
+
+    assertThat(readers)
+      .doesNotContain(Thread.currentThread())
+      .allMatch(t -> t.isDaemon() && (isVirtual(t) || "orchestrator-command-output".equals(t.getName())));
+    // threads of pool are reused by the next commands. Virtual threads are not pooled.
+    assertThat(readers.stream().filter(t -> !isVirtual(t)).count()).isLessThan(10L);
+  }
+
   @Test
   public void should_fail_null_command_not_allowed() {
     thrown.expect(NullPointerException.class);
@@ -166,6 +256,50 @@ public class CommandExecutorTest {
     assertThat(props.getProperty("prop.quotes")).isEqualTo("single'quote");
   }
 
+  /**
+   * Pid of the child process started by the script forever-with-child
+   */
+  private String readChildPid() throws InterruptedException, IOException {
+    File pidFile = new File(workDir, "child.pid");
+    for (int i = 0; i < 200; i++) {
+      if (pidFile.exists()) {
+        String content = FileUtils.readFileToString(pidFile, StandardCharsets.UTF_8);
+        if (content.endsWith("\n")) {
+          return content.trim();
+        }
+      }
+      Thread.sleep(50L);
+    }
+    throw new IllegalStateException("Child process is not started");
+  }
+
+  private static boolean waitForExit(String pid) throws InterruptedException, IOException {
+    for (int i = 0; i < 100; i++) {
+      if (!isRunning(pid)) {
+        return true;
+      }
+      Thread.sleep(50L);
+    }
+    return false;
+  }
+
+  private static boolean isRunning(String pid) throws InterruptedException, IOException {
+    Process ps = new ProcessBuilder("ps", "-o", "stat=", "-p", pid).start();
+    String state = IOUtils.toString(ps.getInputStream(), StandardCharsets.UTF_8).trim();
+    ps.waitFor();
+    // a zombie has exited, but has not been reaped yet by its parent
+    return !state.isEmpty() && !state.startsWith("Z");
+  }
+
+  private static boolean isVirtual(Thread thread) {
+    try {
+      return (Boolean) Thread.class.getMethod("isVirtual").invoke(thread);
+    } catch (ReflectiveOperationException e) {
+      // Java < 21
+      return false;
+    }
+  }
+
   private static String getScript(String name) throws IOException {
     String filename;
     if (SystemUtils.IS_OS_WINDOWS) {
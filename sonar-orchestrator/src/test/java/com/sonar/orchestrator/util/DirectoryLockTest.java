@@ -0,0 +1,118 @@
+/*
+ * Orchestrator
+ * Copyright (C) 2011-2024 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.sonar.orchestrator.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class DirectoryLockTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  @Test
+  public void lock_is_exclusive_until_closed() throws IOException {
+    File lockFile = new File(temp.newFolder(), "dir/foo.lock");
+    assertThat(DirectoryLock.isLocked(lockFile)).isFalse();
+
+    DirectoryLock lock = DirectoryLock.tryLock(lockFile);
+    assertThat(lock).isNotNull();
+    assertThat(lock.getLockFile()).isEqualTo(lockFile);
+    assertThat(DirectoryLock.tryLock(lockFile)).isNull();
+    assertThat(DirectoryLock.isLocked(lockFile)).isTrue();
+
+    lock.close();
+    assertThat(DirectoryLock.isLocked(lockFile)).isFalse();
+  }
+
+  @Test
+  public void checking_lock_held_by_this_jvm_does_not_release_it() throws Exception {
+    File lockFile = new File(temp.newFolder(), "foo.lock");
+    try (DirectoryLock lock = DirectoryLock.tryLock(lockFile)) {
+      assertThat(lock).isNotNull();
+
+      assertThat(DirectoryLock.isLocked(lockFile)).isTrue();
+      assertThat(DirectoryLock.tryLock(lockFile)).isNull();
+
+      // the lock is still held for other processes
+      assertThat(tryLockInOtherProcess(lockFile)).isFalse();
+    }
+    assertThat(tryLockInOtherProcess(lockFile)).isTrue();
+  }
+
+  @Test
+  public void shared_lock_excludes_exclusive_lock_until_all_holders_close_it() throws Exception {
+    File lockFile = new File(temp.newFolder(), "foo.lock");
+
+    DirectoryLock lock1 = DirectoryLock.tryLockShared(lockFile);
+    DirectoryLock lock2 = DirectoryLock.tryLockShared(lockFile);
+    assertThat(lock1).isNotNull();
+    assertThat(lock2).isNotNull();
+    assertThat(DirectoryLock.isLocked(lockFile)).isTrue();
+    assertThat(DirectoryLock.tryLock(lockFile)).isNull();
+
+    lock1.close();
+    // closing twice does not release the lock of the other holder
+    lock1.close();
+    assertThat(DirectoryLock.tryLock(lockFile)).isNull();
+    assertThat(tryLockInOtherProcess(lockFile)).isFalse();
+
+    lock2.close();
+    assertThat(DirectoryLock.isLocked(lockFile)).isFalse();
+    assertThat(tryLockInOtherProcess(lockFile)).isTrue();
+  }
+
+  @Test
+  public void shared_lock_is_not_acquired_if_file_is_exclusively_locked() throws IOException {
+    File lockFile = new File(temp.newFolder(), "foo.lock");
+    try (DirectoryLock lock = DirectoryLock.tryLock(lockFile)) {
+      assertThat(DirectoryLock.tryLockShared(lockFile)).isNull();
+    }
+    try (DirectoryLock lock = DirectoryLock.tryLockShared(lockFile)) {
+      assertThat(lock).isNotNull();
+    }
+  }
+
+  private static boolean tryLockInOtherProcess(File lockFile) throws Exception {
+    String java = new File(System.getProperty("java.home"), "bin/java").getAbsolutePath();
+    Process process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), LockInOtherProcess.class.getName(), lockFile.getAbsolutePath())
+      .inheritIO()
+      .start();
+    assertThat(process.waitFor(30, TimeUnit.SECONDS)).isTrue();
+    return process.exitValue() == 0;
+  }
+
+  public static class LockInOtherProcess {
+    public static void main(String[] args) {
+      DirectoryLock lock = DirectoryLock.tryLock(new File(args[0]));
+      if (lock == null) {
+        System.exit(1);
+      }
+      lock.close();
+      System.exit(0);
+    }
+  }
+}
@@ -37,4 +37,14 @@ public class StreamConsumerTest {
     // https://jira.sonarsource.com/browse/ORCH-342 keep newlines
     assertThat(writer.toString()).isEqualTo("foo\nbar\n");
   }
+
+  @Test
+  public void lines_are_written_when_echo_is_disabled() {
+    StringWriter writer = new StringWriter();
+    try (StreamConsumer.Pipe pipe = new StreamConsumer.Pipe(writer, false)) {
+      pipe.consumeLine("foo");
+    }
+
+    assertThat(writer.toString()).isEqualTo("foo\n");
+  }
 }
@@ -0,0 +1,58 @@
+/*
+ * Orchestrator
+ * Copyright (C) 2011-2024 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.sonar.orchestrator.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class ZipCentralDirectoryTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  @Test
+  public void read_unix_modes_of_entries() throws IOException {
+    File zip = FileUtils.toFile(getClass().getResource("/com/sonar/orchestrator/build/sonar-scanner-2.9-linux.zip"));
+
+    Map<String, Integer> modes = ZipCentralDirectory.readUnixModes(zip);
+
+    assertThat(modes).hasSize(15);
+    assertThat(modes.get("sonar-scanner-2.9-linux/bin/sonar-scanner") & 0777).isEqualTo(0755);
+    assertThat(modes.get("sonar-scanner-2.9-linux/bin/sonar-scanner.bat") & 0777).isEqualTo(0644);
+  }
+
+  @Test
+  public void fail_if_file_is_not_a_zip() throws IOException {
+    File file = temp.newFile();
+    FileUtils.write(file, "not a zip", "UTF-8");
+
+    assertThatThrownBy(() -> ZipCentralDirectory.readUnixModes(file))
+      .isInstanceOf(IOException.class)
+      .hasMessage("End of central directory not found");
+  }
+}
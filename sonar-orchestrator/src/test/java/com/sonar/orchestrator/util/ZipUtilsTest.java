@@ -20,14 +20,22 @@
 package com.sonar.orchestrator.util;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Paths;
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang.SystemUtils;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeFalse;
 
 public class ZipUtilsTest {
 
@@ -74,6 +82,103 @@ public class ZipUtilsTest {
     assertThat(toDir.list()).hasSize(3);
   }
 
+  @Test
+  public void unzip_only_entries_accepted_by_filter() throws IOException {
+    File toDir = temp.newFolder();
+
+    ZipUtils.unzip(zip, toDir, entryName -> !entryName.equals("foo.txt"));
+
+    assertThat(new File(toDir, "foo.txt")).doesNotExist();
+    assertThat(new File(toDir, "bar.txt")).isFile();
+    assertThat(new File(toDir, "dir/hello.properties")).isFile();
+  }
+
+  @Test
+  public void unzip_restores_unix_permissions() throws IOException {
+    assumeFalse(SystemUtils.IS_OS_WINDOWS);
+    File scannerZip = FileUtils.toFile(getClass().getResource("/com/sonar/orchestrator/build/sonar-scanner-2.9-linux.zip"));
+    File toDir = temp.newFolder();
+
+    ZipUtils.unzip(scannerZip, toDir);
+
+    assertThat(new File(toDir, "sonar-scanner-2.9-linux/bin/sonar-scanner").canExecute()).isTrue();
+    assertThat(new File(toDir, "sonar-scanner-2.9-linux/bin/sonar-scanner.bat").canExecute()).isFalse();
+    assertThat(new File(toDir, "sonar-scanner-2.9-linux/lib/sonar-scanner-cli-2.9-SNAPSHOT.jar")).isFile();
+  }
+
+  @Test
+  public void unzip_stream_then_restore_unix_permissions() throws IOException {
+    assumeFalse(SystemUtils.IS_OS_WINDOWS);
+    File scannerZip = FileUtils.toFile(getClass().getResource("/com/sonar/orchestrator/build/sonar-scanner-2.9-linux.zip"));
+    File toDir = temp.newFolder();
+
+    try (InputStream input = new FileInputStream(scannerZip)) {
+      ZipUtils.unzip(input, toDir, name -> !name.endsWith(".bat"));
+    }
+    assertThat(new File(toDir, "sonar-scanner-2.9-linux/lib/sonar-scanner-cli-2.9-SNAPSHOT.jar")).isFile();
+    assertThat(new File(toDir, "sonar-scanner-2.9-linux/bin/sonar-scanner.bat")).doesNotExist();
+
+    ZipUtils.restoreUnixPermissions(scannerZip, toDir);
+    assertThat(new File(toDir, "sonar-scanner-2.9-linux/bin/sonar-scanner").canExecute()).isTrue();
+  }
+
+  @Test
+  public void unzip_restores_symbolic_links() throws IOException {
+    assumeFalse(SystemUtils.IS_OS_WINDOWS);
+    File zip = FileUtils.toFile(getClass().getResource("ZipUtilsTest/symlink.zip"));
+    File toDir = temp.newFolder();
+
+    ZipUtils.unzip(zip, toDir);
+    // links are replaced when unzipping again
+    ZipUtils.unzip(zip, toDir);
+
+    assertThat(Files.readSymbolicLink(toDir.toPath().resolve("dir/link.txt"))).isEqualTo(Paths.get("target.txt"));
+    assertThat(Files.readSymbolicLink(toDir.toPath().resolve("bin/run"))).isEqualTo(Paths.get("../dir/target.txt"));
+    assertThat(new File(toDir, "bin/run")).hasContent("hello");
+  }
+
+  @Test
+  public void unzip_stream_then_restore_symbolic_links() throws IOException {
+    assumeFalse(SystemUtils.IS_OS_WINDOWS);
+    File zip = FileUtils.toFile(getClass().getResource("ZipUtilsTest/symlink.zip"));
+    File toDir = temp.newFolder();
+
+    try (InputStream input = new FileInputStream(zip)) {
+      ZipUtils.unzip(input, toDir, name -> true);
+    }
+    ZipUtils.restoreUnixPermissions(zip, toDir);
+
+    assertThat(Files.readSymbolicLink(toDir.toPath().resolve("dir/link.txt"))).isEqualTo(Paths.get("target.txt"));
+    assertThat(new File(toDir, "dir/link.txt")).hasContent("hello");
+  }
+
+  @Test
+  public void fail_if_symbolic_link_points_outside_target_directory() throws IOException {
+    assumeFalse(SystemUtils.IS_OS_WINDOWS);
+    File zip = FileUtils.toFile(getClass().getResource("ZipUtilsTest/symlink-outside.zip"));
+    File toDir = temp.newFolder();
+
+    try {
+      ZipUtils.unzip(zip, toDir);
+      fail();
+    } catch (IllegalStateException e) {
+      assertThat(e.getCause()).isInstanceOf(IllegalStateException.class);
+      assertThat(e.getCause().getMessage()).isEqualTo("Unzipping a symbolic link outside the target directory is not allowed: dir/link -> ../../outside.txt");
+    }
+    assertThat(Files.exists(toDir.toPath().resolve("dir/link"), LinkOption.NOFOLLOW_LINKS)).isFalse();
+  }
+
+  @Test
+  public void unzip_overwrites_existing_files() throws IOException {
+    File toDir = temp.newFolder();
+    File existing = new File(toDir, "foo.txt");
+    FileUtils.write(existing, "content that is longer than the file in zip", StandardCharsets.UTF_8);
+
+    ZipUtils.unzip(zip, toDir);
+
+    assertThat(existing.length()).isEqualTo(12L);
+  }
+
   @Test
   public void fail_if_unzipping_file_outside_target_directory() throws Exception {
     File zip = new File(getClass().getResource("ZipUtilsTest/zip-slip.zip").toURI());
@@ -0,0 +1,6 @@
+#!/bin/sh
+
+# starts a child process that runs forever, then waits for it
+sleep 600 &
+echo $! > child.pid
+wait